@@ -17,18 +17,30 @@
 
 package com.tedchain.tedcoin_android_wallet;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
 
 /**
  * @author Andreas Schildbach
@@ -36,26 +48,63 @@ import android.net.Uri;
 public class AddressBookProvider extends ContentProvider
 {
 	private static final String DATABASE_TABLE = "address_book";
+	private static final String WALLET_ADDRESSES_TABLE = "wallet_addresses";
+	private static final String SEARCH_TABLE = "address_book_fts";
 
 	public static final String KEY_ROWID = "_id";
 	public static final String KEY_ADDRESS = "address";
 	public static final String KEY_LABEL = "label";
 
+	/** prefix search over labels and addresses, best matches first */
 	public static final String SELECTION_QUERY = "q";
+	/** entries for the addresses passed as selection arguments, one per argument and no more than 500 of them */
 	public static final String SELECTION_IN = "in";
-	public static final String SELECTION_NOTIN = "notin";
+	/** entries not for an address of the wallet itself, see {@link #walletAddressesUri(String)} */
+	public static final String SELECTION_NOT_WALLET = "notwallet";
+
+	/** takes {@link #EXTRA_ADDRESSES}, returns labels keyed by address */
+	public static final String METHOD_RESOLVE_LABELS = "resolve_labels";
+	public static final String EXTRA_ADDRESSES = "addresses";
+
+	// SQLite allows no more than 999 host parameters per statement
+	private static final int MAX_BIND_ARGS = 500;
 
 	public static Uri contentUri(@Nonnull final String packageName)
 	{
 		return Uri.parse("content://" + packageName + '.' + DATABASE_TABLE);
 	}
 
+	/**
+	 * Addresses of the wallet's own keys, kept in line with the wallet by
+	 * {@link com.tedchain.tedcoin_android_wallet.store.WalletAddressesSync}. They can be queried, bulk inserted and deleted
+	 * one by one by appending the address. Base58 has no underscore, so the path can't be mistaken for an address.
+	 */
+	public static Uri walletAddressesUri(@Nonnull final String packageName)
+	{
+		return contentUri(packageName).buildUpon().appendPath(WALLET_ADDRESSES_TABLE).build();
+	}
+
+	public static boolean isWalletAddressesUri(@Nonnull final Uri uri)
+	{
+		final List<String> pathSegments = uri.getPathSegments();
+		return !pathSegments.isEmpty() && WALLET_ADDRESSES_TABLE.equals(pathSegments.get(0));
+	}
+
+	/**
+	 * Queries the address book right away. Most callers should go through the cached
+	 * {@link com.tedchain.tedcoin_android_wallet.util.AddressLabelResolver} instead.
+	 */
 	public static String resolveLabel(final Context context, @Nonnull final String address)
+	{
+		return resolveLabel(context.getContentResolver(), contentUri(context.getPackageName()), address);
+	}
+
+	public static String resolveLabel(@Nonnull final ContentResolver contentResolver, @Nonnull final Uri contentUri, @Nonnull final String address)
 	{
 		String label = null;
 
-		final Uri uri = contentUri(context.getPackageName()).buildUpon().appendPath(address).build();
-		final Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+		final Uri uri = contentUri.buildUpon().appendPath(address).build();
+		final Cursor cursor = contentResolver.query(uri, new String[] { KEY_LABEL }, null, null, null);
 
 		if (cursor != null)
 		{
@@ -68,6 +117,47 @@ public class AddressBookProvider extends ContentProvider
 		return label;
 	}
 
+	/**
+	 * Resolves many addresses in one round trip to the provider, using {@link #call(String, String, Bundle)} where the
+	 * platform offers it.
+	 *
+	 * @return labels of the addresses in the address book, by address
+	 */
+	public static Map<String, String> resolveLabels(@Nonnull final ContentResolver contentResolver, @Nonnull final Uri contentUri,
+			@Nonnull final Collection<String> addresses)
+	{
+		final Map<String, String> labels = new HashMap<String, String>();
+
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+		{
+			final Bundle extras = new Bundle();
+			extras.putStringArray(EXTRA_ADDRESSES, addresses.toArray(new String[addresses.size()]));
+			final Bundle result = contentResolver.call(contentUri, METHOD_RESOLVE_LABELS, null, extras);
+			if (result != null)
+				for (final String address : result.keySet())
+					labels.put(address, result.getString(address));
+		}
+		else
+		{
+			final String[] allAddresses = addresses.toArray(new String[addresses.size()]);
+			for (int start = 0; start < allAddresses.length; start += MAX_BIND_ARGS)
+			{
+				final String[] args = Arrays.copyOfRange(allAddresses, start, Math.min(start + MAX_BIND_ARGS, allAddresses.length));
+
+				final Cursor cursor = contentResolver.query(contentUri, new String[] { KEY_ADDRESS, KEY_LABEL }, SELECTION_IN, args, null);
+				if (cursor != null)
+				{
+					while (cursor.moveToNext())
+						labels.put(cursor.getString(0), cursor.getString(1));
+
+					cursor.close();
+				}
+			}
+		}
+
+		return labels;
+	}
+
 	private Helper helper;
 
 	@Override
@@ -92,7 +182,25 @@ public class AddressBookProvider extends ContentProvider
 		final String address = uri.getLastPathSegment();
 		values.put(KEY_ADDRESS, address);
 
-		long rowId = helper.getWritableDatabase().insertOrThrow(DATABASE_TABLE, null, values);
+		// an existing entry is updated like in bulkInsert, as the unique index would make inserting it throw
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		final String[] selectionArgs = new String[] { address };
+		final long rowId;
+		db.beginTransaction();
+		try
+		{
+			if (db.update(DATABASE_TABLE, values, KEY_ADDRESS + "=?", selectionArgs) > 0)
+				rowId = DatabaseUtils.longForQuery(db, "SELECT " + KEY_ROWID + " FROM " + DATABASE_TABLE + " WHERE " + KEY_ADDRESS + "=?",
+						selectionArgs);
+			else
+				rowId = db.insertOrThrow(DATABASE_TABLE, null, values);
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
 
 		final Uri rowUri = contentUri(getContext().getPackageName()).buildUpon().appendPath(address).appendPath(Long.toString(rowId)).build();
 
@@ -101,6 +209,96 @@ public class AddressBookProvider extends ContentProvider
 		return rowUri;
 	}
 
+	/**
+	 * Inserts or replaces all entries in one database transaction, notifying observers once. Values need to contain the
+	 * address.
+	 */
+	@Override
+	public int bulkInsert(final Uri uri, final ContentValues[] values)
+	{
+		final boolean walletAddresses;
+		if (uri.getPathSegments().size() == 0)
+			walletAddresses = false;
+		else if (uri.getPathSegments().size() == 1 && isWalletAddressesUri(uri))
+			walletAddresses = true;
+		else
+			throw new IllegalArgumentException(uri.toString());
+
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		db.beginTransaction();
+		try
+		{
+			for (final ContentValues entry : values)
+			{
+				if (walletAddresses)
+				{
+					db.insertWithOnConflict(WALLET_ADDRESSES_TABLE, null, entry, SQLiteDatabase.CONFLICT_IGNORE);
+				}
+				else
+				{
+					// rather than replacing, which would bypass the delete trigger of the search index
+					final String[] address = new String[] { entry.getAsString(KEY_ADDRESS) };
+					if (db.update(DATABASE_TABLE, entry, KEY_ADDRESS + "=?", address) == 0)
+						db.insertOrThrow(DATABASE_TABLE, null, entry);
+				}
+			}
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		if (values.length > 0)
+			getContext().getContentResolver().notifyChange(uri, null);
+
+		return values.length;
+	}
+
+	/**
+	 * Applies all operations in one database transaction, so either all or none of them take effect.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations) throws OperationApplicationException
+	{
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		db.beginTransaction();
+		try
+		{
+			final ContentProviderResult[] results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+			return results;
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+	}
+
+	@Override
+	public Bundle call(final String method, final String arg, final Bundle extras)
+	{
+		if (!METHOD_RESOLVE_LABELS.equals(method))
+			throw new UnsupportedOperationException(method);
+
+		final String[] addresses = extras.getStringArray(EXTRA_ADDRESSES);
+		final Bundle labels = new Bundle();
+		final SQLiteDatabase db = helper.getReadableDatabase();
+
+		for (int start = 0; start < addresses.length; start += MAX_BIND_ARGS)
+		{
+			final String[] args = Arrays.copyOfRange(addresses, start, Math.min(start + MAX_BIND_ARGS, addresses.length));
+
+			final Cursor cursor = db.query(DATABASE_TABLE, new String[] { KEY_ADDRESS, KEY_LABEL }, addressIn(args.length), args, null, null, null);
+			while (cursor.moveToNext())
+				labels.putString(cursor.getString(0), cursor.getString(1));
+			cursor.close();
+		}
+
+		return labels;
+	}
+
 	@Override
 	public int update(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs)
 	{
@@ -121,12 +319,17 @@ public class AddressBookProvider extends ContentProvider
 	public int delete(final Uri uri, final String selection, final String[] selectionArgs)
 	{
 		final List<String> pathSegments = uri.getPathSegments();
-		if (pathSegments.size() != 1)
+		final String table;
+		if (pathSegments.size() == 1 && !isWalletAddressesUri(uri))
+			table = DATABASE_TABLE;
+		else if (pathSegments.size() == 2 && isWalletAddressesUri(uri))
+			table = WALLET_ADDRESSES_TABLE;
+		else
 			throw new IllegalArgumentException(uri.toString());
 
 		final String address = uri.getLastPathSegment();
 
-		final int count = helper.getWritableDatabase().delete(DATABASE_TABLE, KEY_ADDRESS + "=?", new String[] { address });
+		final int count = helper.getWritableDatabase().delete(table, KEY_ADDRESS + "=?", new String[] { address });
 
 		if (count > 0)
 			getContext().getContentResolver().notifyChange(uri, null);
@@ -139,12 +342,23 @@ public class AddressBookProvider extends ContentProvider
 			final String sortOrder)
 	{
 		final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
-		qb.setTables(DATABASE_TABLE);
 
 		final List<String> pathSegments = uri.getPathSegments();
 		if (pathSegments.size() > 1)
 			throw new IllegalArgumentException(uri.toString());
 
+		if (isWalletAddressesUri(uri))
+		{
+			qb.setTables(WALLET_ADDRESSES_TABLE);
+			final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, null, null, null, null, sortOrder);
+			cursor.setNotificationUri(getContext().getContentResolver(), uri);
+			return cursor;
+		}
+
+		if (SELECTION_QUERY.equals(originalSelection))
+			return querySearch(uri, projection, originalSelectionArgs[0], sortOrder);
+
+		qb.setTables(DATABASE_TABLE);
 		String selection = null;
 		String[] selectionArgs = null;
 
@@ -157,54 +371,123 @@ public class AddressBookProvider extends ContentProvider
 		}
 		else if (SELECTION_IN.equals(originalSelection))
 		{
-			final String[] addresses = originalSelectionArgs[0].trim().split(",");
+			if (originalSelectionArgs.length > MAX_BIND_ARGS)
+				throw new IllegalArgumentException("too many addresses: " + originalSelectionArgs.length);
 
-			qb.appendWhere(KEY_ADDRESS + " IN (");
-			appendAddresses(qb, addresses);
-			qb.appendWhere(")");
+			selection = addressIn(originalSelectionArgs.length);
+			selectionArgs = originalSelectionArgs;
 		}
-		else if (SELECTION_NOTIN.equals(originalSelection))
+		else if (SELECTION_NOT_WALLET.equals(originalSelection))
 		{
-			final String[] addresses = originalSelectionArgs[0].trim().split(",");
-
-			qb.appendWhere(KEY_ADDRESS + " NOT IN (");
-			appendAddresses(qb, addresses);
-			qb.appendWhere(")");
+			// primary key lookup per entry
+			qb.appendWhere(KEY_ADDRESS + " NOT IN (SELECT " + KEY_ADDRESS + " FROM " + WALLET_ADDRESSES_TABLE + ")");
 		}
-		else if (SELECTION_QUERY.equals(originalSelection))
+
+		final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
+
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+		return cursor;
+	}
+
+	/**
+	 * Looks up the full text index, so the cost depends on the number of matches rather than the size of the address book.
+	 * Entries whose label starts with the whole query rank first.
+	 */
+	private Cursor querySearch(final Uri uri, final String[] projection, final String query, final String sortOrder)
+	{
+		final String match = prefixMatch(query);
+		final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+		final Cursor cursor;
+
+		if (match.length() == 0)
 		{
-			final String query = '%' + originalSelectionArgs[0].trim() + '%';
-			selection = KEY_ADDRESS + " LIKE ? OR " + KEY_LABEL + " LIKE ?";
-			selectionArgs = new String[] { query, query };
+			qb.setTables(DATABASE_TABLE);
+			cursor = qb.query(helper.getReadableDatabase(), projection, null, null, null, null, sortOrder != null ? sortOrder : KEY_LABEL
+					+ " COLLATE LOCALIZED ASC");
 		}
+		else
+		{
+			qb.setTables(DATABASE_TABLE + " JOIN " + SEARCH_TABLE + " ON (" + DATABASE_TABLE + "." + KEY_ROWID + " = " + SEARCH_TABLE + ".docid)");
 
-		final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
+			final String[] columns = projection != null ? projection : new String[] { KEY_ROWID, KEY_ADDRESS, KEY_LABEL };
+			final String[] qualifiedColumns = new String[columns.length];
+			for (int i = 0; i < columns.length; i++)
+				qualifiedColumns[i] = DATABASE_TABLE + "." + columns[i] + " AS " + columns[i];
+
+			final String orderBy = sortOrder != null ? sortOrder : "CASE WHEN " + DATABASE_TABLE + "." + KEY_LABEL + " LIKE ? THEN 0 ELSE 1 END, "
+					+ DATABASE_TABLE + "." + KEY_LABEL + " COLLATE LOCALIZED ASC";
+			final String[] args = sortOrder != null ? new String[] { match } : new String[] { match, query.trim() + '%' };
+
+			cursor = qb.query(helper.getReadableDatabase(), qualifiedColumns, SEARCH_TABLE + " MATCH ?", args, null, null, orderBy);
+		}
 
 		cursor.setNotificationUri(getContext().getContentResolver(), uri);
 
 		return cursor;
 	}
 
-	private static void appendAddresses(@Nonnull final SQLiteQueryBuilder qb, @Nonnull final String[] addresses)
+	/**
+	 * @return full text query matching all words of the user's query as prefixes, without any query syntax they might
+	 *         contain
+	 */
+	private static String prefixMatch(final String query)
 	{
-		for (final String address : addresses)
+		final StringBuilder match = new StringBuilder();
+		for (final String word : query.split("[^\\p{L}\\p{N}]+"))
 		{
-			qb.appendWhereEscapeString(address.trim());
-			if (!address.equals(addresses[addresses.length - 1]))
-				qb.appendWhere(",");
+			if (word.length() > 0)
+			{
+				if (match.length() > 0)
+					match.append(' ');
+				match.append(word).append('*');
+			}
 		}
+		return match.toString();
+	}
+
+	/**
+	 * @return selection of the given number of addresses, each to be bound as an argument
+	 */
+	private static String addressIn(final int numAddresses)
+	{
+		final StringBuilder selection = new StringBuilder(KEY_ADDRESS + " IN (");
+		for (int i = 0; i < numAddresses; i++)
+			selection.append(i == 0 ? "?" : ",?");
+		selection.append(')');
+		return selection.toString();
 	}
 
 	private static class Helper extends SQLiteOpenHelper
 	{
 		private static final String DATABASE_NAME = "address_book";
-		private static final int DATABASE_VERSION = 1;
+		private static final int DATABASE_VERSION = 4;
 
 		private static final String DATABASE_CREATE = "CREATE TABLE " + DATABASE_TABLE + " (" //
 				+ KEY_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " //
 				+ KEY_ADDRESS + " TEXT NOT NULL, " //
 				+ KEY_LABEL + " TEXT NULL);";
 
+		private static final String INDEX_ADDRESS_CREATE = "CREATE UNIQUE INDEX " + DATABASE_TABLE + "_address ON " + DATABASE_TABLE + " ("
+				+ KEY_ADDRESS + ");";
+
+		private static final String WALLET_ADDRESSES_CREATE = "CREATE TABLE " + WALLET_ADDRESSES_TABLE + " (" //
+				+ KEY_ADDRESS + " TEXT PRIMARY KEY NOT NULL);";
+
+		// FTS3 rather than FTS4, which needs API level 11
+		private static final String SEARCH_CREATE = "CREATE VIRTUAL TABLE " + SEARCH_TABLE + " USING fts3(" + KEY_LABEL + ", " + KEY_ADDRESS
+				+ ");";
+
+		private static final String[] SEARCH_TRIGGERS_CREATE = {
+				"CREATE TRIGGER " + SEARCH_TABLE + "_insert AFTER INSERT ON " + DATABASE_TABLE + " BEGIN INSERT INTO " + SEARCH_TABLE
+						+ " (docid, " + KEY_LABEL + ", " + KEY_ADDRESS + ") VALUES (new." + KEY_ROWID + ", new." + KEY_LABEL + ", new." + KEY_ADDRESS
+						+ "); END;",
+				"CREATE TRIGGER " + SEARCH_TABLE + "_update AFTER UPDATE ON " + DATABASE_TABLE + " BEGIN UPDATE " + SEARCH_TABLE + " SET "
+						+ KEY_LABEL + " = new." + KEY_LABEL + ", " + KEY_ADDRESS + " = new." + KEY_ADDRESS + " WHERE docid = old." + KEY_ROWID
+						+ "; END;",
+				"CREATE TRIGGER " + SEARCH_TABLE + "_delete AFTER DELETE ON " + DATABASE_TABLE + " BEGIN DELETE FROM " + SEARCH_TABLE
+						+ " WHERE docid = old." + KEY_ROWID + "; END;" };
+
 		public Helper(final Context context)
 		{
 			super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -214,6 +497,26 @@ public class AddressBookProvider extends ContentProvider
 		public void onCreate(final SQLiteDatabase db)
 		{
 			db.execSQL(DATABASE_CREATE);
+			db.execSQL(INDEX_ADDRESS_CREATE);
+			db.execSQL(WALLET_ADDRESSES_CREATE);
+			createSearch(db);
+		}
+
+		private void createSearch(final SQLiteDatabase db)
+		{
+			db.execSQL(SEARCH_CREATE);
+			for (final String trigger : SEARCH_TRIGGERS_CREATE)
+				db.execSQL(trigger);
+		}
+
+		@Override
+		public void onOpen(final SQLiteDatabase db)
+		{
+			super.onOpen(db);
+
+			// readers like label lookups don't wait for writers
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && !db.isReadOnly())
+				db.enableWriteAheadLogging();
 		}
 
 		@Override
@@ -237,7 +540,21 @@ public class AddressBookProvider extends ContentProvider
 		{
 			if (oldVersion == 1)
 			{
-				// future
+				// nothing prevented duplicate addresses before, keep the latest entry of each
+				db.execSQL("DELETE FROM " + DATABASE_TABLE + " WHERE " + KEY_ROWID + " NOT IN (SELECT MAX(" + KEY_ROWID + ") FROM "
+						+ DATABASE_TABLE + " GROUP BY " + KEY_ADDRESS + ");");
+				db.execSQL(INDEX_ADDRESS_CREATE);
+			}
+			else if (oldVersion == 2)
+			{
+				// filled from the wallet on next start
+				db.execSQL(WALLET_ADDRESSES_CREATE);
+			}
+			else if (oldVersion == 3)
+			{
+				createSearch(db);
+				db.execSQL("INSERT INTO " + SEARCH_TABLE + " (docid, " + KEY_LABEL + ", " + KEY_ADDRESS + ") SELECT " + KEY_ROWID + ", " + KEY_LABEL
+						+ ", " + KEY_ADDRESS + " FROM " + DATABASE_TABLE + ";");
 			}
 			else
 			{
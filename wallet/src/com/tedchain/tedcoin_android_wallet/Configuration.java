@@ -47,10 +47,15 @@ public class Configuration
 	public static final String PREFS_KEY_DISCLAIMER = "disclaimer";
 	public static final String PREFS_KEY_SELECTED_ADDRESS = "selected_address";
 	private static final String PREFS_KEY_LABS_QR_PAYMENT_REQUEST = "labs_qr_payment_request";
+	private static final String PREFS_KEY_LABS_SYNC_PROCESS = "labs_sync_process";
+	private static final String PREFS_KEY_LABS_LOCK_PROFILING = "labs_lock_profiling";
+	private static final String PREFS_KEY_LABS_VERIFY_BALANCE_CACHE = "labs_verify_balance_cache";
+	private static final String PREFS_KEY_LABS_SCROLL_BENCHMARK = "labs_scroll_benchmark";
 
 	private static final String PREFS_KEY_LAST_VERSION = "last_version";
 	private static final String PREFS_KEY_LAST_USED = "last_used";
 	private static final String PREFS_KEY_BEST_CHAIN_HEIGHT_EVER = "best_chain_height_ever";
+	private static final String PREFS_KEY_BALANCE_SNAPSHOT = "balance_snapshot";
 	private static final String PREFS_KEY_CACHED_EXCHANGE_CURRENCY = "cached_exchange_currency";
 	private static final String PREFS_KEY_CACHED_EXCHANGE_RATE = "cached_exchange_rate";
 	private static final String PREFS_KEY_LAST_EXCHANGE_DIRECTION = "last_exchange_direction";
@@ -176,6 +181,26 @@ public class Configuration
 		return prefs.getBoolean(PREFS_KEY_LABS_QR_PAYMENT_REQUEST, false);
 	}
 
+	public boolean getSyncProcessEnabled()
+	{
+		return prefs.getBoolean(PREFS_KEY_LABS_SYNC_PROCESS, false);
+	}
+
+	public boolean getLockProfilingEnabled()
+	{
+		return prefs.getBoolean(PREFS_KEY_LABS_LOCK_PROFILING, false);
+	}
+
+	public boolean getBalanceCacheVerificationEnabled()
+	{
+		return prefs.getBoolean(PREFS_KEY_LABS_VERIFY_BALANCE_CACHE, false);
+	}
+
+	public boolean getScrollBenchmarkEnabled()
+	{
+		return prefs.getBoolean(PREFS_KEY_LABS_SCROLL_BENCHMARK, false);
+	}
+
 	public boolean versionCodeCrossed(final int currentVersionCode, final int triggeringVersionCode)
 	{
 		final boolean wasBelow = lastVersionCode < triggeringVersionCode;
@@ -221,6 +246,19 @@ public class Configuration
 		prefs.edit().putInt(PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, bestChainHeightEver).commit();
 	}
 
+	public BigInteger getBalanceSnapshot()
+	{
+		if (prefs.contains(PREFS_KEY_BALANCE_SNAPSHOT))
+			return BigInteger.valueOf(prefs.getLong(PREFS_KEY_BALANCE_SNAPSHOT, 0));
+		else
+			return null;
+	}
+
+	public void setBalanceSnapshot(@Nonnull final BigInteger balance)
+	{
+		prefs.edit().putLong(PREFS_KEY_BALANCE_SNAPSHOT, balance.longValue()).commit();
+	}
+
 	public ExchangeRate getCachedExchangeRate()
 	{
 		if (prefs.contains(PREFS_KEY_CACHED_EXCHANGE_CURRENCY) && prefs.contains(PREFS_KEY_CACHED_EXCHANGE_RATE))
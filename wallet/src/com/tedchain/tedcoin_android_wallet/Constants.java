@@ -39,6 +39,16 @@ public class Constants
 	public static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
 
 	public static final String WALLET_FILENAME_PROTOBUF = "wallet-protobuf";
+	public static final String WALLET_FILENAME_JOURNAL = "wallet-journal";
+	public static final long WALLET_JOURNAL_COMPACT_THRESHOLD = 512 * 1024;
+	public static final long WALLET_SAVE_DELAY_MS = DateUtils.SECOND_IN_MILLIS;
+	public static final long WALLET_SAVE_DELAY_REPLAYING_MS = DateUtils.MINUTE_IN_MILLIS;
+	public static final long WALLET_CHANGE_COALESCE_MS = 250;
+	public static final long BALANCE_CACHE_VERIFY_INTERVAL_MS = 5 * DateUtils.MINUTE_IN_MILLIS;
+	public static final String WALLET_FILENAME_ARCHIVE = "wallet-archive";
+	public static final String WALLET_FILENAME_CLEAN_SHUTDOWN = "wallet-clean-shutdown";
+	public static final String WALLET_FILENAME_LOCK = "wallet-lock";
+	public static final int TX_ARCHIVE_MIN_DEPTH = 2016;
 
 	public static final String WALLET_KEY_BACKUP_BASE58 = "key-backup-base58";
 	public static final String WALLET_KEY_BACKUP_PROTOBUF = "key-backup-protobuf";
@@ -50,9 +60,12 @@ public class Constants
 	public static final long BACKUP_MAX_CHARS = 5000000;
 
 	public static final String BLOCKCHAIN_FILENAME = "blockchain";
+	public static final String BLOCKCHAIN_FILENAME_CLEAN_SHUTDOWN = "blockchain-clean-shutdown";
 	public static final String VALID_HASHES_FILENAME = "validhashes";
 	public static final String PEERS_FILENAME = "peers";
 	public static final String CHECKPOINTS_FILENAME = "checkpoints";
+	public static final String SYNC_SESSION_LOG_FILENAME = "sync-sessions.log";
+	public static final int SYNC_SESSION_LOG_MAX_SESSIONS = 500;
 
 	public static final String EXPLORE_BASE_URL = "https://www.tedcoinexplorer.info/";
 
@@ -65,6 +78,7 @@ public class Constants
 	public static final int WALLET_OPERATION_STACK_SIZE = 256 * 1024;
 	public static final long BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
 	public static final long BLOCKCHAIN_UPTODATE_THRESHOLD_MS = DateUtils.HOUR_IN_MILLIS;
+	public static final long BLOCK_INTERVAL_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
 
 	public static final String CURRENCY_CODE_PPC = "PPC";
 	public static final String CURRENCY_CODE_MPPC = "mPPC";
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+/**
+ * Summaries of all transactions, in the wallet and archived, for paging through the transaction history without holding
+ * it in memory. It is derived data: rows are written from wallet snapshots and can be rebuilt at any time.
+ *
+ * @author Andreas Schildbach
+ */
+public class TransactionsProvider extends ContentProvider
+{
+	private static final String DATABASE_TABLE = "transactions";
+
+	public static final String KEY_ROWID = "_id";
+	public static final String KEY_HASH = "hash";
+	public static final String KEY_VALUE = "value";
+	/** RECEIVED or SENT, null for internal transactions */
+	public static final String KEY_DIRECTION = "direction";
+	public static final String KEY_TIME = "time";
+	public static final String KEY_ADDRESS = "address";
+	public static final String KEY_CONFIDENCE = "confidence";
+	/** height of the block the transaction appeared in, -1 unless building or if archived */
+	public static final String KEY_APPEARED_AT_HEIGHT = "appeared_at_height";
+	public static final String KEY_PURPOSE = "purpose";
+	public static final String KEY_COINBASE = "coinbase";
+	public static final String KEY_PENDING = "pending";
+	public static final String KEY_ARCHIVED = "archived";
+
+	/** pending first, then newest first */
+	public static final String SORT_ORDER = KEY_PENDING + " DESC, " + KEY_TIME + " DESC";
+
+	public static Uri contentUri(@Nonnull final String packageName)
+	{
+		return Uri.parse("content://" + packageName + '.' + DATABASE_TABLE);
+	}
+
+	private Helper helper;
+
+	@Override
+	public boolean onCreate()
+	{
+		helper = new Helper(getContext());
+		return true;
+	}
+
+	@Override
+	public String getType(final Uri uri)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Uri insert(final Uri uri, final ContentValues values)
+	{
+		if (uri.getPathSegments().size() != 0)
+			throw new IllegalArgumentException(uri.toString());
+
+		upsert(helper.getWritableDatabase(), values);
+
+		getContext().getContentResolver().notifyChange(uri, null);
+
+		return uri.buildUpon().appendPath(values.getAsString(KEY_HASH)).build();
+	}
+
+	/**
+	 * Inserts or updates all rows in one database transaction, notifying observers once.
+	 */
+	@Override
+	public int bulkInsert(final Uri uri, final ContentValues[] values)
+	{
+		if (uri.getPathSegments().size() != 0)
+			throw new IllegalArgumentException(uri.toString());
+
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		db.beginTransaction();
+		try
+		{
+			for (final ContentValues row : values)
+				upsert(db, row);
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		if (values.length > 0)
+			getContext().getContentResolver().notifyChange(uri, null);
+
+		return values.length;
+	}
+
+	// rather than replacing, which would delete the row and give it a new id
+	private static void upsert(final SQLiteDatabase db, final ContentValues row)
+	{
+		if (db.update(DATABASE_TABLE, row, KEY_HASH + "=?", new String[] { row.getAsString(KEY_HASH) }) == 0)
+			db.insertOrThrow(DATABASE_TABLE, null, row);
+	}
+
+	@Override
+	public int update(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int delete(final Uri uri, final String selection, final String[] selectionArgs)
+	{
+		final List<String> pathSegments = uri.getPathSegments();
+
+		final int count;
+		if (pathSegments.size() == 0)
+			count = helper.getWritableDatabase().delete(DATABASE_TABLE, selection, selectionArgs);
+		else if (pathSegments.size() == 1)
+			count = helper.getWritableDatabase().delete(DATABASE_TABLE, KEY_HASH + "=?", new String[] { uri.getLastPathSegment() });
+		else
+			throw new IllegalArgumentException(uri.toString());
+
+		if (count > 0)
+			getContext().getContentResolver().notifyChange(uri, null);
+
+		return count;
+	}
+
+	@Override
+	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs, final String sortOrder)
+	{
+		if (uri.getPathSegments().size() != 0)
+			throw new IllegalArgumentException(uri.toString());
+
+		final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+		qb.setTables(DATABASE_TABLE);
+
+		final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
+
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+		return cursor;
+	}
+
+	private static class Helper extends SQLiteOpenHelper
+	{
+		private static final String DATABASE_NAME = "transactions";
+		private static final int DATABASE_VERSION = 3;
+
+		private static final String DATABASE_CREATE = "CREATE TABLE " + DATABASE_TABLE + " (" //
+				+ KEY_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " //
+				+ KEY_HASH + " TEXT NOT NULL UNIQUE, " //
+				+ KEY_VALUE + " INTEGER NOT NULL, " //
+				+ KEY_DIRECTION + " TEXT NULL, " //
+				+ KEY_TIME + " INTEGER NOT NULL, " //
+				+ KEY_ADDRESS + " TEXT NULL, " //
+				+ KEY_CONFIDENCE + " TEXT NOT NULL, " //
+				+ KEY_APPEARED_AT_HEIGHT + " INTEGER NOT NULL, " //
+				+ KEY_PURPOSE + " TEXT NULL, " //
+				+ KEY_COINBASE + " INTEGER NOT NULL, " //
+				+ KEY_PENDING + " INTEGER NOT NULL, " //
+				+ KEY_ARCHIVED + " INTEGER NOT NULL);";
+
+		private static final String INDEX_TIME_CREATE = "CREATE INDEX " + DATABASE_TABLE + "_time ON " + DATABASE_TABLE + " (" + KEY_PENDING
+				+ ", " + KEY_TIME + ");";
+
+		private static final String INDEX_DIRECTION_CREATE = "CREATE INDEX " + DATABASE_TABLE + "_direction ON " + DATABASE_TABLE + " ("
+				+ KEY_DIRECTION + ", " + KEY_PENDING + ", " + KEY_TIME + ");";
+
+		// for searching
+		private static final String INDEX_ADDRESS_CREATE = "CREATE INDEX " + DATABASE_TABLE + "_address ON " + DATABASE_TABLE + " ("
+				+ KEY_ADDRESS + ");";
+		private static final String INDEX_VALUE_CREATE = "CREATE INDEX " + DATABASE_TABLE + "_value ON " + DATABASE_TABLE + " (" + KEY_VALUE
+				+ ");";
+		private static final String INDEX_TIME_RANGE_CREATE = "CREATE INDEX " + DATABASE_TABLE + "_time_range ON " + DATABASE_TABLE + " ("
+				+ KEY_TIME + ");";
+
+		public Helper(final Context context)
+		{
+			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		}
+
+		@Override
+		public void onCreate(final SQLiteDatabase db)
+		{
+			db.execSQL(DATABASE_CREATE);
+			db.execSQL(INDEX_TIME_CREATE);
+			db.execSQL(INDEX_DIRECTION_CREATE);
+			db.execSQL(INDEX_ADDRESS_CREATE);
+			db.execSQL(INDEX_VALUE_CREATE);
+			db.execSQL(INDEX_TIME_RANGE_CREATE);
+		}
+
+		@Override
+		public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion)
+		{
+			// derived data, gets rebuilt from the wallet
+			db.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE);
+			onCreate(db);
+		}
+	}
+}
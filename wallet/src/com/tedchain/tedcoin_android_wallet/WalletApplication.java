@@ -18,13 +18,20 @@
 package com.tedchain.tedcoin_android_wallet;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.channels.FileLock;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.annotation.Nonnull;
 
@@ -33,14 +40,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.app.ActivityManager;
+import android.app.ActivityManager.RunningAppProcessInfo;
 import android.app.AlarmManager;
 import android.app.Application;
 import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.StrictMode;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.text.format.DateUtils;
 import android.widget.Toast;
@@ -52,21 +65,39 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.rolling.RollingFileAppender;
 import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
 
+import com.tedchain.tedcoinj.core.AbstractWalletEventListener;
 import com.tedchain.tedcoinj.core.Address;
 import com.tedchain.tedcoinj.core.ECKey;
 import com.tedchain.tedcoinj.core.Transaction;
+import com.tedchain.tedcoinj.core.TransactionConfidence.Source;
 import com.tedchain.tedcoinj.core.VersionMessage;
 import com.tedchain.tedcoinj.core.Wallet;
+import com.tedchain.tedcoinj.core.Wallet.BalanceType;
+import com.tedchain.tedcoinj.core.WalletEventListener;
 import com.tedchain.tedcoinj.store.UnreadableWalletException;
 import com.tedchain.tedcoinj.store.WalletProtobufSerializer;
 import com.tedchain.tedcoinj.utils.Threading;
-import com.tedchain.tedcoinj.wallet.WalletFiles;
+import com.google.protobuf.ByteString;
 
+import com.tedchain.tedcoin_android_wallet.data.TransactionMemo;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
 import com.tedchain.tedcoin_android_wallet.service.BlockchainService;
 import com.tedchain.tedcoin_android_wallet.service.BlockchainServiceImpl;
+import com.tedchain.tedcoin_android_wallet.service.PeerCountController;
+import com.tedchain.tedcoin_android_wallet.service.RemoteBlockchainService;
+import com.tedchain.tedcoin_android_wallet.store.CleanShutdownMarker;
+import com.tedchain.tedcoin_android_wallet.store.TransactionArchive;
+import com.tedchain.tedcoin_android_wallet.store.TransactionHistorySync;
+import com.tedchain.tedcoin_android_wallet.store.WalletAddressesSync;
+import com.tedchain.tedcoin_android_wallet.store.WalletJournal;
+import com.tedchain.tedcoin_android_wallet.store.WalletSavePolicy;
+import com.tedchain.tedcoin_android_wallet.util.AddressLabelResolver;
 import com.tedchain.tedcoin_android_wallet.util.CrashReporter;
 import com.tedchain.tedcoin_android_wallet.util.Io;
 import com.tedchain.tedcoin_android_wallet.util.LinuxSecureRandom;
+import com.tedchain.tedcoin_android_wallet.util.WalletBalanceCache;
+import com.tedchain.tedcoin_android_wallet.util.WalletChangeDispatcher;
+import com.tedchain.tedcoin_android_wallet.util.WalletLockProfiler;
 import com.tedchain.tedcoin_android_wallet.R;
 
 /**
@@ -76,13 +107,38 @@ public class WalletApplication extends Application
 {
 	private Configuration config;
 	private ActivityManager activityManager;
+	private PeerCountController peerCountController;
+	private volatile int publishedMaxConnectedPeers = 0; // as published by the sync process
+	private boolean syncProcessEnabled;
+	private boolean syncProcess;
 
 	private Intent blockchainServiceIntent;
 	private Intent blockchainServiceCancelCoinsReceivedIntent;
 	private Intent blockchainServiceResetBlockchainIntent;
 
 	private File walletFile;
-	private Wallet wallet;
+	private WalletJournal walletJournal;
+	private TransactionArchive transactionArchive;
+	private File walletJournalFile;
+	private CleanShutdownMarker walletShutdownMarker;
+	private File walletLockFile;
+	private RandomAccessFile walletLockHandle; // only touched on save thread
+	private FileLock walletFileLock; // only touched on save thread
+	private volatile boolean walletInconsistent = false;
+	private volatile boolean walletPartiallyRecovered = false;
+	private Handler walletSaveHandler;
+	private final WalletSavePolicy walletSavePolicy = new WalletSavePolicy(Constants.WALLET_SAVE_DELAY_MS, Constants.WALLET_SAVE_DELAY_REPLAYING_MS);
+	private long walletSaveDueAt = 0;
+	private volatile Wallet wallet;
+	private volatile FutureTask<Wallet> walletLoad;
+	private List<ECKey> earlyKeys;
+	private BigInteger lastBalanceSnapshot;
+	private volatile boolean walletStale = false;
+	private WalletLockProfiler walletLockProfiler;
+	private WalletBalanceCache walletBalanceCache;
+	private TransactionMemo transactionMemo;
+	private AddressLabelResolver addressLabelResolver;
+	private WalletChangeDispatcher walletChangeDispatcher;
 	private PackageInfo packageInfo;
 
 	private static final Logger log = LoggerFactory.getLogger(WalletApplication.class);
@@ -118,24 +174,155 @@ public class WalletApplication extends Application
 
 		config = new Configuration(PreferenceManager.getDefaultSharedPreferences(this));
 		activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+		peerCountController = new PeerCountController(activityManager.getMemoryClass() <= Constants.MEMORY_CLASS_LOWEND);
 
-		blockchainServiceIntent = new Intent(this, BlockchainServiceImpl.class);
-		blockchainServiceCancelCoinsReceivedIntent = new Intent(BlockchainService.ACTION_CANCEL_COINS_RECEIVED, null, this,
-				BlockchainServiceImpl.class);
-		blockchainServiceResetBlockchainIntent = new Intent(BlockchainService.ACTION_RESET_BLOCKCHAIN, null, this, BlockchainServiceImpl.class);
+		// process layout is fixed for the lifetime of the process, so toggling the preference takes effect after a restart
+		syncProcessEnabled = config.getSyncProcessEnabled();
+		final String processName = processName();
+		syncProcess = processName != null && processName.endsWith(":sync");
+		log.info("process: " + processName + (syncProcessEnabled ? ", sync process enabled" : ""));
+
+		walletLockProfiler = new WalletLockProfiler(config.getLockProfilingEnabled());
+
+		final Class<?> serviceClass = blockchainServiceClass();
+		blockchainServiceIntent = new Intent(this, serviceClass);
+		blockchainServiceCancelCoinsReceivedIntent = new Intent(BlockchainService.ACTION_CANCEL_COINS_RECEIVED, null, this, serviceClass);
+		blockchainServiceResetBlockchainIntent = new Intent(BlockchainService.ACTION_RESET_BLOCKCHAIN, null, this, serviceClass);
+
+		if (!ownsWalletFile())
+		{
+			registerReceiver(new BroadcastReceiver()
+			{
+				@Override
+				public void onReceive(final Context context, final Intent intent)
+				{
+					// open screens need the balance and spendable outputs right away, not only after the next start
+					walletStale = true;
+					walletSaveHandler.removeCallbacks(refreshWalletRunnable);
+					walletSaveHandler.post(refreshWalletRunnable);
+				}
+			}, new IntentFilter(BlockchainService.ACTION_WALLET_SAVED));
+
+			// the peer count controller is only sampled in the process running the service
+			registerReceiver(new BroadcastReceiver()
+			{
+				@Override
+				public void onReceive(final Context context, final Intent intent)
+				{
+					publishedMaxConnectedPeers = intent.getIntExtra(BlockchainService.ACTION_PEER_STATE_MAX_PEERS, 0);
+				}
+			}, new IntentFilter(BlockchainService.ACTION_PEER_STATE));
+		}
 
 		walletFile = getFileStreamPath(Constants.WALLET_FILENAME_PROTOBUF);
+		walletJournalFile = getFileStreamPath(Constants.WALLET_FILENAME_JOURNAL);
+		walletJournal = new WalletJournal(walletFile, walletJournalFile, Constants.WALLET_JOURNAL_COMPACT_THRESHOLD);
+		walletShutdownMarker = new CleanShutdownMarker(getFileStreamPath(Constants.WALLET_FILENAME_CLEAN_SHUTDOWN));
+		walletLockFile = getFileStreamPath(Constants.WALLET_FILENAME_LOCK);
+		transactionArchive = new TransactionArchive(getFileStreamPath(Constants.WALLET_FILENAME_ARCHIVE), Constants.NETWORK_PARAMETERS);
+
+		final HandlerThread walletSaveThread = new HandlerThread("walletSaveThread", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+		walletSaveThread.start();
+		walletSaveHandler = new Handler(walletSaveThread.getLooper());
+
+		final HandlerThread walletSnapshotThread = new HandlerThread("walletSnapshotThread", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+		walletSnapshotThread.start();
+		walletBalanceCache = new WalletBalanceCache(config.getBalanceCacheVerificationEnabled(), Constants.BALANCE_CACHE_VERIFY_INTERVAL_MS);
+		transactionMemo = new TransactionMemo();
+		addressLabelResolver = new AddressLabelResolver(this, new Handler());
+		walletChangeDispatcher = new WalletChangeDispatcher(walletLockProfiler, walletBalanceCache, transactionMemo, new Handler(
+				walletSnapshotThread.getLooper()), Constants.WALLET_CHANGE_COALESCE_MS);
+
+		// a process working on a copy of the wallet would reconcile away what the owning process just wrote
+		if (ownsWalletFile())
+		{
+			final HandlerThread providerSyncThread = new HandlerThread("providerSyncThread", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+			providerSyncThread.start();
+			final Handler providerSyncHandler = new Handler(providerSyncThread.getLooper());
+			walletChangeDispatcher.addSubscriber(new TransactionHistorySync(this, transactionArchive, providerSyncHandler));
+			walletChangeDispatcher.addSubscriber(new WalletAddressesSync(this, providerSyncHandler));
+		}
 
-		loadWalletFromProtobuf();
+		// keys first, so the selected address is available right away; transactions are parsed in the background
+		loadEarlyKeys();
+		loadWalletAsync(true);
 
 		config.updateLastVersionCode(packageInfo.versionCode);
+	}
 
-		afterLoadWallet();
+	private void loadWalletAsync(final boolean initial)
+	{
+		walletLoad = new FutureTask<Wallet>(new Callable<Wallet>()
+		{
+			@Override
+			public Wallet call()
+			{
+				// held for as long as this process may write the wallet file
+				if (syncProcess)
+					lockWalletFile();
+
+				loadWalletFromProtobuf();
+
+				if (initial && ownsWalletFile())
+					archiveOldTransactions();
+
+				if (initial)
+					afterLoadWallet();
+				else if (ownsWalletFile())
+					startWalletSaving();
+
+				walletChangeDispatcher.setWallet(wallet);
+
+				return wallet;
+			}
+		});
+
+		// loading on the save thread guarantees no save can happen before the wallet is loaded
+		walletSaveHandler.post(walletLoad);
+	}
+
+	private void loadEarlyKeys()
+	{
+		InputStream is = null;
+
+		try
+		{
+			is = openFileInput(Constants.WALLET_KEY_BACKUP_PROTOBUF);
+
+			earlyKeys = new WalletProtobufSerializer().readWallet(is).getKeys();
+		}
+		catch (final FileNotFoundException x)
+		{
+			// no backup yet, callers will wait for the wallet
+		}
+		catch (final IOException x)
+		{
+			log.info("problem reading key backup", x);
+		}
+		catch (final UnreadableWalletException x)
+		{
+			log.info("problem reading key backup", x);
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
 	}
 
 	private void afterLoadWallet()
 	{
-		wallet.autosaveToFile(walletFile, 1, TimeUnit.SECONDS, new WalletAutosaveEventListener());
+		if (ownsWalletFile())
+			startWalletSaving();
 
 		// clean up spam
 		wallet.cleanup();
@@ -194,19 +381,201 @@ public class WalletApplication extends Application
 		log.setLevel(Level.INFO);
 	}
 
-	private static final class WalletAutosaveEventListener implements WalletFiles.Listener
+	private final WalletEventListener walletSaveListener = new AbstractWalletEventListener()
 	{
 		@Override
-		public void onBeforeAutoSave(final File file)
+		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			scheduleWalletSave(dirtyPayment(tx));
+		}
+
+		@Override
+		public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			scheduleWalletSave(dirtyPayment(tx));
+		}
+
+		// own transactions cannot be recovered by replaying the chain
+		private int dirtyPayment(final Transaction tx)
+		{
+			return tx.getConfidence().getSource() == Source.SELF ? WalletSavePolicy.DIRTY_OWN_SEND : WalletSavePolicy.DIRTY_PAYMENT;
+		}
+
+		@Override
+		public void onWalletChanged(final Wallet wallet)
+		{
+			scheduleWalletSave(WalletSavePolicy.DIRTY_TRANSACTIONS);
+		}
+
+		@Override
+		public void onKeysAdded(final Wallet wallet, final List<ECKey> keys)
 		{
+			scheduleWalletSave(WalletSavePolicy.DIRTY_KEYS);
 		}
+	};
 
+	private final Runnable walletSaveRunnable = new Runnable()
+	{
 		@Override
-		public void onAfterAutoSave(final File file)
+		public void run()
+		{
+			cancelWalletSave();
+
+			if (walletSavePolicy.takeDirty() == 0)
+				return;
+
+			try
+			{
+				writeWallet();
+			}
+			catch (final IOException x)
+			{
+				log.error("problem saving wallet", x);
+			}
+		}
+	};
+
+	private void startWalletSaving()
+	{
+		walletLockProfiler.addEventListener(wallet, walletSaveListener, "walletSave");
+	}
+
+	/**
+	 * @param flush
+	 *            whether to save what is pending, rather than discarding it
+	 */
+	private void stopWalletSaving(final boolean flush)
+	{
+		walletLockProfiler.removeEventListener(wallet, walletSaveListener);
+
+		if (flush)
+		{
+			walletSaveRunnable.run();
+		}
+		else
 		{
-			// make wallets world accessible in test mode
-			if (Constants.TEST)
-				Io.chmod(file, 0777);
+			cancelWalletSave();
+			walletSavePolicy.takeDirty();
+		}
+	}
+
+	/**
+	 * Marks the wallet dirty and saves it as soon as the save policy wants, coalescing with other changes. Also to be
+	 * called for changes that do not fire wallet events, like a new last seen block.
+	 *
+	 * @param what
+	 *            one of the dirty flags of {@link WalletSavePolicy}
+	 */
+	public void scheduleWalletSave(final int what)
+	{
+		if (!ownsWalletFile())
+			return;
+
+		final long dueAt = SystemClock.uptimeMillis() + walletSavePolicy.markDirty(what);
+
+		synchronized (walletSaveRunnable)
+		{
+			if (walletSaveDueAt == 0 || dueAt < walletSaveDueAt)
+			{
+				walletSaveHandler.removeCallbacks(walletSaveRunnable);
+				walletSaveHandler.postAtTime(walletSaveRunnable, dueAt);
+				walletSaveDueAt = dueAt;
+			}
+		}
+	}
+
+	private void cancelWalletSave()
+	{
+		synchronized (walletSaveRunnable)
+		{
+			walletSaveHandler.removeCallbacks(walletSaveRunnable);
+			walletSaveDueAt = 0;
+		}
+	}
+
+	public WalletLockProfiler getWalletLockProfiler()
+	{
+		return walletLockProfiler;
+	}
+
+	public WalletSavePolicy getWalletSavePolicy()
+	{
+		return walletSavePolicy;
+	}
+
+	public WalletChangeDispatcher getWalletChangeDispatcher()
+	{
+		return walletChangeDispatcher;
+	}
+
+	public WalletBalanceCache getWalletBalanceCache()
+	{
+		return walletBalanceCache;
+	}
+
+	public TransactionMemo getTransactionMemo()
+	{
+		return transactionMemo;
+	}
+
+	public AddressLabelResolver getAddressLabelResolver()
+	{
+		return addressLabelResolver;
+	}
+
+	/**
+	 * Returns the latest snapshot of the wallet without taking the wallet lock. Only if none has been published yet, one
+	 * is taken right away, waiting for the wallet to load if needed. Not to be called on the main thread in that case.
+	 */
+	public WalletSnapshot getWalletSnapshot()
+	{
+		final WalletSnapshot snapshot = walletChangeDispatcher.getSnapshot();
+		if (snapshot != null)
+			return snapshot;
+
+		getWallet();
+		return walletChangeDispatcher.getOrTakeSnapshot();
+	}
+
+	private String processName()
+	{
+		final int pid = android.os.Process.myPid();
+
+		final List<RunningAppProcessInfo> processes = activityManager.getRunningAppProcesses();
+		if (processes != null)
+			for (final RunningAppProcessInfo process : processes)
+				if (process.pid == pid)
+					return process.processName;
+
+		return null;
+	}
+
+	/**
+	 * With the sync process enabled, only that process writes the wallet file. The UI process works on a copy that is
+	 * reloaded after the sync process saved.
+	 */
+	private boolean ownsWalletFile()
+	{
+		return !syncProcessEnabled || syncProcess;
+	}
+
+	public boolean isSyncProcess()
+	{
+		return syncProcess;
+	}
+
+	public Class<?> blockchainServiceClass()
+	{
+		return syncProcessEnabled ? RemoteBlockchainService.class : BlockchainServiceImpl.class;
+	}
+
+	private void notifyWalletSaved()
+	{
+		if (syncProcess)
+		{
+			final Intent broadcast = new Intent(BlockchainService.ACTION_WALLET_SAVED);
+			broadcast.setPackage(getPackageName());
+			sendBroadcast(broadcast);
 		}
 	}
 
@@ -215,31 +584,169 @@ public class WalletApplication extends Application
 		return config;
 	}
 
+	/**
+	 * Returns the wallet, waiting for it to finish loading if needed. Callers that can do with keys or the balance
+	 * should use {@link #determineSelectedAddress()} or {@link #getEstimatedBalance()}, which do not wait.
+	 */
 	public Wallet getWallet()
 	{
-		return wallet;
+		try
+		{
+			return walletLoad.get();
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(x);
+		}
+		catch (final ExecutionException x)
+		{
+			final Throwable cause = x.getCause();
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	public boolean isWalletLoaded()
+	{
+		return walletLoad.isDone();
+	}
+
+	/**
+	 * Estimated balance, from the latest wallet snapshot or, while the wallet is loading, from the balance recorded on the
+	 * last save.
+	 */
+	public BigInteger getEstimatedBalance()
+	{
+		final WalletSnapshot snapshot = walletChangeDispatcher.getSnapshot();
+		if (snapshot != null)
+			return snapshot.getBalance(BalanceType.ESTIMATED);
+
+		if (!isWalletLoaded())
+		{
+			final BigInteger balanceSnapshot = config.getBalanceSnapshot();
+			if (balanceSnapshot != null)
+				return balanceSnapshot;
+		}
+
+		return getWallet().getBalance(BalanceType.ESTIMATED);
+	}
+
+	/**
+	 * Reloads the wallet if the file has been written by the other process since it was loaded.
+	 */
+	public void refreshWalletIfStale()
+	{
+		if (walletStale)
+		{
+			walletStale = false;
+
+			log.info("wallet file has been written by other process, reloading");
+			loadWalletAsync(false);
+		}
+	}
+
+	// queued on the save thread, so saves in quick succession cause one reload rather than one each
+	private final Runnable refreshWalletRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			refreshWalletIfStale();
+		}
+	};
+
+	/**
+	 * Called by the sync process when its blockchain service stops. The process may stay cached, so the wallet will be
+	 * reloaded on next service start as the UI process may have written the file meanwhile.
+	 *
+	 * @param handOver
+	 *            whether the UI process is about to write the wallet file, in which case pending saves are discarded
+	 */
+	public void releaseWallet(final boolean handOver)
+	{
+		if (syncProcess)
+		{
+			stopWalletSaving(!handOver);
+			walletStale = true;
+
+			// after any save that is still running
+			walletSaveHandler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					unlockWalletFile();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Blocks until no other process holds the lock on the wallet file. Only to be called on the save thread.
+	 */
+	private void lockWalletFile()
+	{
+		if (walletFileLock != null)
+			return;
+
+		try
+		{
+			walletLockHandle = new RandomAccessFile(walletLockFile, "rw");
+			walletFileLock = walletLockHandle.getChannel().lock();
+		}
+		catch (final IOException x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+
+	private void unlockWalletFile()
+	{
+		if (walletFileLock == null)
+			return;
+
+		try
+		{
+			walletFileLock.release();
+			walletLockHandle.close();
+		}
+		catch (final IOException x)
+		{
+			log.info("problem releasing wallet file lock", x);
+		}
+
+		walletFileLock = null;
+		walletLockHandle = null;
 	}
 
 	private void loadWalletFromProtobuf()
 	{
-		if (walletFile.exists())
+		final boolean cleanShutdown = walletShutdownMarker.isValid(walletFile, walletJournalFile);
+		if (ownsWalletFile())
+			walletShutdownMarker.clear();
+
+		if (walletJournal.exists())
 		{
 			final long start = System.currentTimeMillis();
 
-			FileInputStream walletStream = null;
-
 			try
 			{
-				walletStream = new FileInputStream(walletFile);
+				final Protos.Wallet walletProto = walletJournal.read();
 
-				wallet = new WalletProtobufSerializer().readWallet(walletStream);
+				if (!Constants.NETWORK_PARAMETERS.getId().equals(walletProto.getNetworkIdentifier()))
+					throw new UnreadableWalletException("bad wallet network parameters: " + walletProto.getNetworkIdentifier());
 
-				if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
-					throw new UnreadableWalletException("bad wallet network parameters: " + wallet.getParams().getId());
+				wallet = new Wallet(Constants.NETWORK_PARAMETERS);
+				new WalletProtobufSerializer().readWallet(walletProto, wallet);
 
 				log.info("wallet loaded from: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
+
+				if (walletJournal.getRescanHeight() != -1 && ownsWalletFile())
+					afterPartialRecovery(walletProto);
 			}
-			catch (final FileNotFoundException x)
+			catch (final IOException x)
 			{
 				log.error("problem loading wallet", x);
 
@@ -255,19 +762,15 @@ public class WalletApplication extends Application
 
 				wallet = restoreWalletFromBackup();
 			}
-			finally
+
+			if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
+				throw new Error("bad wallet network parameters: " + wallet.getParams().getId());
+
+			if (cleanShutdown)
 			{
-				if (walletStream != null)
-				{
-					try
-					{
-						walletStream.close();
-					}
-					catch (final IOException x)
-					{
-						// swallow
-					}
-				}
+				log.info("wallet was shut down cleanly, deferring consistency check");
+				walletSaveHandler.post(deferredWalletCheckRunnable);
+				return;
 			}
 
 			if (!wallet.isConsistent())
@@ -276,9 +779,6 @@ public class WalletApplication extends Application
 
 				wallet = restoreWalletFromBackup();
 			}
-
-			if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
-				throw new Error("bad wallet network parameters: " + wallet.getParams().getId());
 		}
 		else
 		{
@@ -287,12 +787,115 @@ public class WalletApplication extends Application
 			log.info("new wallet created");
 		}
 
+		checkKeys(wallet);
+	}
+
+	/**
+	 * Part of the transactions have been lost. The blockchain service rewinds to the last seen block of the recovered
+	 * wallet and rescans from there, or from scratch if nothing of the chain is left.
+	 */
+	private void afterPartialRecovery(final Protos.Wallet walletProto) throws IOException
+	{
+		log.warn("wallet partially recovered, rescanning from height " + walletJournal.getRescanHeight());
+		walletPartiallyRecovered = true;
+
+		walletJournal.compact(walletProto);
+
+		if (wallet.getLastBlockSeenHeight() == -1)
+			resetBlockchain();
+
+		CrashReporter.saveBackgroundTrace(new RuntimeException("wallet partially recovered: " + walletFile), packageInfo);
+	}
+
+	public boolean isWalletPartiallyRecovered()
+	{
+		return walletPartiallyRecovered;
+	}
+
+	private static void checkKeys(final Wallet wallet)
+	{
 		// this check is needed so encrypted wallets won't get their private keys removed accidently
 		for (final ECKey key : wallet.getKeys())
 			if (key.getPrivKeyBytes() == null)
 				throw new Error("found read-only key, but wallet is likely an encrypted wallet from the future");
 	}
 
+	/**
+	 * Runs the checks skipped after a clean shutdown at low priority. If the wallet turns out inconsistent, no clean
+	 * shutdown is recorded, so next start checks synchronously and restores from backup.
+	 */
+	private final Runnable deferredWalletCheckRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			final Wallet wallet = WalletApplication.this.wallet;
+			final long start = System.currentTimeMillis();
+
+			checkKeys(wallet);
+
+			if (!wallet.isConsistent())
+			{
+				walletInconsistent = true;
+
+				final String message = "inconsistent wallet found by deferred check: " + walletFile;
+				log.error(message);
+				CrashReporter.saveBackgroundTrace(new RuntimeException(message), packageInfo);
+			}
+
+			log.info("deferred wallet check took " + (System.currentTimeMillis() - start) + "ms");
+		}
+	};
+
+	/**
+	 * Moves old, fully spent transactions to the archive and rewrites the wallet without them.
+	 */
+	private void archiveOldTransactions()
+	{
+		final Set<Transaction> archivable = TransactionArchive.selectArchivable(wallet, Constants.TX_ARCHIVE_MIN_DEPTH);
+		if (archivable.isEmpty())
+			return;
+
+		try
+		{
+			// archive first, so a crash in between leaves the transactions in the wallet rather than nowhere
+			transactionArchive.append(archivable, wallet);
+
+			final Set<ByteString> archivedHashes = new HashSet<ByteString>(archivable.size());
+			for (final Transaction tx : archivable)
+				archivedHashes.add(ByteString.copyFrom(tx.getHash().getBytes()));
+
+			final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(wallet);
+			final Protos.Wallet.Builder builder = walletProto.toBuilder().clearTransaction();
+			for (final Protos.Transaction tx : walletProto.getTransactionList())
+				if (!archivedHashes.contains(tx.getHash()))
+					builder.addTransaction(tx);
+			final Protos.Wallet strippedProto = builder.build();
+
+			final Wallet strippedWallet = new Wallet(Constants.NETWORK_PARAMETERS);
+			new WalletProtobufSerializer().readWallet(strippedProto, strippedWallet);
+
+			walletJournal.compact(strippedProto);
+			wallet = strippedWallet;
+			notifyWalletSaved();
+
+			log.info("archived {} transactions, {} left in wallet", archivable.size(), strippedProto.getTransactionCount());
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem archiving transactions", x);
+		}
+		catch (final UnreadableWalletException x)
+		{
+			log.warn("problem archiving transactions", x);
+		}
+	}
+
+	public TransactionArchive getTransactionArchive()
+	{
+		return transactionArchive;
+	}
+
 	private Wallet restoreWalletFromBackup()
 	{
 		InputStream is = null;
@@ -349,16 +952,79 @@ public class WalletApplication extends Application
 	{
 		wallet.addKey(new ECKey());
 
-		backupWallet();
+		handOverKeys();
 
 		config.armBackupReminder();
 	}
 
+	/**
+	 * Backs up the keys and, if the sync process owns the wallet file, hands them over to it.
+	 */
+	public void handOverKeys()
+	{
+		backupWallet();
+
+		if (!ownsWalletFile())
+			startService(new Intent(BlockchainService.ACTION_IMPORT_KEY_BACKUP, null, this, blockchainServiceClass()));
+	}
+
+	/**
+	 * Adds keys from the key backup that the wallet does not know yet.
+	 */
+	public void importKeysFromBackup()
+	{
+		InputStream is = null;
+
+		try
+		{
+			is = openFileInput(Constants.WALLET_KEY_BACKUP_PROTOBUF);
+
+			final Wallet backup = new WalletProtobufSerializer().readWallet(is);
+			final int numKeysAdded = wallet.addKeys(backup.getKeys());
+
+			log.info("imported {} keys from backup", numKeysAdded);
+		}
+		catch (final IOException x)
+		{
+			log.error("problem reading key backup", x);
+		}
+		catch (final UnreadableWalletException x)
+		{
+			log.error("problem reading key backup", x);
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
 	public void saveWallet()
 	{
+		if (!ownsWalletFile())
+		{
+			log.info("not saving wallet, file is owned by sync process");
+			return;
+		}
+
 		try
 		{
-			protobufSerializeWallet(wallet);
+			cancelWalletSave();
+			walletSavePolicy.takeDirty();
+
+			writeWallet();
+
+			if (!walletInconsistent)
+				walletShutdownMarker.write(walletFile, walletJournalFile);
 		}
 		catch (final IOException x)
 		{
@@ -366,17 +1032,39 @@ public class WalletApplication extends Application
 		}
 	}
 
-	private void protobufSerializeWallet(@Nonnull final Wallet wallet) throws IOException
+	private void writeWallet() throws IOException
 	{
 		final long start = System.currentTimeMillis();
 
-		wallet.saveToFile(walletFile);
+		final Protos.Wallet walletProto;
+		final long lockToken = walletLockProfiler.lock(wallet, "walletSave");
+		try
+		{
+			walletProto = new WalletProtobufSerializer().walletToProto(wallet);
+		}
+		finally
+		{
+			walletLockProfiler.unlock(wallet, "walletSave", lockToken);
+		}
+
+		final long bytesWritten = walletJournal.write(walletProto);
 
 		// make wallets world accessible in test mode
 		if (Constants.TEST)
 			Io.chmod(walletFile, 0777);
 
-		log.debug("wallet saved to: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
+		final BigInteger balance = getEstimatedBalance();
+		if (!balance.equals(lastBalanceSnapshot))
+		{
+			config.setBalanceSnapshot(balance);
+			lastBalanceSnapshot = balance;
+		}
+
+		walletSavePolicy.recordSave(bytesWritten, System.currentTimeMillis() - start);
+
+		log.debug("wallet saved to: '" + walletFile + "', " + bytesWritten + " bytes, took " + (System.currentTimeMillis() - start) + "ms");
+
+		notifyWalletSaved();
 	}
 
 	private void backupWallet()
@@ -453,14 +1141,20 @@ public class WalletApplication extends Application
 		}
 	}
 
+	/**
+	 * Does not wait for the wallet to load if the keys are known from the key backup.
+	 */
 	public Address determineSelectedAddress()
 	{
 		final String selectedAddress = config.getSelectedAddress();
 
+		final Wallet wallet = isWalletLoaded() || earlyKeys == null ? getWallet() : null;
+		final List<ECKey> keys = wallet != null ? wallet.getKeys() : earlyKeys;
+
 		Address firstAddress = null;
-		for (final ECKey key : wallet.getKeys())
+		for (final ECKey key : keys)
 		{
-			if (!wallet.isKeyRotating(key))
+			if (wallet == null || !wallet.isKeyRotating(key))
 			{
 				final Address address = key.toAddress(Constants.NETWORK_PARAMETERS);
 
@@ -497,16 +1191,71 @@ public class WalletApplication extends Application
 	public void replaceWallet(final Wallet newWallet)
 	{
 		resetBlockchain(); // implicitly stops blockchain service
-		wallet.shutdownAutosaveAndWait();
+		getWallet(); // wait for pending load
+		if (ownsWalletFile())
+			stopWalletSaving(true);
 
 		wallet = newWallet;
 		afterLoadWallet();
+		walletChangeDispatcher.setWallet(newWallet);
+
+		walletLoad = new FutureTask<Wallet>(new Callable<Wallet>()
+		{
+			@Override
+			public Wallet call()
+			{
+				return newWallet;
+			}
+		});
+		walletLoad.run();
+
+		final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(newWallet);
+
+		if (ownsWalletFile())
+		{
+			// this is the new base
+			writeReplacedWallet(walletProto);
+		}
+		else
+		{
+			// hand the new wallet over to the sync process, once its service has stopped and released the file
+			walletSaveHandler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					lockWalletFile();
+					try
+					{
+						writeReplacedWallet(walletProto);
+					}
+					finally
+					{
+						unlockWalletFile();
+					}
+				}
+			});
+		}
+	}
+
+	private void writeReplacedWallet(final Protos.Wallet walletProto)
+	{
+		try
+		{
+			walletJournal.compact(walletProto);
+		}
+		catch (final IOException x)
+		{
+			throw new RuntimeException(x);
+		}
 	}
 
 	public void broadcastTransaction(@Nonnull final Transaction tx)
 	{
-		final Intent intent = new Intent(BlockchainService.ACTION_BROADCAST_TRANSACTION, null, this, BlockchainServiceImpl.class);
+		final Intent intent = new Intent(BlockchainService.ACTION_BROADCAST_TRANSACTION, null, this, blockchainServiceClass());
 		intent.putExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH, tx.getHash().getBytes());
+		if (!ownsWalletFile())
+			intent.putExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_TX, tx.unsafetedcoinSerialize());
 		startService(intent);
 	}
 
@@ -552,11 +1301,13 @@ public class WalletApplication extends Application
 
 	public int maxConnectedPeers()
 	{
-		final int memoryClass = activityManager.getMemoryClass();
-		if (memoryClass <= Constants.MEMORY_CLASS_LOWEND)
-			return 4;
-		else
-			return 6;
+		final int publishedMaxConnectedPeers = this.publishedMaxConnectedPeers;
+		return publishedMaxConnectedPeers > 0 ? publishedMaxConnectedPeers : peerCountController.getMaxConnectedPeers();
+	}
+
+	public PeerCountController getPeerCountController()
+	{
+		return peerCountController;
 	}
 
 	public static void scheduleStartBlockchainService(@Nonnull final Context context)
@@ -577,7 +1328,8 @@ public class WalletApplication extends Application
 				alarmInterval / DateUtils.MINUTE_IN_MILLIS);
 
 		final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-		final PendingIntent alarmIntent = PendingIntent.getService(context, 0, new Intent(context, BlockchainServiceImpl.class), 0);
+		final Class<?> serviceClass = ((WalletApplication) context.getApplicationContext()).blockchainServiceClass();
+		final PendingIntent alarmIntent = PendingIntent.getService(context, 0, new Intent(context, serviceClass), 0);
 		alarmManager.cancel(alarmIntent);
 
 		// workaround for no inexact set() before KitKat
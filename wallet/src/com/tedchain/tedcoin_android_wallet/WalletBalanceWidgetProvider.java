@@ -26,14 +26,16 @@ import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.preference.PreferenceManager;
 import android.text.Spannable;
 import android.text.SpannableString;
+import android.text.format.DateUtils;
+import android.view.View;
 import android.widget.RemoteViews;
 
-import com.tedchain.tedcoinj.core.Wallet;
-import com.tedchain.tedcoinj.core.Wallet.BalanceType;
 
+import com.tedchain.tedcoin_android_wallet.service.BlockchainService;
 import com.tedchain.tedcoin_android_wallet.ui.RequestCoinsActivity;
 import com.tedchain.tedcoin_android_wallet.ui.SendCoinsActivity;
 import com.tedchain.tedcoin_android_wallet.ui.SendCoinsQrActivity;
@@ -51,8 +53,7 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider
 	public void onUpdate(final Context context, final AppWidgetManager appWidgetManager, final int[] appWidgetIds)
 	{
 		final WalletApplication application = (WalletApplication) context.getApplicationContext();
-		final Wallet wallet = application.getWallet();
-		final BigInteger balance = wallet.getBalance(BalanceType.ESTIMATED);
+		final BigInteger balance = application.getEstimatedBalance();
 
 		updateWidgets(context, appWidgetManager, appWidgetIds, balance);
 	}
@@ -63,12 +64,15 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider
 		final Configuration config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context));
 		final Spannable balanceStr = new SpannableString(GenericUtils.formatValue(balance, config.getPPCPrecision(), config.getPPCShift()));
 		WalletUtils.formatSignificant(balanceStr, WalletUtils.SMALLER_SPAN);
+		final String progressStr = progress(context);
 
 		for (final int appWidgetId : appWidgetIds)
 		{
 			final RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.wallet_balance_widget_content);
 			views.setTextViewText(R.id.widget_wallet_prefix, config.getPPCPrefix());
 			views.setTextViewText(R.id.widget_wallet_balance, balanceStr);
+			views.setTextViewText(R.id.widget_wallet_progress, progressStr);
+			views.setViewVisibility(R.id.widget_wallet_progress, progressStr != null ? View.VISIBLE : View.GONE);
 			views.setOnClickPendingIntent(R.id.widget_button_balance,
 					PendingIntent.getActivity(context, 0, new Intent(context, WalletActivity.class), 0));
 			views.setOnClickPendingIntent(R.id.widget_button_request,
@@ -81,4 +85,23 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider
 			appWidgetManager.updateAppWidget(appWidgetId, views);
 		}
 	}
+
+	private static String progress(final Context context)
+	{
+		final Intent blockchainState = context.getApplicationContext().registerReceiver(null,
+				new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+		if (blockchainState == null)
+			return null;
+
+		final int progressPercent = blockchainState.getIntExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_PROGRESS_PERCENT, -1);
+		final long etaMs = blockchainState.getLongExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_ETA_MS, -1);
+
+		if (progressPercent < 0 || etaMs == 0)
+			return null;
+		else if (etaMs > 0)
+			return context.getString(R.string.widget_wallet_progress_eta, progressPercent,
+					DateUtils.formatElapsedTime(etaMs / DateUtils.SECOND_IN_MILLIS));
+		else
+			return context.getString(R.string.widget_wallet_progress, progressPercent);
+	}
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.data;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.tedchain.tedcoinj.core.Address;
+import com.tedchain.tedcoinj.core.Sha256Hash;
+import com.tedchain.tedcoinj.core.Transaction;
+import com.tedchain.tedcoinj.core.TransactionInput;
+import com.tedchain.tedcoinj.core.TransactionOutput;
+import com.tedchain.tedcoinj.core.Wallet;
+import com.tedchain.tedcoinj.wallet.DefaultCoinSelector;
+
+import com.tedchain.tedcoin_android_wallet.util.WalletUtils;
+
+/**
+ * Values derived from a transaction that are costly to compute, as they involve the wallet or parsing scripts: value to
+ * the wallet, counterparty address, whether it is internal and whether it is selectable for spending. Records are kept
+ * per transaction hash, tagged with the wallet version they were computed at.
+ *
+ * A transaction's record is invalidated when it or its parent is received or sent, as that connects inputs and so
+ * changes the value, and when its confidence changes in more than depth, which decides whether it is selectable.
+ * Everything is invalidated at once by bumping the wallet version, on a reorganization, when keys are added, as they
+ * change which outputs are the wallet's, or when the wallet is replaced.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionMemo
+{
+	public static final class Record
+	{
+		public final BigInteger value;
+		public final boolean internal;
+		/** first receiving address if sent, first sending address if received */
+		@CheckForNull
+		public final Address address;
+		/** address encoded once, as the transaction list shows it on every bind */
+		@CheckForNull
+		public final String addressString;
+		/** spendable by the default coin selector */
+		public final boolean selectable;
+		private final long walletVersion;
+
+		private Record(final Transaction tx, final Wallet wallet, final long walletVersion)
+		{
+			this.value = tx.getValue(wallet);
+			this.internal = WalletUtils.isInternal(tx);
+			this.address = value.signum() < 0 ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
+			this.addressString = address != null ? address.toString() : null;
+			this.selectable = DefaultCoinSelector.isSelectable(tx);
+			this.walletVersion = walletVersion;
+		}
+
+		public boolean isSent()
+		{
+			return value.signum() < 0;
+		}
+	}
+
+	private final Map<Sha256Hash, Record> records = new HashMap<Sha256Hash, Record>();
+	private long walletVersion = 0;
+
+	private int numHits = 0;
+	private int numMisses = 0;
+
+	/**
+	 * Computing a missing record reads the wallet, so it should be called with the wallet lock held. Otherwise, it is as
+	 * safe as calling {@link Transaction#getValue(Wallet)} directly.
+	 */
+	public synchronized Record get(@Nonnull final Transaction tx, @Nonnull final Wallet wallet)
+	{
+		final Sha256Hash hash = tx.getHash();
+		final Record record = records.get(hash);
+
+		if (record != null && record.walletVersion == walletVersion)
+		{
+			numHits++;
+			return record;
+		}
+
+		numMisses++;
+		final Record newRecord = new Record(tx, wallet, walletVersion);
+		records.put(hash, newRecord);
+		return newRecord;
+	}
+
+	/**
+	 * Invalidates the transaction and the transactions spending its outputs, whose inputs it connects.
+	 */
+	public synchronized void invalidate(@Nonnull final Transaction tx)
+	{
+		records.remove(tx.getHash());
+
+		for (final TransactionOutput output : tx.getOutputs())
+		{
+			final TransactionInput spentBy = output.getSpentBy();
+			if (spentBy != null)
+				records.remove(spentBy.getParentTransaction().getHash());
+		}
+	}
+
+	public synchronized void invalidateAll()
+	{
+		walletVersion++;
+	}
+
+	/**
+	 * Drops records of transactions that are no longer in the wallet.
+	 */
+	public synchronized void retainAll(@Nonnull final Set<Sha256Hash> hashes)
+	{
+		for (final Iterator<Map.Entry<Sha256Hash, Record>> i = records.entrySet().iterator(); i.hasNext();)
+		{
+			final Map.Entry<Sha256Hash, Record> entry = i.next();
+			if (entry.getValue().walletVersion != walletVersion || !hashes.contains(entry.getKey()))
+				i.remove();
+		}
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return records.size() + " records, " + numHits + " hits, " + numMisses + " misses";
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.data;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import com.tedchain.tedcoinj.core.Address;
+import com.tedchain.tedcoinj.core.Sha256Hash;
+import com.tedchain.tedcoinj.core.Wallet.BalanceType;
+
+/**
+ * What changed in the wallet between two snapshots. A reset delta means the wallet has been (re)loaded or replaced, so
+ * everything derived from it needs to be rebuilt.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletDelta
+{
+	public final boolean reset;
+	public final Set<Sha256Hash> added;
+	public final Set<Sha256Hash> removed;
+	public final Set<Sha256Hash> confidenceChanged;
+	/** subset of confidenceChanged for which nothing but the depth has changed, as happens with each new block */
+	public final Set<Sha256Hash> depthChanged;
+	public final List<Address> keysAdded;
+	public final boolean reorganized;
+	public final boolean balanceChanged;
+
+	private WalletDelta(final boolean reset, final Set<Sha256Hash> added, final Set<Sha256Hash> removed, final Set<Sha256Hash> confidenceChanged,
+			final Set<Sha256Hash> depthChanged, final List<Address> keysAdded, final boolean reorganized, final boolean balanceChanged)
+	{
+		this.reset = reset;
+		this.added = Collections.unmodifiableSet(added);
+		this.removed = Collections.unmodifiableSet(removed);
+		this.confidenceChanged = Collections.unmodifiableSet(confidenceChanged);
+		this.depthChanged = Collections.unmodifiableSet(depthChanged);
+		this.keysAdded = Collections.unmodifiableList(keysAdded);
+		this.reorganized = reorganized;
+		this.balanceChanged = balanceChanged;
+	}
+
+	public static WalletDelta reset()
+	{
+		return new WalletDelta(true, Collections.<Sha256Hash> emptySet(), Collections.<Sha256Hash> emptySet(), Collections.<Sha256Hash> emptySet(),
+				Collections.<Sha256Hash> emptySet(), Collections.<Address> emptyList(), false, true);
+	}
+
+	/**
+	 * Added and removed transactions are determined by comparing the snapshots, so they are exact even for changes that
+	 * fire no specific event. Confidence changes and added keys are taken from the events collected meanwhile.
+	 */
+	public static WalletDelta between(@Nonnull final WalletSnapshot previous, @Nonnull final WalletSnapshot current,
+			@Nonnull final Collection<Sha256Hash> confidenceChangedEvents, @Nonnull final List<Address> keysAdded, final boolean reorganized)
+	{
+		final Set<Sha256Hash> added = new HashSet<Sha256Hash>();
+		for (final WalletSnapshot.TransactionSummary tx : current.transactions)
+			if (previous.getTransaction(tx.hash) == null)
+				added.add(tx.hash);
+
+		final Set<Sha256Hash> removed = new HashSet<Sha256Hash>();
+		for (final WalletSnapshot.TransactionSummary tx : previous.transactions)
+			if (current.getTransaction(tx.hash) == null)
+				removed.add(tx.hash);
+
+		final Set<Sha256Hash> confidenceChanged = new HashSet<Sha256Hash>();
+		final Set<Sha256Hash> depthChanged = new HashSet<Sha256Hash>();
+		for (final Sha256Hash hash : confidenceChangedEvents)
+		{
+			final WalletSnapshot.TransactionSummary tx = current.getTransaction(hash);
+			if (tx != null && !added.contains(hash))
+			{
+				confidenceChanged.add(hash);
+
+				final WalletSnapshot.TransactionSummary previousTx = previous.getTransaction(hash);
+				if (previousTx != null && tx.differsOnlyInDepth(previousTx))
+					depthChanged.add(hash);
+			}
+		}
+
+		boolean balanceChanged = false;
+		for (final BalanceType balanceType : BalanceType.values())
+			if (!previous.getBalance(balanceType).equals(current.getBalance(balanceType)))
+				balanceChanged = true;
+
+		return new WalletDelta(false, added, removed, confidenceChanged, depthChanged, keysAdded, reorganized, balanceChanged);
+	}
+
+	/**
+	 * @return true if transactions have been added or removed, which changes the contents of transaction lists
+	 */
+	public boolean hasTransactionsAddedOrRemoved()
+	{
+		return reset || reorganized || !added.isEmpty() || !removed.isEmpty();
+	}
+
+	/**
+	 * @return true if anything about transactions has changed, including their confidence
+	 */
+	public boolean hasTransactionChanges()
+	{
+		return hasTransactionsAddedOrRemoved() || !confidenceChanged.isEmpty();
+	}
+
+	/**
+	 * @return hashes of all transactions that have been added, removed or changed their confidence
+	 */
+	public Set<Sha256Hash> getChangedTransactions()
+	{
+		final Set<Sha256Hash> changed = new HashSet<Sha256Hash>(added);
+		changed.addAll(removed);
+		changed.addAll(confidenceChanged);
+		return changed;
+	}
+
+	public boolean isEmpty()
+	{
+		return !hasTransactionChanges() && keysAdded.isEmpty() && !balanceChanged;
+	}
+
+	@Override
+	public String toString()
+	{
+		if (reset)
+			return "reset";
+
+		return "added " + added.size() + ", removed " + removed.size() + ", confidence changed " + confidenceChanged.size() + " (depth only " + depthChanged.size() + "), keys added "
+				+ keysAdded.size() + (reorganized ? ", reorganized" : "") + (balanceChanged ? ", balance changed" : "");
+	}
+}
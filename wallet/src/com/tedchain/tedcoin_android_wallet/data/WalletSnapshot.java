@@ -0,0 +1,350 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.data;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.tedchain.tedcoinj.core.Address;
+import com.tedchain.tedcoinj.core.ECKey;
+import com.tedchain.tedcoinj.core.Sha256Hash;
+import com.tedchain.tedcoinj.core.Transaction;
+import com.tedchain.tedcoinj.core.Transaction.Purpose;
+import com.tedchain.tedcoinj.core.TransactionConfidence;
+import com.tedchain.tedcoinj.core.TransactionConfidence.ConfidenceType;
+import com.tedchain.tedcoinj.core.TransactionOutput;
+import com.tedchain.tedcoinj.core.Wallet;
+import com.tedchain.tedcoinj.core.Wallet.BalanceType;
+
+import com.tedchain.tedcoin_android_wallet.Constants;
+import com.tedchain.tedcoin_android_wallet.util.LongHashIndex;
+import com.tedchain.tedcoin_android_wallet.util.WalletUtils;
+
+/**
+ * Immutable view of the wallet, taken after a batch of wallet changes. Readers get it without taking the wallet lock, so
+ * they neither wait for nor hold up block processing.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletSnapshot
+{
+	public final long version;
+	public final long time;
+	public final int lastBlockSeenHeight;
+	@CheckForNull
+	public final Sha256Hash lastBlockSeenHash;
+
+	private final Map<BalanceType, BigInteger> balances;
+
+	/** pending first, then newest first */
+	public final List<TransactionSummary> transactions;
+	private final Map<Sha256Hash, TransactionSummary> transactionsByHash;
+	private final LongHashIndex<TransactionSummary> transactionsByLongHash;
+
+	public final List<KeySummary> keys;
+
+	public final int numInputs;
+	public final int numOutputs;
+	public final int numSpentOutputs;
+
+	public interface BalanceSource
+	{
+		/** will be called with the wallet lock held */
+		Map<BalanceType, BigInteger> getBalances(@Nonnull Wallet wallet, int numTransactions);
+	}
+
+	public static final class TransactionSummary
+	{
+		/**
+		 * Handle for actions on the transaction only, like showing or re-sending it. Its state is live, so it must only be
+		 * read with the wallet lock held; everything to show is copied into the fields below.
+		 */
+		public final Transaction tx;
+		public final Sha256Hash hash;
+		public final BigInteger value;
+		@CheckForNull
+		public final Date time;
+		public final ConfidenceType confidenceType;
+		/** -1 unless building */
+		public final int appearedAtChainHeight;
+		public final int numBroadcastPeers;
+		/** created by this wallet */
+		public final boolean own;
+		public final boolean coinBase;
+		public final boolean timeLocked;
+		/** spendable by the default coin selector */
+		public final boolean selectable;
+		public final boolean internal;
+		/** first receiving address if sent, first sending address if received */
+		@CheckForNull
+		public final Address address;
+		@CheckForNull
+		public final String addressString;
+		public final Purpose purpose;
+		public final Set<Sha256Hash> appearsInHashes;
+
+		private TransactionSummary(final Transaction tx, final TransactionMemo.Record memo, @CheckForNull final TransactionSummary previous)
+		{
+			final TransactionConfidence confidence = tx.getConfidence();
+			final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
+
+			this.tx = tx;
+			this.hash = tx.getHash();
+			this.value = memo.value;
+			this.time = tx.getUpdateTime();
+			this.confidenceType = confidence.getConfidenceType();
+			this.appearedAtChainHeight = confidenceType == ConfidenceType.BUILDING ? confidence.getAppearedAtChainHeight() : -1;
+			this.numBroadcastPeers = confidence.numBroadcastPeers();
+			this.own = confidence.getSource().equals(TransactionConfidence.Source.SELF);
+			this.coinBase = tx.isCoinBase();
+			this.timeLocked = tx.isTimeLocked();
+			this.selectable = memo.selectable;
+			this.internal = memo.internal;
+			this.address = memo.address;
+			this.addressString = memo.addressString;
+			this.purpose = tx.getPurpose();
+			this.appearsInHashes = appearsInHashes(appearsIn, previous);
+		}
+
+		private static Set<Sha256Hash> appearsInHashes(@CheckForNull final Map<Sha256Hash, Integer> appearsIn,
+				@CheckForNull final TransactionSummary previous)
+		{
+			if (appearsIn == null)
+				return Collections.<Sha256Hash> emptySet();
+
+			// only changes when the transaction is included in another block, which is rare
+			if (previous != null && previous.appearsInHashes.size() == appearsIn.size() && appearsIn.keySet().containsAll(previous.appearsInHashes))
+				return previous.appearsInHashes;
+
+			return Collections.unmodifiableSet(new HashSet<Sha256Hash>(appearsIn.keySet()));
+		}
+
+		public boolean isSent()
+		{
+			return value.signum() < 0;
+		}
+
+		/**
+		 * Depth is not kept, as it changes for all building transactions with each block.
+		 *
+		 * @return depth at the given chain height, or 0 unless building
+		 */
+		public int getDepthInBlocks(final int chainHeight)
+		{
+			return appearedAtChainHeight >= 0 ? chainHeight - appearedAtChainHeight + 1 : 0;
+		}
+
+		private boolean sortsLike(@Nonnull final TransactionSummary other)
+		{
+			return (confidenceType == ConfidenceType.PENDING) == (other.confidenceType == ConfidenceType.PENDING)
+					&& (time != null ? time.equals(other.time) : other.time == null);
+		}
+
+		/**
+		 * @return true if the confidence of both summaries differs at most in depth, which follows from the chain height
+		 */
+		boolean differsOnlyInDepth(@Nonnull final TransactionSummary other)
+		{
+			return confidenceType == other.confidenceType && appearedAtChainHeight == other.appearedAtChainHeight
+					&& numBroadcastPeers == other.numBroadcastPeers && (time != null ? time.equals(other.time) : other.time == null);
+		}
+
+		/**
+		 * Reads the confidence of the live transaction, which is safe without the wallet lock.
+		 *
+		 * @return true if the transaction as it is now differs from this summary at most in depth
+		 */
+		public boolean differsOnlyInDepth(@Nonnull final Transaction tx)
+		{
+			if (tx != this.tx)
+				return false;
+
+			final TransactionConfidence confidence = tx.getConfidence();
+			final ConfidenceType confidenceType = confidence.getConfidenceType();
+			if (confidenceType != this.confidenceType)
+				return false;
+			if (confidenceType == ConfidenceType.BUILDING && confidence.getAppearedAtChainHeight() != appearedAtChainHeight)
+				return false;
+
+			final Date time = tx.getUpdateTime();
+			return confidence.numBroadcastPeers() == numBroadcastPeers && (time != null ? time.equals(this.time) : this.time == null);
+		}
+	}
+
+	public static final class KeySummary
+	{
+		public final Address address;
+		public final long creationTimeSeconds;
+		public final boolean rotating;
+
+		private KeySummary(final ECKey key, final Wallet wallet)
+		{
+			this.address = key.toAddress(Constants.NETWORK_PARAMETERS);
+			this.creationTimeSeconds = key.getCreationTimeSeconds();
+			this.rotating = wallet.isKeyRotating(key);
+		}
+	}
+
+	private WalletSnapshot(final Wallet wallet, final long version, final BalanceSource balanceSource, final TransactionMemo memo,
+			@CheckForNull final WalletSnapshot previous, final Set<Sha256Hash> changed)
+	{
+		this.version = version;
+		this.time = System.currentTimeMillis();
+		this.lastBlockSeenHeight = wallet.getLastBlockSeenHeight();
+		this.lastBlockSeenHash = wallet.getLastBlockSeenHash();
+
+		final Set<Transaction> walletTransactions = wallet.getTransactions(true);
+		this.balances = balanceSource.getBalances(wallet, walletTransactions.size());
+
+		final List<TransactionSummary> transactions = new ArrayList<TransactionSummary>(walletTransactions.size());
+		final Map<Sha256Hash, TransactionSummary> transactionsByHash = new HashMap<Sha256Hash, TransactionSummary>(walletTransactions.size());
+		int numInputs = 0;
+		int numOutputs = 0;
+		int numSpentOutputs = 0;
+		boolean resort = previous == null || previous.transactions.size() != walletTransactions.size();
+
+		for (final Transaction tx : walletTransactions)
+		{
+			final Sha256Hash hash = tx.getHash();
+			final TransactionSummary previousSummary = previous != null ? previous.getTransaction(hash) : null;
+			final TransactionSummary summary;
+			if (previousSummary != null && previousSummary.tx == tx && !changed.contains(hash))
+			{
+				summary = previousSummary;
+			}
+			else
+			{
+				summary = new TransactionSummary(tx, memo.get(tx, wallet), previousSummary);
+				if (previousSummary == null || !summary.sortsLike(previousSummary))
+					resort = true;
+			}
+			transactions.add(summary);
+			transactionsByHash.put(summary.hash, summary);
+
+			numInputs += tx.getInputs().size();
+			for (final TransactionOutput output : tx.getOutputs())
+			{
+				numOutputs++;
+				if (!output.isAvailableForSpending())
+					numSpentOutputs++;
+			}
+		}
+
+		if (resort)
+		{
+			Collections.sort(transactions, TRANSACTION_COMPARATOR);
+		}
+		else
+		{
+			// same transactions, none of them moved
+			transactions.clear();
+			for (final TransactionSummary previousSummary : previous.transactions)
+				transactions.add(transactionsByHash.get(previousSummary.hash));
+		}
+		this.transactions = Collections.unmodifiableList(transactions);
+		this.transactionsByHash = transactionsByHash;
+		this.transactionsByLongHash = new LongHashIndex<TransactionSummary>(transactionsByHash);
+		memo.retainAll(transactionsByHash.keySet());
+		this.numInputs = numInputs;
+		this.numOutputs = numOutputs;
+		this.numSpentOutputs = numSpentOutputs;
+
+		final List<ECKey> walletKeys = wallet.getKeys();
+		final List<KeySummary> keys = new ArrayList<KeySummary>(walletKeys.size());
+		for (final ECKey key : walletKeys)
+			keys.add(new KeySummary(key, wallet));
+		this.keys = Collections.unmodifiableList(keys);
+	}
+
+	/**
+	 * Takes a snapshot. All values are read while holding the wallet lock once, so the snapshot is consistent.
+	 *
+	 * @param previous
+	 *            snapshot of the same wallet to reuse transaction summaries from, or null to build all of them
+	 * @param changed
+	 *            hashes of transactions that may have changed since the previous snapshot was taken; the summaries of all
+	 *            other transactions are reused
+	 */
+	public static WalletSnapshot take(@Nonnull final Wallet wallet, final long version, @Nonnull final BalanceSource balanceSource,
+			@Nonnull final TransactionMemo memo, @CheckForNull final WalletSnapshot previous, @Nonnull final Set<Sha256Hash> changed)
+	{
+		wallet.getLock().lock();
+		try
+		{
+			return new WalletSnapshot(wallet, version, balanceSource, memo, previous, changed);
+		}
+		finally
+		{
+			wallet.getLock().unlock();
+		}
+	}
+
+	public BigInteger getBalance(@Nonnull final BalanceType balanceType)
+	{
+		return balances.get(balanceType);
+	}
+
+	@CheckForNull
+	public TransactionSummary getTransaction(@Nonnull final Sha256Hash hash)
+	{
+		return transactionsByHash.get(hash);
+	}
+
+	/**
+	 * Same as {@link #getTransaction(Sha256Hash)}, but by {@link WalletUtils#longHash(Sha256Hash)} and without allocating.
+	 */
+	@CheckForNull
+	public TransactionSummary getTransaction(final long longHash)
+	{
+		return transactionsByLongHash.get(longHash);
+	}
+
+	private static final Comparator<TransactionSummary> TRANSACTION_COMPARATOR = new Comparator<TransactionSummary>()
+	{
+		@Override
+		public int compare(final TransactionSummary tx1, final TransactionSummary tx2)
+		{
+			final boolean pending1 = tx1.confidenceType == ConfidenceType.PENDING;
+			final boolean pending2 = tx2.confidenceType == ConfidenceType.PENDING;
+
+			if (pending1 != pending2)
+				return pending1 ? -1 : 1;
+
+			final long time1 = tx1.time != null ? tx1.time.getTime() : 0;
+			final long time2 = tx2.time != null ? tx2.time.getTime() : 0;
+
+			if (time1 > time2)
+				return -1;
+			else if (time1 < time2)
+				return 1;
+			else
+				return 0;
+		}
+	};
+}
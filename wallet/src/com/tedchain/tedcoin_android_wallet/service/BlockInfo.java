@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.service;
+
+import javax.annotation.Nonnull;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.tedchain.tedcoinj.core.Sha256Hash;
+import com.tedchain.tedcoinj.core.StoredBlock;
+
+/**
+ * Snapshot of a {@link StoredBlock} header, suitable for passing across process boundaries.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BlockInfo implements Parcelable
+{
+	public final int height;
+	public final Sha256Hash hash;
+	public final long timeSeconds;
+
+	public BlockInfo(@Nonnull final StoredBlock storedBlock)
+	{
+		this.height = storedBlock.getHeight();
+		this.hash = storedBlock.getHeader().getHash();
+		this.timeSeconds = storedBlock.getHeader().getTimeSeconds();
+	}
+
+	public String getHashAsString()
+	{
+		return hash.toString();
+	}
+
+	@Override
+	public int describeContents()
+	{
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(final Parcel dest, final int flags)
+	{
+		dest.writeInt(height);
+
+		final byte[] hashBytes = hash.getBytes();
+		dest.writeInt(hashBytes.length);
+		dest.writeByteArray(hashBytes);
+
+		dest.writeLong(timeSeconds);
+	}
+
+	public static final Parcelable.Creator<BlockInfo> CREATOR = new Parcelable.Creator<BlockInfo>()
+	{
+		@Override
+		public BlockInfo createFromParcel(final Parcel in)
+		{
+			return new BlockInfo(in);
+		}
+
+		@Override
+		public BlockInfo[] newArray(final int size)
+		{
+			return new BlockInfo[size];
+		}
+	};
+
+	private BlockInfo(final Parcel in)
+	{
+		height = in.readInt();
+
+		final int hashLength = in.readInt();
+		final byte[] hashBytes = new byte[hashLength];
+		in.readByteArray(hashBytes);
+		hash = new Sha256Hash(hashBytes);
+
+		timeSeconds = in.readLong();
+	}
+}
@@ -21,9 +21,6 @@ import java.util.List;
 
 import javax.annotation.CheckForNull;
 
-import com.tedchain.tedcoinj.core.Peer;
-import com.tedchain.tedcoinj.core.StoredBlock;
-
 /**
  * @author Andreas Schildbach
  */
@@ -31,12 +28,15 @@ public interface BlockchainService
 {
 	public static final String ACTION_PEER_STATE = BlockchainService.class.getPackage().getName() + ".peer_state";
 	public static final String ACTION_PEER_STATE_NUM_PEERS = "num_peers";
+	public static final String ACTION_PEER_STATE_MAX_PEERS = "max_peers";
 
 	public static final String ACTION_BLOCKCHAIN_STATE = BlockchainService.class.getPackage().getName() + ".blockchain_state";
 	public static final String ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_DATE = "best_chain_date";
 	public static final String ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_HEIGHT = "best_chain_height";
 	public static final String ACTION_BLOCKCHAIN_STATE_REPLAYING = "replaying";
 	public static final String ACTION_BLOCKCHAIN_STATE_DOWNLOAD = "download";
+	public static final String ACTION_BLOCKCHAIN_STATE_PROGRESS_PERCENT = "progress_percent";
+	public static final String ACTION_BLOCKCHAIN_STATE_ETA_MS = "eta_ms";
 	public static final int ACTION_BLOCKCHAIN_STATE_DOWNLOAD_OK = 0;
 	public static final int ACTION_BLOCKCHAIN_STATE_DOWNLOAD_STORAGE_PROBLEM = 1;
 	public static final int ACTION_BLOCKCHAIN_STATE_DOWNLOAD_NETWORK_PROBLEM = 2;
@@ -45,9 +45,13 @@ public interface BlockchainService
 	public static final String ACTION_RESET_BLOCKCHAIN = BlockchainService.class.getPackage().getName() + ".reset_blockchain";
 	public static final String ACTION_BROADCAST_TRANSACTION = BlockchainService.class.getPackage().getName() + ".broadcast_transaction";
 	public static final String ACTION_BROADCAST_TRANSACTION_HASH = "hash";
+	public static final String ACTION_BROADCAST_TRANSACTION_TX = "tx";
+	public static final String ACTION_IMPORT_KEY_BACKUP = BlockchainService.class.getPackage().getName() + ".import_key_backup";
+
+	public static final String ACTION_WALLET_SAVED = BlockchainService.class.getPackage().getName() + ".wallet_saved";
 
 	@CheckForNull
-	List<Peer> getConnectedPeers();
+	List<PeerInfo> getConnectedPeers();
 
-	List<StoredBlock> getRecentBlocks(int maxBlocks);
+	List<BlockInfo> getRecentBlocks(int maxBlocks);
 }
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -50,16 +51,19 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.net.ConnectivityManager;
+import android.net.TrafficStats;
 import android.net.Uri;
-import android.os.Binder;
+import android.os.BatteryManager;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
 import android.text.format.DateUtils;
 
 import com.tedchain.tedcoinj.core.AbstractPeerEventListener;
+import com.tedchain.tedcoinj.core.AbstractWalletEventListener;
 import com.tedchain.tedcoinj.core.Address;
 import com.tedchain.tedcoinj.core.Block;
 import com.tedchain.tedcoinj.core.BlockChain;
@@ -71,8 +75,8 @@ import com.tedchain.tedcoinj.core.Sha256Hash;
 import com.tedchain.tedcoinj.core.StoredBlock;
 import com.tedchain.tedcoinj.core.Transaction;
 import com.tedchain.tedcoinj.core.TransactionConfidence.ConfidenceType;
+import com.tedchain.tedcoinj.core.VerificationException;
 import com.tedchain.tedcoinj.core.Wallet;
-import com.tedchain.tedcoinj.core.Wallet.BalanceType;
 import com.tedchain.tedcoinj.core.WalletEventListener;
 import com.tedchain.tedcoinj.net.discovery.DnsDiscovery;
 import com.tedchain.tedcoinj.net.discovery.PeerDiscovery;
@@ -82,18 +86,20 @@ import com.tedchain.tedcoinj.store.BlockStore;
 import com.tedchain.tedcoinj.store.BlockStoreException;
 import com.tedchain.tedcoinj.store.SPVBlockStore;
 import com.tedchain.tedcoinj.store.ValidHashStore;
-import com.tedchain.tedcoinj.utils.Threading;
 
-import com.tedchain.tedcoin_android_wallet.AddressBookProvider;
 import com.tedchain.tedcoin_android_wallet.Configuration;
 import com.tedchain.tedcoin_android_wallet.Constants;
 import com.tedchain.tedcoin_android_wallet.WalletApplication;
 import com.tedchain.tedcoin_android_wallet.WalletBalanceWidgetProvider;
+import com.tedchain.tedcoin_android_wallet.data.TransactionMemo;
+import com.tedchain.tedcoin_android_wallet.data.WalletDelta;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+import com.tedchain.tedcoin_android_wallet.store.CleanShutdownMarker;
+import com.tedchain.tedcoin_android_wallet.store.WalletSavePolicy;
 import com.tedchain.tedcoin_android_wallet.ui.WalletActivity;
 import com.tedchain.tedcoin_android_wallet.util.CrashReporter;
 import com.tedchain.tedcoin_android_wallet.util.GenericUtils;
-import com.tedchain.tedcoin_android_wallet.util.ThrottlingWalletChangeListener;
-import com.tedchain.tedcoin_android_wallet.util.WalletUtils;
+import com.tedchain.tedcoin_android_wallet.util.WalletChangeDispatcher;
 import com.tedchain.tedcoin_android_wallet.R;
 
 /**
@@ -106,6 +112,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 	private BlockStore blockStore;
 	private File blockChainFile;
+	private CleanShutdownMarker blockChainShutdownMarker;
+	private boolean blockChainCleanShutdown;
 	private File validHashStoreFile;
 	private BlockChain blockChain;
 	@CheckForNull
@@ -127,8 +135,11 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private final List<Address> notificationAddresses = new LinkedList<Address>();
 	private AtomicInteger transactionsReceived = new AtomicInteger();
 	private int bestChainHeightEver;
+	private final SyncProgressEstimator syncProgress = new SyncProgressEstimator(Constants.BLOCK_INTERVAL_MS);
 	private long serviceCreatedAt;
+	private long lastCpuTimeMs = 0;
 	private boolean resetBlockchainOnShutdown = false;
+	private final SyncSessionTracker syncSession = new SyncSessionTracker();
 
 	private final String backupDNS[] = new String[]{
 		"seed.tedcoinexplorer.info"
@@ -138,27 +149,32 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private static final int IDLE_BLOCK_TIMEOUT_MIN = 2;
 	private static final int IDLE_TRANSACTION_TIMEOUT_MIN = 9;
 	private static final int MAX_HISTORY_SIZE = Math.max(IDLE_TRANSACTION_TIMEOUT_MIN, IDLE_BLOCK_TIMEOUT_MIN);
-	private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
 
 	private static final Logger log = LoggerFactory.getLogger(BlockchainServiceImpl.class);
 
-	private final WalletEventListener walletEventListener = new ThrottlingWalletChangeListener(APPWIDGET_THROTTLE_MS)
+	private final WalletChangeDispatcher.Subscriber walletChangeSubscriber = new WalletChangeDispatcher.Subscriber()
 	{
 		@Override
-		public void onThrottledWalletChanged()
+		public void onWalletChanged(final WalletSnapshot snapshot, final WalletDelta delta)
 		{
-			notifyWidgets();
+			if (delta.balanceChanged)
+				notifyWidgets();
 		}
+	};
 
+	private final WalletEventListener walletEventListener = new AbstractWalletEventListener()
+	{
 		@Override
 		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
 		{
 			transactionsReceived.incrementAndGet();
+			syncSession.transactionsFound.incrementAndGet();
 
 			final int bestChainHeight = blockChain.getBestChainHeight();
 
-			final Address from = WalletUtils.getFirstFromAddress(tx);
-			final BigInteger amount = tx.getValue(wallet);
+			final TransactionMemo.Record memo = application.getTransactionMemo().get(tx, wallet);
+			final Address from = memo.address;
+			final BigInteger amount = memo.value;
 			final ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
 
 			handler.post(new Runnable()
@@ -180,6 +196,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
 		{
 			transactionsReceived.incrementAndGet();
+			syncSession.transactionsFound.incrementAndGet();
 		}
 	};
 
@@ -208,14 +225,18 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				PPCPrefix + ' ' + GenericUtils.formatValue(notificationAccumulatedAmount, PPCPrecision, PPCShift))
 				+ msgSuffix;
 
-		final StringBuilder text = new StringBuilder();
+		final List<String> addressStrs = new ArrayList<String>(notificationAddresses.size());
 		for (final Address address : notificationAddresses)
+			addressStrs.add(address.toString());
+		final Map<String, String> labels = application.getAddressLabelResolver().resolve(addressStrs);
+
+		final StringBuilder text = new StringBuilder();
+		for (final String addressStr : addressStrs)
 		{
 			if (text.length() > 0)
 				text.append(", ");
 
-			final String addressStr = address.toString();
-			final String label = AddressBookProvider.resolveLabel(getApplicationContext(), addressStr);
+			final String label = labels.get(addressStr);
 			text.append(label != null ? label : addressStr);
 		}
 
@@ -315,12 +336,18 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		@Override
 		public void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
 		{
-			bestChainHeightEver = Math.max(bestChainHeightEver, blockChain.getChainHead().getHeight());
-
-			delayHandler.removeCallbacksAndMessages(null);
+			final StoredBlock chainHead = blockChain.getChainHead();
+			final int chainHeight = chainHead.getHeight();
+			bestChainHeightEver = Math.max(bestChainHeightEver, chainHeight);
+			application.getWalletSavePolicy().setReplaying(chainHeight < bestChainHeightEver);
 
 			final long now = System.currentTimeMillis();
 
+			final int peerBestHeight = Math.max((int) peer.getBestHeight(), blocksLeft > 0 ? chainHeight + blocksLeft : 0);
+			syncProgress.onBlock(now, chainHeight, chainHead.getHeader().getTimeSeconds() * DateUtils.SECOND_IN_MILLIS, peerBestHeight);
+
+			delayHandler.removeCallbacksAndMessages(null);
+
 			if (now - lastMessageTime.get() > Constants.BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS)
 				delayHandler.post(runnable);
 			else
@@ -335,8 +362,21 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				lastMessageTime.set(System.currentTimeMillis());
 
 				sendBroadcastBlockchainState(ACTION_BLOCKCHAIN_STATE_DOWNLOAD_OK);
+
+				// the last seen block changed, which does not fire wallet events
+				application.scheduleWalletSave(WalletSavePolicy.DIRTY_LAST_SEEN_BLOCK);
+
+				// only touch the widgets when the shown progress changes
+				final int progressPercent = syncProgress.getProgressPercent();
+				if (progressPercent != lastWidgetProgressPercent)
+				{
+					lastWidgetProgressPercent = progressPercent;
+					notifyWidgets();
+				}
 			}
 		};
+
+		private int lastWidgetProgressPercent = -1;
 	};
 
 	private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver()
@@ -382,11 +422,12 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			{
 				log.debug("acquiring wakelock");
 				wakeLock.acquire();
+				syncSession.start();
 
-				// consistency check
+				// consistency check, only needed after a crash
 				final int walletLastBlockSeenHeight = wallet.getLastBlockSeenHeight();
 				final int bestChainHeight = blockChain.getBestChainHeight();
-				if (walletLastBlockSeenHeight != -1 && walletLastBlockSeenHeight != bestChainHeight)
+				if (!blockChainCleanShutdown && walletLastBlockSeenHeight != -1 && walletLastBlockSeenHeight != bestChainHeight)
 				{
 					final String message = "wallet/blockchain out of sync: " + walletLastBlockSeenHeight + "/" + bestChainHeight;
 					log.error(message);
@@ -400,13 +441,11 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				peerGroup.setUserAgent(Constants.USER_AGENT, application.packageInfo().versionName);
 				peerGroup.addEventListener(peerConnectivityListener);
 
-				final int maxConnectedPeers = application.maxConnectedPeers();
-
 				final String trustedPeerHost = config.getTrustedPeerHost();
 				final boolean hasTrustedPeer = !trustedPeerHost.isEmpty();
 
 				final boolean connectTrustedPeerOnly = hasTrustedPeer && config.getTrustedPeerOnly();
-				peerGroup.setMaxConnections(connectTrustedPeerOnly ? 1 : maxConnectedPeers);
+				peerGroup.setMaxConnections(connectTrustedPeerOnly ? 1 : application.maxConnectedPeers());
 				
 				if (!connectTrustedPeerOnly) {
 					PeerDBDiscovery dbDiscovery = new PeerDBDiscovery(Constants.NETWORK_PARAMETERS, new File(getDir("peers", Context.MODE_PRIVATE), Constants.PEERS_FILENAME), peerGroup);
@@ -447,7 +486,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 						// workaround because PeerGroup will shuffle peers
 						if (needsTrimPeersWorkaround)
-							while (peers.size() >= maxConnectedPeers)
+							while (peers.size() >= application.maxConnectedPeers())
 								peers.remove(peers.size() - 1);
 
 						return peers.toArray(new InetSocketAddress[0]);
@@ -474,6 +513,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 				log.debug("releasing wakelock");
 				wakeLock.release();
+				syncSession.stop();
 			}
 
 			final int download = (hasConnectivity ? 0 : ACTION_BLOCKCHAIN_STATE_DOWNLOAD_NETWORK_PROBLEM)
@@ -511,6 +551,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		{
 			final int chainHeight = blockChain.getBestChainHeight();
 
+			syncSession.sampleRadio();
+
 			if (lastChainHeight > 0)
 			{
 				final int numBlocksDownloaded = chainHeight - lastChainHeight;
@@ -558,21 +600,64 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 					log.info("idling detected, stopping service");
 					stopSelf();
 				}
+				else
+				{
+					adjustMaxConnectedPeers(numBlocksDownloaded);
+				}
 			}
 
 			lastChainHeight = chainHeight;
 		}
 	};
 
-	public class LocalBinder extends Binder
+	private void adjustMaxConnectedPeers(final int numBlocksDownloaded)
 	{
-		public BlockchainService getService()
+		final long cpuTimeMs = android.os.Process.getElapsedCpuTime();
+		final long cpuTimeDeltaMs = lastCpuTimeMs > 0 ? cpuTimeMs - lastCpuTimeMs : 0;
+		lastCpuTimeMs = cpuTimeMs;
+
+		if (peerGroup == null)
+			return;
+
+		final int numPeers = peerGroup.numConnectedPeers();
+
+		final Runtime runtime = Runtime.getRuntime();
+		final long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+		final float heapHeadroom = 1f - (float) usedMemory / runtime.maxMemory();
+
+		final Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		final int batteryLevel = battery != null ? battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1) : -1;
+		final int batteryScale = battery != null ? battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1) : -1;
+		final int batteryPercent = batteryLevel >= 0 && batteryScale > 0 ? batteryLevel * 100 / batteryScale : -1;
+		final boolean charging = battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+		final int previousMaxConnectedPeers = application.maxConnectedPeers();
+		final int maxConnectedPeers = application.getPeerCountController().sample(heapHeadroom,
+				numPeers > 0 ? cpuTimeDeltaMs / numPeers : 0, batteryPercent, charging, numBlocksDownloaded);
+
+		// the UI process has no controller of its own to sample when the service runs in the sync process
+		if (maxConnectedPeers != previousMaxConnectedPeers)
+			sendBroadcastPeerState(numPeers);
+
+		final boolean connectTrustedPeerOnly = !config.getTrustedPeerHost().isEmpty() && config.getTrustedPeerOnly();
+		if (!connectTrustedPeerOnly && peerGroup.getMaxConnections() != maxConnectedPeers)
+			peerGroup.setMaxConnections(maxConnectedPeers);
+	}
+
+	private final IBinder mBinder = new IBlockchainService.Stub()
+	{
+		@Override
+		public List<PeerInfo> getConnectedPeers()
 		{
-			return BlockchainServiceImpl.this;
+			return BlockchainServiceImpl.this.getConnectedPeers();
 		}
-	}
 
-	private final IBinder mBinder = new LocalBinder();
+		@Override
+		public List<BlockInfo> getRecentBlocks(final int maxBlocks)
+		{
+			return BlockchainServiceImpl.this.getRecentBlocks(maxBlocks);
+		}
+	};
 
 	@Override
 	public IBinder onBind(final Intent intent)
@@ -607,6 +692,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		application = (WalletApplication) getApplication();
 		config = application.getConfiguration();
+		application.refreshWalletIfStale();
 		final Wallet wallet = application.getWallet();
 
 		bestChainHeightEver = config.getBestChainHeightEver();
@@ -621,9 +707,14 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		intentFilter.addAction(Intent.ACTION_DEVICE_STORAGE_OK);
 		registerReceiver(connectivityReceiver, intentFilter);
 
-		blockChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.BLOCKCHAIN_FILENAME);
+		final File blockStoreDir = getDir("blockstore", Context.MODE_PRIVATE);
+		blockChainFile = new File(blockStoreDir, Constants.BLOCKCHAIN_FILENAME);
 		final boolean blockChainFileExists = blockChainFile.exists();
 
+		blockChainShutdownMarker = new CleanShutdownMarker(new File(blockStoreDir, Constants.BLOCKCHAIN_FILENAME_CLEAN_SHUTDOWN));
+		blockChainCleanShutdown = blockChainFileExists && blockChainShutdownMarker.isValid(blockChainFile);
+		blockChainShutdownMarker.clear();
+
 		if (!blockChainFileExists)
 		{
 			log.info("blockchain does not exist, resetting wallet");
@@ -635,7 +726,25 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		try {
 			blockStore = new SPVBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile);
-			blockStore.getChainHead(); // detect corruptions as early as possible
+			if (!blockChainCleanShutdown)
+				blockStore.getChainHead(); // detect corruptions as early as possible
+
+			// after a crash or a partial recovery, the wallet may be behind the chain
+			final int walletHeight = wallet.getLastBlockSeenHeight();
+			if (blockChainFileExists && walletHeight != -1 && (!blockChainCleanShutdown || application.isWalletPartiallyRecovered())
+					&& !rewindBlockStore(walletHeight))
+			{
+				log.info("blockchain cannot be rewound to wallet, resetting wallet");
+
+				blockStore.close();
+				blockChainFile.delete();
+
+				wallet.clearTransactions(0);
+				wallet.setLastBlockSeenHeight(-1); // magic value
+				wallet.setLastBlockSeenHash(null);
+
+				blockStore = new SPVBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile);
+			}
 		} catch (final BlockStoreException x) {
 			blockChainFile.delete();
 
@@ -666,7 +775,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			throw new Error("blockchain cannot be created", x);
 		}
 
-		application.getWallet().addEventListener(walletEventListener, Threading.SAME_THREAD);
+		application.getWalletLockProfiler().addEventListener(application.getWallet(), walletEventListener, "blockchainService");
+		application.getWalletChangeDispatcher().addSubscriber(walletChangeSubscriber);
 
 		registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
 
@@ -698,12 +808,36 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				resetBlockchainOnShutdown = true;
 				stopSelf();
 			}
+			else if (BlockchainService.ACTION_IMPORT_KEY_BACKUP.equals(action))
+			{
+				application.importKeysFromBackup();
+			}
 			else if (BlockchainService.ACTION_BROADCAST_TRANSACTION.equals(action))
 			{
 				final Sha256Hash hash = new Sha256Hash(intent.getByteArrayExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH));
-				final Transaction tx = application.getWallet().getTransaction(hash);
+				final Wallet wallet = application.getWallet();
+				Transaction tx = wallet.getTransaction(hash);
+
+				if (tx == null && intent.hasExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_TX))
+				{
+					// handed over from the UI process, which keeps its own copy of the wallet
+					try
+					{
+						tx = new Transaction(Constants.NETWORK_PARAMETERS, intent.getByteArrayExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_TX));
+						wallet.receivePending(tx, null);
+					}
+					catch (final VerificationException x)
+					{
+						log.warn("cannot commit handed over transaction " + hash, x);
+						tx = null;
+					}
+				}
 
-				if (peerGroup != null)
+				if (tx == null)
+				{
+					log.warn("unknown transaction, not broadcasting " + hash);
+				}
+				else if (peerGroup != null)
 				{
 					log.info("broadcasting transaction " + tx.getHashAsString());
 					peerGroup.broadcastTransaction(tx);
@@ -731,7 +865,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		unregisterReceiver(tickReceiver);
 
-		application.getWallet().removeEventListener(walletEventListener);
+		application.getWalletChangeDispatcher().removeSubscriber(walletChangeSubscriber);
+		application.getWalletLockProfiler().removeEventListener(application.getWallet(), walletEventListener);
 
 		if (peerGroup != null)
 		{
@@ -742,12 +877,15 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			log.info("peergroup stopped");
 		}
 
+		syncSession.stop();
+
 		peerConnectivityListener.stop();
 
 		unregisterReceiver(connectivityReceiver);
 
 		removeBroadcastPeerState();
 		removeBroadcastBlockchainState();
+		notifyWidgets();
 
 		config.setBestChainHeightEver(bestChainHeightEver);
 
@@ -762,10 +900,26 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			throw new RuntimeException(x);
 		}
 
+		if (!resetBlockchainOnShutdown)
+		{
+			try
+			{
+				blockChainShutdownMarker.write(blockChainFile);
+			}
+			catch (final IOException x)
+			{
+				log.info("problem writing clean shutdown marker", x);
+			}
+		}
+
 		validHashStore.close();
 		validHashStoreFile.delete();
 		
-		application.saveWallet();
+		// when resetting in the sync process, the UI process is about to take over the wallet
+		final boolean handOver = resetBlockchainOnShutdown && application.isSyncProcess();
+		if (!handOver)
+			application.saveWallet();
+		application.releaseWallet(handOver);
 
 		if (wakeLock.isHeld())
 		{
@@ -792,18 +946,26 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	}
 
 	@Override
-	public List<Peer> getConnectedPeers()
+	public List<PeerInfo> getConnectedPeers()
 	{
 		if (peerGroup != null)
-			return peerGroup.getConnectedPeers();
+		{
+			final List<Peer> peers = peerGroup.getConnectedPeers();
+			final List<PeerInfo> peerInfos = new ArrayList<PeerInfo>(peers.size());
+			for (final Peer peer : peers)
+				peerInfos.add(new PeerInfo(peer));
+			return peerInfos;
+		}
 		else
+		{
 			return null;
+		}
 	}
 
 	@Override
-	public List<StoredBlock> getRecentBlocks(final int maxBlocks)
+	public List<BlockInfo> getRecentBlocks(final int maxBlocks)
 	{
-		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
+		final List<BlockInfo> blocks = new ArrayList<BlockInfo>(maxBlocks);
 
 		try
 		{
@@ -811,7 +973,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 			while (block != null)
 			{
-				blocks.add(block);
+				blocks.add(new BlockInfo(block));
 
 				if (blocks.size() >= maxBlocks)
 					break;
@@ -832,6 +994,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		final Intent broadcast = new Intent(ACTION_PEER_STATE);
 		broadcast.setPackage(getPackageName());
 		broadcast.putExtra(ACTION_PEER_STATE_NUM_PEERS, numPeers);
+		broadcast.putExtra(ACTION_PEER_STATE_MAX_PEERS, application.maxConnectedPeers());
 		sendStickyBroadcast(broadcast);
 	}
 
@@ -850,6 +1013,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_HEIGHT, chainHead.getHeight());
 		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_REPLAYING, chainHead.getHeight() < bestChainHeightEver);
 		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_DOWNLOAD, download);
+		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_PROGRESS_PERCENT, syncProgress.getProgressPercent());
+		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_ETA_MS, syncProgress.getEtaMs());
 
 		sendStickyBroadcast(broadcast);
 	}
@@ -859,6 +1024,117 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		removeStickyBroadcast(new Intent(ACTION_BLOCKCHAIN_STATE));
 	}
 
+	/**
+	 * Accounts for one wakelock hold: its duration, what it achieved and an estimate of the time the radio has been
+	 * active. The radio estimate counts every tick interval with app traffic as active, so it is an upper bound. Wallet
+	 * saves are accounted from the counters of the {@link WalletSavePolicy}.
+	 */
+	private final class SyncSessionTracker
+	{
+		private long startedAt = 0;
+		private long startTime;
+		private int startHeight;
+		private long startBytes;
+		private long radioActiveMs;
+		private long radioSampleAt;
+		private long radioSampleBytes;
+		private final AtomicInteger transactionsFound = new AtomicInteger();
+		private int startNumSaves;
+		private long startSaveBytes;
+		private long startSaveLatencyMs;
+
+		public void start()
+		{
+			final WalletSavePolicy savePolicy = application.getWalletSavePolicy();
+
+			startedAt = SystemClock.elapsedRealtime();
+			startTime = System.currentTimeMillis();
+			startHeight = blockChain.getBestChainHeight();
+			startBytes = uidBytes();
+			radioActiveMs = 0;
+			radioSampleAt = startedAt;
+			radioSampleBytes = startBytes;
+			transactionsFound.set(0);
+			startNumSaves = savePolicy.getNumSaves();
+			startSaveBytes = savePolicy.getBytesWritten();
+			startSaveLatencyMs = savePolicy.getTotalLatencyMs();
+			savePolicy.takeMaxLatencyMs();
+		}
+
+		public void sampleRadio()
+		{
+			if (startedAt == 0)
+				return;
+
+			final long now = SystemClock.elapsedRealtime();
+			final long bytes = uidBytes();
+
+			if (bytes != radioSampleBytes)
+				radioActiveMs += now - radioSampleAt;
+
+			radioSampleAt = now;
+			radioSampleBytes = bytes;
+		}
+
+		public void stop()
+		{
+			if (startedAt == 0)
+				return;
+
+			sampleRadio();
+
+			final long bytes = uidBytes();
+			final WalletSavePolicy savePolicy = application.getWalletSavePolicy();
+			final SyncSessionLog.Session session = new SyncSessionLog.Session(startTime, SystemClock.elapsedRealtime() - startedAt,
+					radioActiveMs, bytes >= 0 && startBytes >= 0 ? bytes - startBytes : 0, blockChain.getBestChainHeight() - startHeight,
+					transactionsFound.get(), savePolicy.getNumSaves() - startNumSaves, savePolicy.getBytesWritten() - startSaveBytes,
+					savePolicy.getTotalLatencyMs() - startSaveLatencyMs, savePolicy.takeMaxLatencyMs());
+			startedAt = 0;
+
+			log.info("sync session: " + session);
+			syncSessionLog(BlockchainServiceImpl.this).append(session);
+		}
+
+		private long uidBytes()
+		{
+			final int uid = android.os.Process.myUid();
+			final long rxBytes = TrafficStats.getUidRxBytes(uid);
+			final long txBytes = TrafficStats.getUidTxBytes(uid);
+
+			return rxBytes != TrafficStats.UNSUPPORTED && txBytes != TrafficStats.UNSUPPORTED ? rxBytes + txBytes : -1;
+		}
+	}
+
+	/**
+	 * Rewinds the chain head to the given height, so the blocks above are scanned for the wallet again.
+	 *
+	 * @return false if the block store does not reach back that far
+	 */
+	private boolean rewindBlockStore(final int height) throws BlockStoreException
+	{
+		final StoredBlock chainHead = blockStore.getChainHead();
+		if (chainHead.getHeight() <= height)
+			return true;
+
+		StoredBlock block = chainHead;
+		while (block != null && block.getHeight() > height)
+			block = block.getPrev(blockStore);
+
+		if (block == null)
+			return false;
+
+		blockStore.setChainHead(block);
+		log.info("rewound blockchain from height {} to {}", chainHead.getHeight(), block.getHeight());
+
+		return true;
+	}
+
+	public static SyncSessionLog syncSessionLog(@Nonnull final Context context)
+	{
+		return new SyncSessionLog(new File(context.getDir("log", Context.MODE_PRIVATE), Constants.SYNC_SESSION_LOG_FILENAME),
+				Constants.SYNC_SESSION_LOG_MAX_SESSIONS);
+	}
+
 	public void notifyWidgets()
 	{
 		final AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
@@ -871,8 +1147,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 			if (appWidgetIds.length > 0)
 			{
-				final Wallet wallet = application.getWallet();
-				final BigInteger balance = wallet.getBalance(BalanceType.ESTIMATED);
+				final BigInteger balance = application.getEstimatedBalance();
 
 				WalletBalanceWidgetProvider.updateWidgets(this, appWidgetManager, appWidgetIds, balance);
 			}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Grows or shrinks the number of peers to connect to, based on device headroom and on the sync speedup that additional
+ * peers actually bought. Meant to be fed one sample per minute.
+ *
+ * @author Andreas Schildbach
+ */
+public final class PeerCountController
+{
+	private final int minPeers;
+	private final int baselinePeers;
+	private final int maxPeers;
+
+	private volatile int maxConnectedPeers;
+
+	private int ceiling;
+	private int ticksSinceAdjustment = 0;
+	private int countBeforeGrow = -1;
+	private float rateBeforeGrow;
+
+	private static final int MIN_PEERS = 2;
+	private static final int SETTLE_TICKS = 2;
+	private static final float MIN_HEAP_HEADROOM = 0.25f;
+	private static final long MAX_CPU_MS_PER_PEER = 3000;
+	private static final int LOW_BATTERY_PERCENT = 20;
+	private static final float MIN_MARGINAL_SPEEDUP = 0.1f;
+	private static final int SYNCING_MIN_BLOCKS = 2;
+
+	private static final Logger log = LoggerFactory.getLogger(PeerCountController.class);
+
+	public PeerCountController(final boolean lowEnd)
+	{
+		this.minPeers = MIN_PEERS;
+		this.baselinePeers = lowEnd ? 4 : 6;
+		this.maxPeers = lowEnd ? 6 : 10;
+
+		this.maxConnectedPeers = baselinePeers;
+		this.ceiling = maxPeers;
+	}
+
+	public int getMaxConnectedPeers()
+	{
+		return maxConnectedPeers;
+	}
+
+	/**
+	 * @param heapHeadroom
+	 *            fraction of the maximum heap that is still free
+	 * @param cpuMsPerPeer
+	 *            process CPU time spent since the last sample, divided by the number of connected peers
+	 * @param batteryPercent
+	 *            battery level, or -1 if unknown
+	 * @param charging
+	 *            whether the device is plugged in
+	 * @param blocksDownloaded
+	 *            blocks downloaded since the last sample
+	 * @return the new maximum number of connected peers
+	 */
+	public synchronized int sample(final float heapHeadroom, final long cpuMsPerPeer, final int batteryPercent, final boolean charging,
+			final int blocksDownloaded)
+	{
+		final int current = maxConnectedPeers;
+		ticksSinceAdjustment++;
+
+		final boolean heapConstrained = heapHeadroom < MIN_HEAP_HEADROOM;
+		final boolean cpuConstrained = cpuMsPerPeer > MAX_CPU_MS_PER_PEER;
+		final boolean batteryConstrained = !charging && batteryPercent >= 0 && batteryPercent < LOW_BATTERY_PERCENT;
+
+		if (heapConstrained || cpuConstrained || batteryConstrained)
+		{
+			log.info("constrained (heap headroom: {}, cpu ms per peer: {}, battery: {}%{})", heapHeadroom, cpuMsPerPeer, batteryPercent,
+					charging ? " charging" : "");
+
+			countBeforeGrow = -1;
+			ceiling = Math.max(minPeers, current - 1);
+
+			return adjust(current, batteryConstrained ? minPeers : ceiling);
+		}
+
+		final boolean syncing = blocksDownloaded >= SYNCING_MIN_BLOCKS;
+
+		if (!syncing)
+		{
+			// caught up, forget what we learned and drift back to baseline
+			countBeforeGrow = -1;
+			ceiling = maxPeers;
+
+			if (current > baselinePeers)
+				return adjust(current, current - 1);
+			else if (current < baselinePeers)
+				return adjust(current, current + 1);
+			else
+				return current;
+		}
+
+		if (ticksSinceAdjustment < SETTLE_TICKS)
+			return current;
+
+		final float rate = blocksDownloaded;
+
+		if (countBeforeGrow != -1 && countBeforeGrow < current)
+		{
+			final float marginalSpeedup = rateBeforeGrow > 0 ? (rate - rateBeforeGrow) / rateBeforeGrow : Float.MAX_VALUE;
+
+			if (marginalSpeedup < MIN_MARGINAL_SPEEDUP)
+			{
+				log.info("marginal speedup of {} peers over {} peers was {}, backing off", current, countBeforeGrow, marginalSpeedup);
+
+				ceiling = countBeforeGrow;
+				countBeforeGrow = -1;
+
+				return adjust(current, ceiling);
+			}
+		}
+
+		if (current < Math.min(maxPeers, ceiling))
+		{
+			countBeforeGrow = current;
+			rateBeforeGrow = rate;
+
+			return adjust(current, current + 1);
+		}
+
+		return current;
+	}
+
+	private int adjust(final int current, final int target)
+	{
+		final int clamped = Math.max(minPeers, Math.min(maxPeers, target));
+
+		if (clamped != current)
+		{
+			log.info("adjusting max connected peers: {} -> {}", current, clamped);
+
+			maxConnectedPeers = clamped;
+			ticksSinceAdjustment = 0;
+		}
+
+		return clamped;
+	}
+}
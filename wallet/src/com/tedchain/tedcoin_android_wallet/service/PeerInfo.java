@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import javax.annotation.Nonnull;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.tedchain.tedcoinj.core.Peer;
+import com.tedchain.tedcoinj.core.VersionMessage;
+
+/**
+ * Snapshot of a connected {@link Peer}, suitable for passing across process boundaries.
+ *
+ * @author Andreas Schildbach
+ */
+public final class PeerInfo implements Parcelable
+{
+	public final InetAddress address;
+	public final long bestHeight;
+	public final String subVer;
+	public final int clientVersion;
+	public final long pingTime;
+	public final boolean isDownloading;
+
+	public PeerInfo(@Nonnull final Peer peer)
+	{
+		final VersionMessage versionMessage = peer.getPeerVersionMessage();
+
+		this.address = peer.getAddress().getAddr();
+		this.bestHeight = peer.getBestHeight();
+		this.subVer = versionMessage.subVer;
+		this.clientVersion = versionMessage.clientVersion;
+		this.pingTime = peer.getPingTime();
+		this.isDownloading = peer.getDownloadData();
+	}
+
+	@Override
+	public int describeContents()
+	{
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(final Parcel dest, final int flags)
+	{
+		final byte[] addressBytes = address.getAddress();
+		dest.writeInt(addressBytes.length);
+		dest.writeByteArray(addressBytes);
+
+		dest.writeLong(bestHeight);
+		dest.writeString(subVer);
+		dest.writeInt(clientVersion);
+		dest.writeLong(pingTime);
+		dest.writeInt(isDownloading ? 1 : 0);
+	}
+
+	public static final Parcelable.Creator<PeerInfo> CREATOR = new Parcelable.Creator<PeerInfo>()
+	{
+		@Override
+		public PeerInfo createFromParcel(final Parcel in)
+		{
+			return new PeerInfo(in);
+		}
+
+		@Override
+		public PeerInfo[] newArray(final int size)
+		{
+			return new PeerInfo[size];
+		}
+	};
+
+	private PeerInfo(final Parcel in)
+	{
+		final int addressLength = in.readInt();
+		final byte[] addressBytes = new byte[addressLength];
+		in.readByteArray(addressBytes);
+		try
+		{
+			address = InetAddress.getByAddress(addressBytes);
+		}
+		catch (final UnknownHostException x)
+		{
+			throw new RuntimeException(x); // cannot happen, bytes came from an InetAddress
+		}
+
+		bestHeight = in.readLong();
+		subVer = in.readString();
+		clientVersion = in.readInt();
+		pingTime = in.readLong();
+		isDownloading = in.readInt() != 0;
+	}
+}
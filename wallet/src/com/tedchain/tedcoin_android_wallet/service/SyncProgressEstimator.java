@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.service;
+
+/**
+ * Estimates how far the blockchain download has come and how long it will take to catch up. The target height is what
+ * peers announce, or extrapolated from the age of the chain head if they announce nothing. The download rate is
+ * smoothed over windows of about one second. Cheap enough to be fed every block: no allocation, no logging.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SyncProgressEstimator
+{
+	private final long blockIntervalMs;
+
+	private int startHeight = -1;
+	private int chainHeight;
+	private int targetHeight;
+
+	private long rateSampleTime;
+	private int rateSampleHeight;
+	private float blocksPerMs = 0;
+
+	private static final long RATE_WINDOW_MS = 1000;
+	private static final float RATE_SMOOTHING = 0.3f;
+
+	public SyncProgressEstimator(final long blockIntervalMs)
+	{
+		this.blockIntervalMs = blockIntervalMs;
+	}
+
+	/**
+	 * @param now
+	 *            current time in milliseconds
+	 * @param chainHeight
+	 *            height of the chain head
+	 * @param chainHeadTime
+	 *            time of the chain head in milliseconds
+	 * @param peerBestHeight
+	 *            best height announced by the downloading peer, or 0 if unknown
+	 */
+	public synchronized void onBlock(final long now, final int chainHeight, final long chainHeadTime, final int peerBestHeight)
+	{
+		if (startHeight == -1)
+		{
+			startHeight = chainHeight;
+			rateSampleTime = now;
+			rateSampleHeight = chainHeight;
+		}
+
+		this.chainHeight = chainHeight;
+
+		if (peerBestHeight > 0)
+			targetHeight = Math.max(chainHeight, peerBestHeight);
+		else
+			targetHeight = chainHeight + (int) Math.max(0, (now - chainHeadTime) / blockIntervalMs);
+
+		final long elapsed = now - rateSampleTime;
+		if (elapsed >= RATE_WINDOW_MS)
+		{
+			final float rate = (float) (chainHeight - rateSampleHeight) / elapsed;
+			blocksPerMs = blocksPerMs > 0 ? blocksPerMs + RATE_SMOOTHING * (rate - blocksPerMs) : rate;
+
+			rateSampleTime = now;
+			rateSampleHeight = chainHeight;
+		}
+	}
+
+	/**
+	 * @return percentage of the blocks downloaded since the estimator has been started, or -1 if unknown
+	 */
+	public synchronized int getProgressPercent()
+	{
+		if (startHeight == -1)
+			return -1;
+
+		final int total = targetHeight - startHeight;
+		if (total <= 0)
+			return 100;
+
+		return (int) (100L * (chainHeight - startHeight) / total);
+	}
+
+	/**
+	 * @return estimated time in milliseconds until caught up, or -1 if unknown
+	 */
+	public synchronized long getEtaMs()
+	{
+		if (startHeight == -1)
+			return -1;
+
+		final int remaining = targetHeight - chainHeight;
+		if (remaining <= 0)
+			return 0;
+
+		if (blocksPerMs <= 0)
+			return -1;
+
+		return (long) (remaining / blocksPerMs);
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tedchain.tedcoin_android_wallet.Constants;
+
+/**
+ * Rolling log of blockchain sync sessions, one line per session, keeping the most recent sessions only. A session
+ * lasts as long as the service holds its wakelock.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SyncSessionLog
+{
+	private final File file;
+	private final int maxSessions;
+
+	private static final Logger log = LoggerFactory.getLogger(SyncSessionLog.class);
+
+	public static final class Session
+	{
+		public final long startTime;
+		public final long wakeLockMs;
+		public final long radioActiveMs;
+		public final long bytesTransferred;
+		public final int blocksSynced;
+		public final int transactionsFound;
+		public final int walletSaves;
+		public final long walletSaveBytes;
+		public final long walletSaveLatencyMs;
+		public final long walletSaveMaxLatencyMs;
+
+		public Session(final long startTime, final long wakeLockMs, final long radioActiveMs, final long bytesTransferred, final int blocksSynced,
+				final int transactionsFound, final int walletSaves, final long walletSaveBytes, final long walletSaveLatencyMs,
+				final long walletSaveMaxLatencyMs)
+		{
+			this.startTime = startTime;
+			this.wakeLockMs = wakeLockMs;
+			this.radioActiveMs = radioActiveMs;
+			this.bytesTransferred = bytesTransferred;
+			this.blocksSynced = blocksSynced;
+			this.transactionsFound = transactionsFound;
+			this.walletSaves = walletSaves;
+			this.walletSaveBytes = walletSaveBytes;
+			this.walletSaveLatencyMs = walletSaveLatencyMs;
+			this.walletSaveMaxLatencyMs = walletSaveMaxLatencyMs;
+		}
+
+		private static Session parse(final String line)
+		{
+			final String[] fields = line.split("\t");
+
+			if (fields.length != 10)
+				throw new IllegalArgumentException("expected 10 fields: " + line);
+
+			return new Session(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+					Integer.parseInt(fields[4]), Integer.parseInt(fields[5]), Integer.parseInt(fields[6]), Long.parseLong(fields[7]),
+					Long.parseLong(fields[8]), Long.parseLong(fields[9]));
+		}
+
+		private String toLine()
+		{
+			return startTime + "\t" + wakeLockMs + "\t" + radioActiveMs + "\t" + bytesTransferred + "\t" + blocksSynced + "\t" + transactionsFound
+					+ "\t" + walletSaves + "\t" + walletSaveBytes + "\t" + walletSaveLatencyMs + "\t" + walletSaveMaxLatencyMs;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%tF %tT: wakelock %ds, radio ~%ds, %d kB, %d blocks, %d transactions, %d wallet saves (%d kB, %dms, max %dms)",
+					startTime, startTime, wakeLockMs / 1000, radioActiveMs / 1000, bytesTransferred / 1024, blocksSynced, transactionsFound,
+					walletSaves, walletSaveBytes / 1024, walletSaveLatencyMs, walletSaveMaxLatencyMs);
+		}
+	}
+
+	public static final class Summary
+	{
+		public int numSessions;
+		public long wakeLockMs;
+		public long radioActiveMs;
+		public long bytesTransferred;
+		public int blocksSynced;
+		public int transactionsFound;
+		public int walletSaves;
+		public long walletSaveBytes;
+		public long walletSaveLatencyMs;
+		public long walletSaveMaxLatencyMs;
+
+		@Override
+		public String toString()
+		{
+			return numSessions + " sessions, wakelock " + wakeLockMs / 1000 + "s, radio ~" + radioActiveMs / 1000 + "s, " + bytesTransferred / 1024
+					+ " kB, " + blocksSynced + " blocks, " + transactionsFound + " transactions, " + walletSaves + " wallet saves ("
+					+ walletSaveBytes / 1024 + " kB, " + walletSaveLatencyMs + "ms, max " + walletSaveMaxLatencyMs + "ms)";
+		}
+	}
+
+	public SyncSessionLog(@Nonnull final File file, final int maxSessions)
+	{
+		this.file = file;
+		this.maxSessions = maxSessions;
+	}
+
+	public synchronized void append(@Nonnull final Session session)
+	{
+		final List<Session> sessions = read();
+		sessions.add(session);
+
+		while (sessions.size() > maxSessions)
+			sessions.remove(0);
+
+		final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		Writer writer = null;
+
+		try
+		{
+			writer = new OutputStreamWriter(new FileOutputStream(tempFile), Constants.UTF_8);
+			for (final Session s : sessions)
+				writer.write(s.toLine() + "\n");
+			writer.close();
+			writer = null;
+
+			if (!tempFile.renameTo(file))
+				log.warn("cannot rename " + tempFile + " to " + file);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem writing sync session log", x);
+		}
+		finally
+		{
+			if (writer != null)
+			{
+				try
+				{
+					writer.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	public synchronized List<Session> read()
+	{
+		final List<Session> sessions = new LinkedList<Session>();
+
+		BufferedReader reader = null;
+
+		try
+		{
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Constants.UTF_8));
+
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				try
+				{
+					sessions.add(Session.parse(line));
+				}
+				catch (final RuntimeException x)
+				{
+					log.info("skipping unparsable sync session: '" + line + "'");
+				}
+			}
+		}
+		catch (final FileNotFoundException x)
+		{
+			// no sessions yet
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem reading sync session log", x);
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+
+		return sessions;
+	}
+
+	/**
+	 * Totals of all logged sessions that started at or after the given time.
+	 */
+	public Summary summarize(final long since)
+	{
+		final Summary summary = new Summary();
+
+		for (final Session session : read())
+		{
+			if (session.startTime >= since)
+			{
+				summary.numSessions++;
+				summary.wakeLockMs += session.wakeLockMs;
+				summary.radioActiveMs += session.radioActiveMs;
+				summary.bytesTransferred += session.bytesTransferred;
+				summary.blocksSynced += session.blocksSynced;
+				summary.transactionsFound += session.transactionsFound;
+				summary.walletSaves += session.walletSaves;
+				summary.walletSaveBytes += session.walletSaveBytes;
+				summary.walletSaveLatencyMs += session.walletSaveLatencyMs;
+				summary.walletSaveMaxLatencyMs = Math.max(summary.walletSaveMaxLatencyMs, session.walletSaveMaxLatencyMs);
+			}
+		}
+
+		return summary;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.store;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tedchain.tedcoin_android_wallet.Constants;
+
+/**
+ * Marker that files have been closed cleanly. It records length and modification time of each file, protected by a
+ * checksum. The marker is valid only if it is intact and all files are unchanged since, so expensive integrity checks can
+ * be skipped. It is to be cleared on startup, so a crash leaves no valid marker behind.
+ *
+ * @author Andreas Schildbach
+ */
+public final class CleanShutdownMarker
+{
+	private final File file;
+
+	private static final Logger log = LoggerFactory.getLogger(CleanShutdownMarker.class);
+
+	public CleanShutdownMarker(@Nonnull final File file)
+	{
+		this.file = file;
+	}
+
+	public void write(@Nonnull final File... files) throws IOException
+	{
+		final String content = fingerprint(files);
+
+		final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		final FileOutputStream os = new FileOutputStream(tempFile);
+		try
+		{
+			os.write((content + checksum(content) + "\n").getBytes(Constants.UTF_8));
+			os.flush();
+			os.getFD().sync();
+		}
+		finally
+		{
+			os.close();
+		}
+
+		if (!tempFile.renameTo(file))
+			throw new IOException("cannot rename " + tempFile + " to " + file);
+	}
+
+	public boolean isValid(@Nonnull final File... files)
+	{
+		BufferedReader reader = null;
+
+		try
+		{
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Constants.UTF_8));
+
+			final StringBuilder content = new StringBuilder();
+			for (int i = 0; i < files.length; i++)
+			{
+				final String line = reader.readLine();
+				if (line == null)
+					return false;
+				content.append(line).append('\n');
+			}
+			final String checksum = reader.readLine();
+
+			if (!Long.toString(checksum(content.toString())).equals(checksum))
+			{
+				log.info("clean shutdown marker is corrupt");
+				return false;
+			}
+
+			if (!content.toString().equals(fingerprint(files)))
+			{
+				log.info("files have changed since clean shutdown");
+				return false;
+			}
+
+			return true;
+		}
+		catch (final FileNotFoundException x)
+		{
+			return false;
+		}
+		catch (final IOException x)
+		{
+			log.info("problem reading clean shutdown marker", x);
+			return false;
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	public void clear()
+	{
+		file.delete();
+	}
+
+	private static String fingerprint(final File... files)
+	{
+		final StringBuilder fingerprint = new StringBuilder();
+		for (final File f : files)
+			fingerprint.append(f.getName()).append('\t').append(f.length()).append('\t').append(f.lastModified()).append('\n');
+		return fingerprint.toString();
+	}
+
+	private static long checksum(final String content)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(content.getBytes(Constants.UTF_8));
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+
+import org.tedcoinj.wallet.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Wallet file made of independently checksummed segments: metadata, keys and chunks of transactions sorted by the height
+ * they appeared at. A corrupt metadata or key segment makes the file unreadable, but a corrupt transaction segment only
+ * loses the transactions from its lowest height on, which can be rescanned from there instead of from scratch.
+ *
+ * Files written before segmentation are plain protobuf wallets and are read as such.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SegmentedWalletFile
+{
+	private static final byte[] MAGIC = { 'T', 'D', 'W', 'S' };
+	private static final int VERSION = 1;
+
+	private static final int SEGMENT_METADATA = 1;
+	private static final int SEGMENT_KEYS = 2;
+	private static final int SEGMENT_TRANSACTIONS = 3;
+
+	private static final int TRANSACTIONS_PER_SEGMENT = 100;
+	private static final int HEIGHT_NONE = Integer.MAX_VALUE;
+
+	private static final Logger log = LoggerFactory.getLogger(SegmentedWalletFile.class);
+
+	public static final class Result
+	{
+		public final Protos.Wallet wallet;
+
+		/**
+		 * height to rescan from because transactions have been lost, {@link Integer#MAX_VALUE} if only transactions not
+		 * in the chain have been lost, or -1 if nothing has been lost
+		 */
+		public final int rescanHeight;
+
+		private Result(final Protos.Wallet wallet, final int rescanHeight)
+		{
+			this.wallet = wallet;
+			this.rescanHeight = rescanHeight;
+		}
+	}
+
+	private SegmentedWalletFile()
+	{
+	}
+
+	public static void write(@Nonnull final Protos.Wallet wallet, @Nonnull final OutputStream os) throws IOException
+	{
+		final DataOutputStream dos = new DataOutputStream(os);
+		dos.write(MAGIC);
+		dos.writeByte(VERSION);
+
+		writeSegment(dos, SEGMENT_METADATA, HEIGHT_NONE, wallet.toBuilder().clearKey().clearTransaction().build().toByteArray());
+		writeSegment(dos, SEGMENT_KEYS, HEIGHT_NONE, Protos.Wallet.newBuilder().setNetworkIdentifier(wallet.getNetworkIdentifier())
+				.addAllKey(wallet.getKeyList()).build().toByteArray());
+
+		final List<Protos.Transaction> transactions = new ArrayList<Protos.Transaction>(wallet.getTransactionList());
+		Collections.sort(transactions, HEIGHT_COMPARATOR);
+
+		for (int i = 0; i < transactions.size(); i += TRANSACTIONS_PER_SEGMENT)
+		{
+			final List<Protos.Transaction> chunk = transactions.subList(i, Math.min(i + TRANSACTIONS_PER_SEGMENT, transactions.size()));
+			final byte[] data = Protos.Wallet.newBuilder().setNetworkIdentifier(wallet.getNetworkIdentifier()).addAllTransaction(chunk).build()
+					.toByteArray();
+			writeSegment(dos, SEGMENT_TRANSACTIONS, height(chunk.get(0)), data);
+		}
+
+		dos.flush();
+	}
+
+	private static void writeSegment(final DataOutputStream os, final int type, final int minHeight, final byte[] data) throws IOException
+	{
+		os.writeByte(type);
+		os.writeInt(minHeight);
+		os.writeInt(data.length);
+		os.writeLong(checksum(type, minHeight, data));
+		os.write(data);
+	}
+
+	public static Result read(@Nonnull final byte[] bytes) throws IOException
+	{
+		if (!isSegmented(bytes))
+			return new Result(Protos.Wallet.parseFrom(bytes), -1);
+
+		final DataInputStream is = new DataInputStream(new ByteArrayInputStream(bytes));
+		is.skipBytes(MAGIC.length);
+		final int version = is.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException("unknown wallet file version: " + version);
+
+		Protos.Wallet.Builder metadata = null;
+		Protos.Wallet keys = null;
+		final List<Protos.Transaction> transactions = new ArrayList<Protos.Transaction>();
+		int rescanHeight = -1;
+		int lastGoodHeight = 0;
+
+		while (true)
+		{
+			final int type;
+			try
+			{
+				type = is.readUnsignedByte();
+			}
+			catch (final EOFException x)
+			{
+				break; // clean end
+			}
+
+			try
+			{
+				final int minHeight = is.readInt();
+				final int length = is.readInt();
+				final long checksum = is.readLong();
+				if (length < 0 || length > is.available())
+					throw new EOFException("segment length " + length + " exceeds file");
+				final byte[] data = new byte[length];
+				is.readFully(data);
+
+				if (checksum != checksum(type, minHeight, data))
+				{
+					if (type == SEGMENT_TRANSACTIONS)
+					{
+						// the height in the header is as untrustworthy as the data, but the segment follows the last good one
+						log.warn("dropping corrupt transaction segment, rescanning from " + lastGoodHeight);
+						rescanHeight = lower(rescanHeight, lastGoodHeight);
+						continue;
+					}
+
+					throw new IOException("corrupt segment of type " + type);
+				}
+
+				if (type == SEGMENT_METADATA)
+				{
+					metadata = Protos.Wallet.parseFrom(data).toBuilder();
+				}
+				else if (type == SEGMENT_KEYS)
+				{
+					keys = Protos.Wallet.parseFrom(data);
+				}
+				else if (type == SEGMENT_TRANSACTIONS)
+				{
+					transactions.addAll(Protos.Wallet.parseFrom(data).getTransactionList());
+					if (minHeight != HEIGHT_NONE)
+						lastGoodHeight = minHeight;
+				}
+			}
+			catch (final EOFException x)
+			{
+				// framing is lost, so are all following segments; as they are sorted by height, none is lower than the last
+				// good one
+				log.warn("wallet file is truncated, rescanning from " + lastGoodHeight, x);
+				rescanHeight = lower(rescanHeight, lastGoodHeight);
+				break;
+			}
+		}
+
+		if (metadata == null || keys == null)
+			throw new IOException("wallet file lacks metadata or keys");
+
+		metadata.addAllKey(keys.getKeyList());
+		metadata.addAllTransaction(transactions);
+
+		return new Result(metadata.build(), rescanHeight);
+	}
+
+	/**
+	 * Drops all transactions confirmed from the given height on, disconnects the remaining transactions from what is
+	 * missing and rewinds the last seen block, so a rescan from that height finds everything again. Pending transactions
+	 * are kept along with the outputs they spend, as a rescan would not find them.
+	 */
+	public static void dropFrom(@Nonnull final Protos.Wallet.Builder wallet, final int height)
+	{
+		final List<Protos.Transaction> kept = new ArrayList<Protos.Transaction>(wallet.getTransactionCount());
+		final Set<ByteString> keptHashes = new HashSet<ByteString>();
+
+		for (final Protos.Transaction tx : wallet.getTransactionList())
+		{
+			if (!isConfirmed(tx) || height(tx) < height)
+			{
+				kept.add(tx);
+				keptHashes.add(tx.getHash());
+			}
+		}
+
+		wallet.clearTransaction();
+
+		for (final Protos.Transaction tx : kept)
+		{
+			final Protos.Transaction.Builder txBuilder = tx.toBuilder();
+			boolean disconnected = false;
+
+			for (int i = 0; i < txBuilder.getTransactionOutputCount(); i++)
+			{
+				final Protos.TransactionOutput.Builder output = txBuilder.getTransactionOutputBuilder(i);
+				if (output.hasSpentByTransactionHash() && !keptHashes.contains(output.getSpentByTransactionHash()))
+				{
+					output.clearSpentByTransactionHash();
+					output.clearSpentByTransactionIndex();
+					disconnected = true;
+				}
+			}
+
+			// an output has become spendable again
+			if (disconnected && txBuilder.getPool() == Protos.Transaction.Pool.SPENT)
+				txBuilder.setPool(Protos.Transaction.Pool.UNSPENT);
+
+			wallet.addTransaction(txBuilder);
+		}
+
+		if (height != HEIGHT_NONE)
+		{
+			wallet.setLastSeenBlockHeight(height - 1);
+			wallet.clearLastSeenBlockHash();
+			wallet.clearLastSeenBlockTimeSecs();
+		}
+
+		log.info("kept " + kept.size() + " transactions, dropped those confirmed from height " + height);
+	}
+
+	private static boolean isSegmented(final byte[] bytes)
+	{
+		if (bytes.length < MAGIC.length)
+			return false;
+
+		for (int i = 0; i < MAGIC.length; i++)
+			if (bytes[i] != MAGIC[i])
+				return false;
+
+		return true;
+	}
+
+	private static boolean isConfirmed(final Protos.Transaction tx)
+	{
+		return tx.hasConfidence() && tx.getConfidence().getType() == Protos.TransactionConfidence.Type.BUILDING;
+	}
+
+	private static int height(final Protos.Transaction tx)
+	{
+		if (tx.hasConfidence() && tx.getConfidence().getType() == Protos.TransactionConfidence.Type.BUILDING
+				&& tx.getConfidence().hasAppearedAtHeight())
+			return tx.getConfidence().getAppearedAtHeight();
+		else
+			return HEIGHT_NONE;
+	}
+
+	private static int lower(final int rescanHeight, final int height)
+	{
+		return rescanHeight == -1 ? height : Math.min(rescanHeight, height);
+	}
+
+	private static long checksum(final int type, final int minHeight, final byte[] data)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(new byte[] { (byte) (minHeight >>> 24), (byte) (minHeight >>> 16), (byte) (minHeight >>> 8), (byte) minHeight });
+		crc.update(data);
+		return crc.getValue();
+	}
+
+	private static final Comparator<Protos.Transaction> HEIGHT_COMPARATOR = new Comparator<Protos.Transaction>()
+	{
+		@Override
+		public int compare(final Protos.Transaction tx1, final Protos.Transaction tx2)
+		{
+			final int height1 = height(tx1);
+			final int height2 = height(tx2);
+
+			return height1 < height2 ? -1 : (height1 > height2 ? 1 : 0);
+		}
+	};
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tedchain.tedcoinj.core.Address;
+import com.tedchain.tedcoinj.core.NetworkParameters;
+import com.tedchain.tedcoinj.core.Sha256Hash;
+import com.tedchain.tedcoinj.core.Transaction;
+import com.tedchain.tedcoinj.core.TransactionConfidence.ConfidenceType;
+import com.tedchain.tedcoinj.core.TransactionInput;
+import com.tedchain.tedcoinj.core.TransactionOutput;
+import com.tedchain.tedcoinj.core.Wallet;
+
+import com.tedchain.tedcoin_android_wallet.util.LongHashIndex;
+import com.tedchain.tedcoin_android_wallet.util.WalletUtils;
+
+/**
+ * Cold storage for old transactions that are fully spent. They are moved out of the wallet so they no longer cost heap,
+ * load time and save time. For history display, a small summary per transaction stays in memory; the transaction
+ * itself is read from the archive file on demand.
+ *
+ * The archive is an append-only file of records, each a summary followed by the raw transaction. A torn record at the end
+ * is ignored and cut off by the next append. A transaction archived twice (crash between archiving and rewriting the
+ * wallet) is listed once.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionArchive
+{
+	private final File file;
+	private final NetworkParameters params;
+
+	private List<Summary> summaries = null;
+	private final Map<Sha256Hash, Summary> summariesByHash = new HashMap<Sha256Hash, Summary>();
+	/** built on first lookup after the summaries changed */
+	private LongHashIndex<Summary> summariesByLongHash = null;
+	/** length of the good records, excluding a torn tail */
+	private long scannedLength = -1;
+	/** length of the file as it was scanned, including a torn tail */
+	private long scannedFileLength = -1;
+
+	private static final int FLAG_COINBASE = 1 << 0;
+	private static final int FLAG_INTERNAL = 1 << 1;
+
+	private static final Logger log = LoggerFactory.getLogger(TransactionArchive.class);
+
+	public static final class Summary
+	{
+		public final Sha256Hash hash;
+		public final Date time;
+		public final BigInteger value;
+		public final boolean coinBase;
+		public final boolean internal;
+		@CheckForNull
+		public final String address;
+		private final long offset;
+		private final int length;
+
+		private Summary(final Sha256Hash hash, final Date time, final BigInteger value, final boolean coinBase, final boolean internal,
+				final String address, final long offset, final int length)
+		{
+			this.hash = hash;
+			this.time = time;
+			this.value = value;
+			this.coinBase = coinBase;
+			this.internal = internal;
+			this.address = address;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public boolean isSent()
+		{
+			return value.signum() < 0;
+		}
+	}
+
+	public TransactionArchive(@Nonnull final File file, @Nonnull final NetworkParameters params)
+	{
+		this.file = file;
+		this.params = params;
+	}
+
+	/**
+	 * Selects the transactions that can be archived: confirmed at least the given number of blocks deep, with all own
+	 * outputs spent, and only connected to transactions that can be archived as well. The latter keeps the remaining
+	 * wallet consistent, as no transaction left in the wallet spends or is spent by an archived one.
+	 */
+	public static Set<Transaction> selectArchivable(@Nonnull final Wallet wallet, final int minDepth)
+	{
+		final Set<Transaction> candidates = new HashSet<Transaction>();
+
+		for (final Transaction tx : wallet.getTransactions(false))
+			if (tx.getConfidence().getConfidenceType() == ConfidenceType.BUILDING && tx.getConfidence().getDepthInBlocks() >= minDepth
+					&& isFullySpent(tx, wallet))
+				candidates.add(tx);
+
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+
+			for (final Transaction tx : new ArrayList<Transaction>(candidates))
+			{
+				if (!isClosed(tx, wallet, candidates))
+				{
+					candidates.remove(tx);
+					changed = true;
+				}
+			}
+		}
+
+		return candidates;
+	}
+
+	private static boolean isFullySpent(final Transaction tx, final Wallet wallet)
+	{
+		for (final TransactionOutput output : tx.getOutputs())
+			if (output.isMine(wallet) && output.isAvailableForSpending())
+				return false;
+
+		return true;
+	}
+
+	private static boolean isClosed(final Transaction tx, final Wallet wallet, final Set<Transaction> candidates)
+	{
+		for (final TransactionOutput output : tx.getOutputs())
+		{
+			final TransactionInput spentBy = output.getSpentBy();
+			if (spentBy != null && !candidates.contains(spentBy.getParentTransaction()))
+				return false;
+		}
+
+		for (final TransactionInput input : tx.getInputs())
+		{
+			final Transaction parent = wallet.getTransaction(input.getOutpoint().getHash());
+			if (parent != null && !candidates.contains(parent))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Appends the given transactions, while they are still in the wallet so their values can be computed.
+	 */
+	public synchronized void append(@Nonnull final Collection<Transaction> transactions, @Nonnull final Wallet wallet) throws IOException
+	{
+		ensureScanned();
+
+		final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		final DataOutputStream os = new DataOutputStream(records);
+		final List<Summary> newSummaries = new LinkedList<Summary>();
+
+		for (final Transaction tx : transactions)
+		{
+			if (summariesByHash.containsKey(tx.getHash()))
+				continue;
+
+			final BigInteger value = tx.getValue(wallet);
+			final boolean coinBase = tx.isCoinBase();
+			final boolean internal = WalletUtils.isInternal(tx);
+			final Address address = value.signum() < 0 ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
+			final byte[] addressBytes = address != null ? address.toString().getBytes("US-ASCII") : new byte[0];
+			final Date time = tx.getUpdateTime();
+			final byte[] raw = tx.unsafetedcoinSerialize();
+
+			os.write(tx.getHash().getBytes());
+			os.writeLong(time != null ? time.getTime() : 0);
+			os.writeLong(value.longValue());
+			os.writeByte((coinBase ? FLAG_COINBASE : 0) | (internal ? FLAG_INTERNAL : 0));
+			os.writeShort(addressBytes.length);
+			os.write(addressBytes);
+			os.writeInt(raw.length);
+			final long offset = scannedLength + records.size();
+			os.write(raw);
+
+			newSummaries.add(new Summary(tx.getHash(), time, value, coinBase, internal, address != null ? address.toString() : null, offset,
+					raw.length));
+		}
+
+		os.flush();
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			// cut off torn tail
+			raf.setLength(scannedLength);
+			raf.seek(scannedLength);
+			raf.write(records.toByteArray());
+			raf.getFD().sync();
+
+			scannedLength = raf.getFilePointer();
+			scannedFileLength = scannedLength;
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		summaries.addAll(newSummaries);
+		for (final Summary summary : newSummaries)
+			summariesByHash.put(summary.hash, summary);
+		summariesByLongHash = null;
+
+		log.info("archived " + newSummaries.size() + " transactions, archive has " + summaries.size());
+	}
+
+	/**
+	 * @return summaries of all archived transactions, in the order they were archived
+	 */
+	public synchronized List<Summary> getSummaries()
+	{
+		ensureScanned();
+
+		return Collections.unmodifiableList(new ArrayList<Summary>(summaries));
+	}
+
+	@CheckForNull
+	public synchronized Summary getSummary(@Nonnull final Sha256Hash hash)
+	{
+		ensureScanned();
+
+		return summariesByHash.get(hash);
+	}
+
+	/**
+	 * Same as {@link #getSummary(Sha256Hash)}, but by {@link WalletUtils#longHash(Sha256Hash)} and without allocating.
+	 */
+	@CheckForNull
+	public synchronized Summary getSummary(final long longHash)
+	{
+		ensureScanned();
+
+		if (summariesByLongHash == null)
+			summariesByLongHash = new LongHashIndex<Summary>(summariesByHash);
+
+		return summariesByLongHash.get(longHash);
+	}
+
+	/**
+	 * Reads an archived transaction from the archive file.
+	 */
+	public synchronized Transaction load(@Nonnull final Summary summary) throws IOException
+	{
+		final byte[] raw = new byte[summary.length];
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			raf.seek(summary.offset);
+			raf.readFully(raw);
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		final Transaction tx = new Transaction(params, raw);
+		if (summary.time != null)
+			tx.setUpdateTime(summary.time);
+		return tx;
+	}
+
+	private static void skipFully(final DataInputStream is, final int length) throws IOException
+	{
+		int remaining = length;
+		while (remaining > 0)
+		{
+			final int skipped = is.skipBytes(remaining);
+			if (skipped <= 0)
+				throw new EOFException();
+			remaining -= skipped;
+		}
+	}
+
+	private void ensureScanned()
+	{
+		// the archive may have been appended to by the other process
+		// compared with the length including a torn tail, so it is not rescanned over and over
+		final long fileLength = file.length();
+		if (summaries != null && fileLength == scannedFileLength)
+			return;
+
+		summaries = new ArrayList<Summary>();
+		summariesByHash.clear();
+		summariesByLongHash = null;
+		scannedLength = 0;
+		scannedFileLength = fileLength;
+
+		if (!file.exists())
+			return;
+
+		DataInputStream is = null;
+
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			long position = 0;
+			while (true)
+			{
+				final byte[] hash = new byte[32];
+				try
+				{
+					is.readFully(hash);
+				}
+				catch (final EOFException x)
+				{
+					break; // clean end
+				}
+
+				final long time = is.readLong();
+				final long value = is.readLong();
+				final int flags = is.readByte();
+				final byte[] addressBytes = new byte[is.readShort()];
+				is.readFully(addressBytes);
+				final int length = is.readInt();
+				final long offset = position + 32 + 8 + 8 + 1 + 2 + addressBytes.length + 4;
+				skipFully(is, length);
+
+				position = offset + length;
+				scannedLength = position;
+
+				final Sha256Hash txHash = new Sha256Hash(hash);
+				if (!summariesByHash.containsKey(txHash))
+				{
+					final Summary summary = new Summary(txHash, time != 0 ? new Date(time) : null, BigInteger.valueOf(value),
+							(flags & FLAG_COINBASE) != 0, (flags & FLAG_INTERNAL) != 0, addressBytes.length > 0 ? new String(addressBytes,
+									"US-ASCII") : null, offset, length);
+					summaries.add(summary);
+					summariesByHash.put(txHash, summary);
+				}
+			}
+		}
+		catch (final EOFException x)
+		{
+			log.warn("archive is torn after " + scannedLength + " bytes, ignoring the rest");
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem reading archive", x);
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+
+import com.tedchain.tedcoinj.core.Sha256Hash;
+import com.tedchain.tedcoinj.core.TransactionConfidence.ConfidenceType;
+
+import com.tedchain.tedcoin_android_wallet.TransactionsProvider;
+import com.tedchain.tedcoin_android_wallet.data.WalletDelta;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+import com.tedchain.tedcoin_android_wallet.ui.TransactionsListFragment.Direction;
+import com.tedchain.tedcoin_android_wallet.util.WalletChangeDispatcher;
+
+/**
+ * Keeps {@link TransactionsProvider} in line with the wallet and the transaction archive. On a reset, the table is read
+ * and compared with the wallet and the archive. After that, only the transactions in each delta are compared. Either
+ * way, only rows that actually change are written, and stale rows are deleted in one go. Rather than the depth, which
+ * changes for all building transactions with each block, the height a transaction appeared at is stored, so blocks cause
+ * no writes.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionHistorySync implements WalletChangeDispatcher.Subscriber
+{
+	private final ContentResolver contentResolver;
+	private final Uri contentUri;
+	private final TransactionArchive archive;
+	private final Handler handler;
+
+	private WalletSnapshot lastSynced = null; // only touched on handler thread
+
+	private static final String[] COLUMNS = { TransactionsProvider.KEY_HASH, TransactionsProvider.KEY_VALUE,
+			TransactionsProvider.KEY_DIRECTION, TransactionsProvider.KEY_TIME, TransactionsProvider.KEY_ADDRESS,
+			TransactionsProvider.KEY_CONFIDENCE, TransactionsProvider.KEY_APPEARED_AT_HEIGHT, TransactionsProvider.KEY_PURPOSE,
+			TransactionsProvider.KEY_COINBASE, TransactionsProvider.KEY_PENDING, TransactionsProvider.KEY_ARCHIVED };
+
+	private static final Logger log = LoggerFactory.getLogger(TransactionHistorySync.class);
+
+	public TransactionHistorySync(@Nonnull final Context context, @Nonnull final TransactionArchive archive, @Nonnull final Handler handler)
+	{
+		this.contentResolver = context.getContentResolver();
+		this.contentUri = TransactionsProvider.contentUri(context.getPackageName());
+		this.archive = archive;
+		this.handler = handler;
+	}
+
+	@Override
+	public void onWalletChanged(final WalletSnapshot snapshot, final WalletDelta delta)
+	{
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final long start = System.currentTimeMillis();
+
+				final int numWritten;
+				if (delta.reset || lastSynced == null)
+					numWritten = syncAll(snapshot);
+				else
+					numWritten = syncChanged(snapshot, delta);
+				lastSynced = snapshot;
+
+				if (numWritten > 0)
+					log.debug("synced {} transaction rows, took {}ms", numWritten, System.currentTimeMillis() - start);
+			}
+		});
+	}
+
+	private int syncAll(final WalletSnapshot snapshot)
+	{
+		// hash -> stored row
+		final Map<String, ContentValues> existing = new HashMap<String, ContentValues>();
+		final Cursor cursor = contentResolver.query(contentUri, COLUMNS, null, null, null);
+		if (cursor != null)
+		{
+			while (cursor.moveToNext())
+				existing.put(cursor.getString(0), row(cursor));
+
+			cursor.close();
+		}
+
+		final List<ContentValues> rows = new ArrayList<ContentValues>();
+
+		for (final WalletSnapshot.TransactionSummary tx : snapshot.transactions)
+		{
+			final ContentValues row = values(tx);
+			if (!row.equals(existing.remove(tx.hash.toString())))
+				rows.add(row);
+		}
+
+		for (final TransactionArchive.Summary tx : archive.getSummaries())
+		{
+			// archived twice, but still in the wallet
+			if (snapshot.getTransaction(tx.hash) != null)
+				continue;
+
+			final ContentValues row = values(tx);
+			if (!row.equals(existing.remove(tx.hash.toString())))
+				rows.add(row);
+		}
+
+		if (!rows.isEmpty())
+			contentResolver.bulkInsert(contentUri, rows.toArray(new ContentValues[rows.size()]));
+
+		// neither in the wallet nor archived anymore, e.g. after restoring a backup
+		delete(existing.keySet());
+
+		return rows.size() + existing.size();
+	}
+
+	private int syncChanged(final WalletSnapshot snapshot, final WalletDelta delta)
+	{
+		final List<ContentValues> rows = new ArrayList<ContentValues>();
+		final List<String> deleted = new ArrayList<String>();
+
+		for (final Sha256Hash hash : delta.getChangedTransactions())
+		{
+			// depth is not stored
+			if (delta.depthChanged.contains(hash))
+				continue;
+
+			final WalletSnapshot.TransactionSummary tx = snapshot.getTransaction(hash);
+			if (tx != null)
+			{
+				final ContentValues row = values(tx);
+				final WalletSnapshot.TransactionSummary previous = lastSynced.getTransaction(hash);
+				if (previous == null || !row.equals(values(previous)))
+					rows.add(row);
+			}
+			else
+			{
+				deleted.add(hash.toString());
+			}
+		}
+
+		if (!rows.isEmpty())
+			contentResolver.bulkInsert(contentUri, rows.toArray(new ContentValues[rows.size()]));
+
+		delete(deleted);
+
+		return rows.size() + deleted.size();
+	}
+
+	/**
+	 * Deletes all given rows in one statement, so observers are notified once.
+	 */
+	private void delete(final Collection<String> hashes)
+	{
+		if (hashes.isEmpty())
+			return;
+
+		// hashes are hex, so they can be inlined; this way there is no limit on the number of arguments
+		final StringBuilder selection = new StringBuilder(TransactionsProvider.KEY_HASH).append(" IN (");
+		boolean first = true;
+		for (final String hash : hashes)
+		{
+			if (!first)
+				selection.append(',');
+			selection.append('\'').append(hash).append('\'');
+			first = false;
+		}
+		selection.append(')');
+
+		contentResolver.delete(contentUri, selection.toString(), null);
+	}
+
+	/**
+	 * @return stored row, with the same value types as {@link #values(WalletSnapshot.TransactionSummary)} so they can be
+	 *         compared
+	 */
+	private static ContentValues row(final Cursor cursor)
+	{
+		final ContentValues values = new ContentValues();
+		values.put(TransactionsProvider.KEY_HASH, cursor.getString(0));
+		values.put(TransactionsProvider.KEY_VALUE, cursor.getLong(1));
+		values.put(TransactionsProvider.KEY_DIRECTION, cursor.isNull(2) ? null : cursor.getString(2));
+		values.put(TransactionsProvider.KEY_TIME, cursor.getLong(3));
+		values.put(TransactionsProvider.KEY_ADDRESS, cursor.isNull(4) ? null : cursor.getString(4));
+		values.put(TransactionsProvider.KEY_CONFIDENCE, cursor.getString(5));
+		values.put(TransactionsProvider.KEY_APPEARED_AT_HEIGHT, cursor.getInt(6));
+		values.put(TransactionsProvider.KEY_PURPOSE, cursor.isNull(7) ? null : cursor.getString(7));
+		values.put(TransactionsProvider.KEY_COINBASE, cursor.getInt(8) != 0);
+		values.put(TransactionsProvider.KEY_PENDING, cursor.getInt(9) != 0);
+		values.put(TransactionsProvider.KEY_ARCHIVED, cursor.getInt(10) != 0);
+		return values;
+	}
+
+	private static ContentValues values(final WalletSnapshot.TransactionSummary tx)
+	{
+		final ContentValues values = new ContentValues();
+		values.put(TransactionsProvider.KEY_HASH, tx.hash.toString());
+		values.put(TransactionsProvider.KEY_VALUE, tx.value.longValue());
+		values.put(TransactionsProvider.KEY_DIRECTION, direction(tx.isSent(), tx.internal));
+		values.put(TransactionsProvider.KEY_TIME, tx.time != null ? tx.time.getTime() : 0);
+		values.put(TransactionsProvider.KEY_ADDRESS, tx.address != null ? tx.address.toString() : null);
+		values.put(TransactionsProvider.KEY_CONFIDENCE, tx.confidenceType.name());
+		values.put(TransactionsProvider.KEY_APPEARED_AT_HEIGHT, tx.appearedAtChainHeight);
+		values.put(TransactionsProvider.KEY_PURPOSE, tx.purpose != null ? tx.purpose.name() : null);
+		values.put(TransactionsProvider.KEY_COINBASE, tx.coinBase);
+		values.put(TransactionsProvider.KEY_PENDING, tx.confidenceType == ConfidenceType.PENDING);
+		values.put(TransactionsProvider.KEY_ARCHIVED, false);
+		return values;
+	}
+
+	private static ContentValues values(final TransactionArchive.Summary tx)
+	{
+		final ContentValues values = new ContentValues();
+		values.put(TransactionsProvider.KEY_HASH, tx.hash.toString());
+		values.put(TransactionsProvider.KEY_VALUE, tx.value.longValue());
+		values.put(TransactionsProvider.KEY_DIRECTION, direction(tx.isSent(), tx.internal));
+		values.put(TransactionsProvider.KEY_TIME, tx.time != null ? tx.time.getTime() : 0);
+		values.put(TransactionsProvider.KEY_ADDRESS, tx.address);
+		values.put(TransactionsProvider.KEY_CONFIDENCE, ConfidenceType.BUILDING.name());
+		values.put(TransactionsProvider.KEY_APPEARED_AT_HEIGHT, -1);
+		values.putNull(TransactionsProvider.KEY_PURPOSE);
+		values.put(TransactionsProvider.KEY_COINBASE, tx.coinBase);
+		values.put(TransactionsProvider.KEY_PENDING, false);
+		values.put(TransactionsProvider.KEY_ARCHIVED, true);
+		return values;
+	}
+
+	private static String direction(final boolean sent, final boolean internal)
+	{
+		if (internal)
+			return null;
+
+		return (sent ? Direction.SENT : Direction.RECEIVED).name();
+	}
+}
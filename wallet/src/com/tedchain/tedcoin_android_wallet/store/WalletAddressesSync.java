@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+
+import com.tedchain.tedcoinj.core.Address;
+
+import com.tedchain.tedcoin_android_wallet.AddressBookProvider;
+import com.tedchain.tedcoin_android_wallet.data.WalletDelta;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+import com.tedchain.tedcoin_android_wallet.util.WalletChangeDispatcher;
+
+/**
+ * Keeps the wallet addresses of {@link AddressBookProvider} in line with the keys of the wallet, so the address book can
+ * leave out own addresses by an indexed lookup. On a reset, the stored addresses are reconciled with all keys. After that,
+ * only added keys are inserted.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletAddressesSync implements WalletChangeDispatcher.Subscriber
+{
+	private final ContentResolver contentResolver;
+	private final Uri walletAddressesUri;
+	private final Handler handler;
+
+	private boolean synced = false; // only touched on handler thread
+
+	private static final Logger log = LoggerFactory.getLogger(WalletAddressesSync.class);
+
+	public WalletAddressesSync(@Nonnull final Context context, @Nonnull final Handler handler)
+	{
+		this.contentResolver = context.getContentResolver();
+		this.walletAddressesUri = AddressBookProvider.walletAddressesUri(context.getPackageName());
+		this.handler = handler;
+	}
+
+	@Override
+	public void onWalletChanged(final WalletSnapshot snapshot, final WalletDelta delta)
+	{
+		if (!delta.reset && delta.keysAdded.isEmpty())
+			return;
+
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (delta.reset || !synced)
+					syncAll(snapshot);
+				else
+					insert(delta.keysAdded);
+				synced = true;
+			}
+		});
+	}
+
+	private void syncAll(final WalletSnapshot snapshot)
+	{
+		final Set<String> stored = new HashSet<String>();
+		final Cursor cursor = contentResolver.query(walletAddressesUri, new String[] { AddressBookProvider.KEY_ADDRESS }, null, null, null);
+		if (cursor != null)
+		{
+			while (cursor.moveToNext())
+				stored.add(cursor.getString(0));
+
+			cursor.close();
+		}
+
+		final List<Address> missing = new ArrayList<Address>();
+		for (final WalletSnapshot.KeySummary key : snapshot.keys)
+			if (!stored.remove(key.address.toString()))
+				missing.add(key.address);
+
+		insert(missing);
+
+		// keys no longer in the wallet, e.g. after restoring a backup
+		for (final String address : stored)
+			contentResolver.delete(walletAddressesUri.buildUpon().appendPath(address).build(), null, null);
+
+		if (!missing.isEmpty() || !stored.isEmpty())
+			log.info("synced wallet addresses: {} added, {} removed", missing.size(), stored.size());
+	}
+
+	private void insert(final Collection<Address> addresses)
+	{
+		if (addresses.isEmpty())
+			return;
+
+		final ContentValues[] rows = new ContentValues[addresses.size()];
+		int i = 0;
+		for (final Address address : addresses)
+		{
+			final ContentValues values = new ContentValues();
+			values.put(AddressBookProvider.KEY_ADDRESS, address.toString());
+			rows[i++] = values;
+		}
+
+		contentResolver.bulkInsert(walletAddressesUri, rows);
+	}
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.tedcoinj.wallet.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import com.tedchain.tedcoin_android_wallet.util.Io;
+
+/**
+ * Wallet storage as a base snapshot plus a journal of appended delta records. A delta carries only the transactions
+ * that changed and the keys that were added since the last write, plus the last seen block. The base is rewritten by
+ * compaction once the journal grows past a threshold.
+ *
+ * The base is a {@link SegmentedWalletFile}, so a corrupt transaction segment only loses part of the history.
+ *
+ * Transactions are compared without their depth and work done, which change with every block but follow from the height
+ * they appeared at and the last seen block. Depths are derived again on read.
+ *
+ * The journal starts with a header naming the id of the base it applies to, so a journal left over from an interrupted
+ * compaction is recognized and ignored. A torn record at the end of the journal (crash during append) ends replay and is
+ * cut off by the next append.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletJournal
+{
+	private final File baseFile;
+	private final File journalFile;
+	private final long compactThreshold;
+
+	private ByteString baseId = null;
+	private long journalLength = 0;
+	private int rescanHeight = -1;
+	// hash -> fingerprint of what was written, rather than a second copy of every transaction
+	private final Map<ByteString, Long> writtenTransactions = new HashMap<ByteString, Long>();
+	private final MessageDigest digest;
+	private final Set<ByteString> writtenKeys = new HashSet<ByteString>();
+
+	private static final String EXTENSION_ID_BASE = "com.tedchain.tedcoin_android_wallet.journal_base";
+
+	private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+	public WalletJournal(@Nonnull final File baseFile, @Nonnull final File journalFile, final long compactThreshold)
+	{
+		this.baseFile = baseFile;
+		this.journalFile = journalFile;
+		this.compactThreshold = compactThreshold;
+
+		try
+		{
+			this.digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (final NoSuchAlgorithmException x)
+		{
+			throw new RuntimeException(x); // cannot happen
+		}
+	}
+
+	public boolean exists()
+	{
+		return baseFile.exists();
+	}
+
+	/**
+	 * Reads the base snapshot and replays the journal on top of it.
+	 */
+	public synchronized Protos.Wallet read() throws IOException
+	{
+		final SegmentedWalletFile.Result result = SegmentedWalletFile.read(readFully(baseFile));
+		final Protos.Wallet base = result.wallet;
+		rescanHeight = result.rescanHeight;
+
+		baseId = null;
+		for (final Protos.Extension extension : base.getExtensionList())
+			if (EXTENSION_ID_BASE.equals(extension.getId()))
+				baseId = extension.getData();
+
+		final Protos.Wallet.Builder builder = base.toBuilder();
+		journalLength = 0;
+
+		if (baseId != null && journalFile.exists())
+		{
+			final byte[] journal = readFully(journalFile);
+			final ByteArrayInputStream journalStream = new ByteArrayInputStream(journal);
+			int numRecords = 0;
+
+			try
+			{
+				final Protos.Wallet header = Protos.Wallet.parseDelimitedFrom(journalStream);
+
+				if (header != null && header.getExtensionCount() == 1 && baseId.equals(header.getExtension(0).getData()))
+				{
+					final Map<ByteString, Integer> transactionIndex = new HashMap<ByteString, Integer>();
+					for (int i = 0; i < builder.getTransactionCount(); i++)
+						transactionIndex.put(builder.getTransaction(i).getHash(), i);
+					final Set<ByteString> keys = new HashSet<ByteString>();
+					for (final Protos.Key key : builder.getKeyList())
+						keys.add(key.toByteString());
+
+					journalLength = journal.length - journalStream.available();
+
+					Protos.Wallet delta;
+					while ((delta = Protos.Wallet.parseDelimitedFrom(journalStream)) != null)
+					{
+						apply(builder, delta, transactionIndex, keys);
+
+						journalLength = journal.length - journalStream.available();
+						numRecords++;
+					}
+				}
+				else
+				{
+					log.info("ignoring journal of a previous base");
+				}
+			}
+			catch (final InvalidProtocolBufferException x)
+			{
+				log.warn("journal is torn after " + journalLength + " bytes, replay ends there", x);
+			}
+
+			log.info("replayed " + numRecords + " journal records");
+		}
+
+		// journal records may bring back some of the lost transactions, but not consistently
+		if (rescanHeight != -1)
+			SegmentedWalletFile.dropFrom(builder, rescanHeight);
+
+		deriveDepths(builder);
+
+		final Protos.Wallet wallet = builder.build();
+		rememberWritten(wallet);
+
+		return wallet;
+	}
+
+	private static void apply(final Protos.Wallet.Builder builder, final Protos.Wallet delta, final Map<ByteString, Integer> transactionIndex,
+			final Set<ByteString> keys)
+	{
+		for (final Protos.Transaction tx : delta.getTransactionList())
+		{
+			final Integer index = transactionIndex.get(tx.getHash());
+			if (index != null)
+			{
+				builder.setTransaction(index, tx);
+			}
+			else
+			{
+				transactionIndex.put(tx.getHash(), builder.getTransactionCount());
+				builder.addTransaction(tx);
+			}
+		}
+
+		for (final Protos.Key key : delta.getKeyList())
+			if (keys.add(key.toByteString()))
+				builder.addKey(key);
+
+		if (delta.hasLastSeenBlockHash())
+			builder.setLastSeenBlockHash(delta.getLastSeenBlockHash());
+		if (delta.hasLastSeenBlockHeight())
+			builder.setLastSeenBlockHeight(delta.getLastSeenBlockHeight());
+		if (delta.hasLastSeenBlockTimeSecs())
+			builder.setLastSeenBlockTimeSecs(delta.getLastSeenBlockTimeSecs());
+		if (delta.hasKeyRotationTime())
+			builder.setKeyRotationTime(delta.getKeyRotationTime());
+	}
+
+	/**
+	 * Sets the depth of confirmed transactions from the height they appeared at, as journal records don't carry depth
+	 * changes alone. Work done is left as it was written.
+	 */
+	private static void deriveDepths(final Protos.Wallet.Builder builder)
+	{
+		if (!builder.hasLastSeenBlockHeight())
+			return;
+
+		final int chainHeight = builder.getLastSeenBlockHeight();
+
+		for (int i = 0; i < builder.getTransactionCount(); i++)
+		{
+			final Protos.Transaction tx = builder.getTransaction(i);
+			if (!tx.hasConfidence())
+				continue;
+
+			final Protos.TransactionConfidence confidence = tx.getConfidence();
+			if (confidence.getType() != Protos.TransactionConfidence.Type.BUILDING || !confidence.hasAppearedAtHeight())
+				continue;
+
+			final int depth = chainHeight - confidence.getAppearedAtHeight() + 1;
+			if (depth > 0 && (!confidence.hasDepth() || confidence.getDepth() != depth))
+				builder.setTransaction(i, tx.toBuilder().setConfidence(confidence.toBuilder().setDepth(depth)));
+		}
+	}
+
+	/**
+	 * Appends what changed since the last write. Falls back to compaction if there is no base yet, if transactions have
+	 * been removed or if the journal has grown past the threshold.
+	 *
+	 * @return number of bytes written
+	 */
+	public synchronized long write(@Nonnull final Protos.Wallet wallet) throws IOException
+	{
+		if (baseId == null || !baseFile.exists())
+			return compact(wallet);
+
+		final Protos.Wallet.Builder delta = Protos.Wallet.newBuilder();
+		delta.setNetworkIdentifier(wallet.getNetworkIdentifier());
+
+		int numTransactions = 0;
+		for (final Protos.Transaction tx : wallet.getTransactionList())
+		{
+			final Long writtenFingerprint = writtenTransactions.get(tx.getHash());
+			if (writtenFingerprint == null || writtenFingerprint != fingerprint(tx))
+				delta.addTransaction(tx);
+			if (writtenFingerprint != null)
+				numTransactions++;
+		}
+
+		if (numTransactions < writtenTransactions.size())
+		{
+			log.info("transactions have been removed, compacting");
+			return compact(wallet);
+		}
+
+		for (final Protos.Key key : wallet.getKeyList())
+			if (!writtenKeys.contains(key.toByteString()))
+				delta.addKey(key);
+
+		if (wallet.hasLastSeenBlockHash())
+			delta.setLastSeenBlockHash(wallet.getLastSeenBlockHash());
+		if (wallet.hasLastSeenBlockHeight())
+			delta.setLastSeenBlockHeight(wallet.getLastSeenBlockHeight());
+		if (wallet.hasLastSeenBlockTimeSecs())
+			delta.setLastSeenBlockTimeSecs(wallet.getLastSeenBlockTimeSecs());
+		if (wallet.hasKeyRotationTime())
+			delta.setKeyRotationTime(wallet.getKeyRotationTime());
+
+		final RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+		final long bytesWritten;
+		try
+		{
+			// cut off torn or foreign tail
+			file.setLength(journalLength);
+			file.seek(journalLength);
+
+			final FileOutputStream os = new FileOutputStream(file.getFD());
+			if (journalLength == 0)
+				header(wallet.getNetworkIdentifier()).writeDelimitedTo(os);
+			delta.build().writeDelimitedTo(os);
+			os.flush();
+			file.getFD().sync();
+
+			final long length = file.getFilePointer();
+			bytesWritten = length - journalLength;
+			journalLength = length;
+		}
+		finally
+		{
+			file.close();
+		}
+
+		rememberWritten(wallet);
+
+		if (journalLength > compactThreshold)
+			return bytesWritten + compact(wallet);
+		else
+			return bytesWritten;
+	}
+
+	/**
+	 * Rewrites the base snapshot and starts a new journal.
+	 *
+	 * @return number of bytes written
+	 */
+	public synchronized long compact(@Nonnull final Protos.Wallet wallet) throws IOException
+	{
+		final byte[] id = new byte[8];
+		new SecureRandom().nextBytes(id);
+		final ByteString newBaseId = ByteString.copyFrom(id);
+
+		final Protos.Wallet.Builder base = wallet.toBuilder().clearExtension();
+		for (final Protos.Extension extension : wallet.getExtensionList())
+			if (!EXTENSION_ID_BASE.equals(extension.getId()))
+				base.addExtension(extension);
+		base.addExtension(Protos.Extension.newBuilder().setId(EXTENSION_ID_BASE).setData(newBaseId).setMandatory(false));
+
+		final File tempFile = new File(baseFile.getParentFile(), baseFile.getName() + ".tmp");
+		final FileOutputStream os = new FileOutputStream(tempFile);
+		try
+		{
+			SegmentedWalletFile.write(base.build(), os);
+			os.flush();
+			os.getFD().sync();
+		}
+		finally
+		{
+			os.close();
+		}
+
+		if (!tempFile.renameTo(baseFile))
+			throw new IOException("cannot rename " + tempFile + " to " + baseFile);
+
+		baseId = newBaseId;
+
+		// the old journal does not match the new base anymore, so it would be ignored anyway
+		journalFile.delete();
+		journalLength = 0;
+
+		rescanHeight = -1;
+		rememberWritten(wallet);
+
+		log.info("compacted wallet to " + baseFile.length() + " bytes");
+
+		return baseFile.length();
+	}
+
+	public long getJournalLength()
+	{
+		return journalLength;
+	}
+
+	/**
+	 * @return height from which lost transactions need to be rescanned after the last read, or -1 if nothing was lost
+	 * @see SegmentedWalletFile.Result#rescanHeight
+	 */
+	public int getRescanHeight()
+	{
+		return rescanHeight;
+	}
+
+	private void rememberWritten(final Protos.Wallet wallet)
+	{
+		writtenTransactions.clear();
+		for (final Protos.Transaction tx : wallet.getTransactionList())
+			writtenTransactions.put(tx.getHash(), fingerprint(tx));
+
+		writtenKeys.clear();
+		for (final Protos.Key key : wallet.getKeyList())
+			writtenKeys.add(key.toByteString());
+	}
+
+	private long fingerprint(final Protos.Transaction tx)
+	{
+		final Protos.Transaction stripped;
+		if (tx.hasConfidence() && (tx.getConfidence().hasDepth() || tx.getConfidence().hasWorkDone()))
+			stripped = tx.toBuilder().setConfidence(tx.getConfidence().toBuilder().clearDepth().clearWorkDone()).build();
+		else
+			stripped = tx;
+
+		final byte[] hash = digest.digest(stripped.toByteArray());
+
+		long fingerprint = 0;
+		for (int i = 0; i < 8; i++)
+			fingerprint = (fingerprint << 8) | (hash[i] & 0xff);
+		return fingerprint;
+	}
+
+	private Protos.Wallet header(final String networkIdentifier)
+	{
+		return Protos.Wallet.newBuilder().setNetworkIdentifier(networkIdentifier)
+				.addExtension(Protos.Extension.newBuilder().setId(EXTENSION_ID_BASE).setData(baseId).setMandatory(false)).build();
+	}
+
+	private static byte[] readFully(final File file) throws IOException
+	{
+		final InputStream is = new FileInputStream(file);
+		try
+		{
+			final ByteArrayOutputStream os = new ByteArrayOutputStream((int) file.length());
+			Io.copy(is, os);
+			return os.toByteArray();
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+}
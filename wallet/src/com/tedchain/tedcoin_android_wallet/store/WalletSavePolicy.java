@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.store;
+
+/**
+ * Decides how soon the wallet needs saving, based on what is dirty and on the sync phase. During replay, changes are
+ * historic and can be redone by replaying again, so they are saved rarely. Received payments are saved right away
+ * outside of replay. Own sends and new keys cannot be redone by replaying, so they are saved right away in any phase.
+ * Also keeps save metrics.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletSavePolicy
+{
+	public static final int DIRTY_LAST_SEEN_BLOCK = 1 << 0;
+	public static final int DIRTY_TRANSACTIONS = 1 << 1;
+	public static final int DIRTY_PAYMENT = 1 << 2;
+	public static final int DIRTY_KEYS = 1 << 3;
+	public static final int DIRTY_OWN_SEND = 1 << 4;
+
+	private final long normalDelayMs;
+	private final long replayDelayMs;
+
+	private int dirty = 0;
+	private boolean replaying = false;
+
+	private int numSaves = 0;
+	private long bytesWritten = 0;
+	private long totalLatencyMs = 0;
+	private long maxLatencyMs = 0;
+
+	public WalletSavePolicy(final long normalDelayMs, final long replayDelayMs)
+	{
+		this.normalDelayMs = normalDelayMs;
+		this.replayDelayMs = replayDelayMs;
+	}
+
+	public synchronized void setReplaying(final boolean replaying)
+	{
+		this.replaying = replaying;
+	}
+
+	/**
+	 * @return delay in milliseconds after which the wallet should be saved
+	 */
+	public synchronized long markDirty(final int what)
+	{
+		dirty |= what;
+
+		if ((dirty & (DIRTY_KEYS | DIRTY_OWN_SEND)) != 0)
+			return 0;
+		else if (replaying)
+			return replayDelayMs;
+		else if ((dirty & DIRTY_PAYMENT) != 0)
+			return 0;
+		else
+			return normalDelayMs;
+	}
+
+	public synchronized boolean isDirty()
+	{
+		return dirty != 0;
+	}
+
+	/**
+	 * Clears and returns what is dirty, to be called right before saving.
+	 */
+	public synchronized int takeDirty()
+	{
+		final int taken = dirty;
+		dirty = 0;
+		return taken;
+	}
+
+	public synchronized void recordSave(final long bytes, final long latencyMs)
+	{
+		numSaves++;
+		bytesWritten += bytes;
+		totalLatencyMs += latencyMs;
+		maxLatencyMs = Math.max(maxLatencyMs, latencyMs);
+	}
+
+	public synchronized int getNumSaves()
+	{
+		return numSaves;
+	}
+
+	public synchronized long getBytesWritten()
+	{
+		return bytesWritten;
+	}
+
+	public synchronized long getTotalLatencyMs()
+	{
+		return totalLatencyMs;
+	}
+
+	/**
+	 * Returns the maximum save latency since the last call and starts over.
+	 */
+	public synchronized long takeMaxLatencyMs()
+	{
+		final long max = maxLatencyMs;
+		maxLatencyMs = 0;
+		return max;
+	}
+}
@@ -24,8 +24,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.IBinder;
-import com.tedchain.tedcoin_android_wallet.service.BlockchainService;
-import com.tedchain.tedcoin_android_wallet.service.BlockchainServiceImpl;
+
+import com.tedchain.tedcoin_android_wallet.service.IBlockchainService;
 
 /**
  * @author Andreas Schildbach
@@ -33,14 +33,14 @@ import com.tedchain.tedcoin_android_wallet.service.BlockchainServiceImpl;
 public abstract class AbstractBindServiceActivity extends AbstractWalletActivity
 {
 	@CheckForNull
-	private BlockchainService blockchainService;
+	private IBlockchainService blockchainService;
 
 	private final ServiceConnection serviceConnection = new ServiceConnection()
 	{
 		@Override
 		public void onServiceConnected(final ComponentName name, final IBinder binder)
 		{
-			blockchainService = ((BlockchainServiceImpl.LocalBinder) binder).getService();
+			blockchainService = IBlockchainService.Stub.asInterface(binder);
 		}
 
 		@Override
@@ -55,7 +55,7 @@ public abstract class AbstractBindServiceActivity extends AbstractWalletActivity
 	{
 		super.onResume();
 
-		bindService(new Intent(this, BlockchainServiceImpl.class), serviceConnection, Context.BIND_AUTO_CREATE);
+		bindService(new Intent(this, getWalletApplication().blockchainServiceClass()), serviceConnection, Context.BIND_AUTO_CREATE);
 	}
 
 	@Override
@@ -66,7 +66,7 @@ public abstract class AbstractBindServiceActivity extends AbstractWalletActivity
 		super.onPause();
 	}
 
-	protected BlockchainService getBlockchainService()
+	protected IBlockchainService getBlockchainService()
 	{
 		return blockchainService;
 	}
@@ -17,9 +17,6 @@
 
 package com.tedchain.tedcoin_android_wallet.ui;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
@@ -33,10 +30,7 @@ import android.view.ViewGroup;
 
 import com.actionbarsherlock.app.ActionBar;
 import com.actionbarsherlock.view.MenuItem;
-import com.tedchain.tedcoinj.core.Address;
-import com.tedchain.tedcoinj.core.ECKey;
 
-import com.tedchain.tedcoin_android_wallet.Constants;
 import com.tedchain.tedcoin_android_wallet.util.ViewPagerTabs;
 import com.tedchain.tedcoin_android_wallet.R;
 
@@ -115,8 +109,6 @@ public final class AddressBookActivity extends AbstractWalletActivity
 			fragmentManager.beginTransaction().add(R.id.wallet_addresses_fragment, walletAddressesFragment, TAG_LEFT)
 					.add(R.id.sending_addresses_fragment, sendingAddressesFragment, TAG_RIGHT).commit();
 		}
-
-		updateFragments();
 	}
 
 	@Override
@@ -132,20 +124,6 @@ public final class AddressBookActivity extends AbstractWalletActivity
 		return super.onOptionsItemSelected(item);
 	}
 
-	/* private */void updateFragments()
-	{
-		final List<ECKey> keys = getWalletApplication().getWallet().getKeys();
-		final ArrayList<Address> addresses = new ArrayList<Address>(keys.size());
-
-		for (final ECKey key : keys)
-		{
-			final Address address = key.toAddress(Constants.NETWORK_PARAMETERS);
-			addresses.add(address);
-		}
-
-		sendingAddressesFragment.setWalletAddresses(addresses);
-	}
-
 	private static class TwoFragmentAdapter extends PagerAdapter
 	{
 		private final FragmentManager fragmentManager;
@@ -19,12 +19,14 @@ package com.tedchain.tedcoin_android_wallet.ui;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
@@ -40,6 +42,7 @@ import android.content.ServiceConnection;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.RemoteException;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
 import android.support.v4.content.AsyncTaskLoader;
@@ -56,17 +59,16 @@ import com.actionbarsherlock.view.ActionMode;
 import com.actionbarsherlock.view.Menu;
 import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
-import com.tedchain.tedcoinj.core.Block;
 import com.tedchain.tedcoinj.core.Sha256Hash;
-import com.tedchain.tedcoinj.core.StoredBlock;
-import com.tedchain.tedcoinj.core.Transaction;
 import com.tedchain.tedcoinj.core.Wallet;
 
 import com.tedchain.tedcoin_android_wallet.Configuration;
 import com.tedchain.tedcoin_android_wallet.Constants;
 import com.tedchain.tedcoin_android_wallet.WalletApplication;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+import com.tedchain.tedcoin_android_wallet.service.BlockInfo;
 import com.tedchain.tedcoin_android_wallet.service.BlockchainService;
-import com.tedchain.tedcoin_android_wallet.service.BlockchainServiceImpl;
+import com.tedchain.tedcoin_android_wallet.service.IBlockchainService;
 import com.tedchain.tedcoin_android_wallet.util.WalletUtils;
 import com.tedchain.tedcoin_android_wallet.R;
 
@@ -81,10 +83,11 @@ public final class BlockListFragment extends SherlockListFragment
 	private Wallet wallet;
 	private LoaderManager loaderManager;
 
-	private BlockchainService service;
+	private IBlockchainService service;
 
 	private BlockListAdapter adapter;
-	private Set<Transaction> transactions;
+	@CheckForNull
+	private Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>> transactionsByBlock;
 
 	private static final int ID_BLOCK_LOADER = 0;
 	private static final int ID_TRANSACTION_LOADER = 1;
@@ -110,7 +113,7 @@ public final class BlockListFragment extends SherlockListFragment
 	{
 		super.onActivityCreated(savedInstanceState);
 
-		activity.bindService(new Intent(activity, BlockchainServiceImpl.class), serviceConnection, Context.BIND_AUTO_CREATE);
+		activity.bindService(new Intent(activity, application.blockchainServiceClass()), serviceConnection, Context.BIND_AUTO_CREATE);
 	}
 
 	@Override
@@ -155,7 +158,7 @@ public final class BlockListFragment extends SherlockListFragment
 	@Override
 	public void onListItemClick(final ListView l, final View v, final int position, final long id)
 	{
-		final StoredBlock storedBlock = adapter.getItem(position);
+		final BlockInfo block = adapter.getItem(position);
 
 		activity.startActionMode(new ActionMode.Callback()
 		{
@@ -171,8 +174,8 @@ public final class BlockListFragment extends SherlockListFragment
 			@Override
 			public boolean onPrepareActionMode(final ActionMode mode, final Menu menu)
 			{
-				mode.setTitle(Integer.toString(storedBlock.getHeight()));
-				mode.setSubtitle(storedBlock.getHeader().getHashAsString());
+				mode.setTitle(Integer.toString(block.height));
+				mode.setSubtitle(block.getHashAsString());
 
 				return true;
 			}
@@ -184,7 +187,7 @@ public final class BlockListFragment extends SherlockListFragment
 				{
 					case R.id.blocks_context_browse:
 						startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(Constants.EXPLORE_BASE_URL + "block/"
-								+ storedBlock.getHeader().getHashAsString())));
+								+ block.getHashAsString())));
 
 						mode.finish();
 						return true;
@@ -205,7 +208,7 @@ public final class BlockListFragment extends SherlockListFragment
 		@Override
 		public void onServiceConnected(final ComponentName name, final IBinder binder)
 		{
-			service = ((BlockchainServiceImpl.LocalBinder) binder).getService();
+			service = IBlockchainService.Stub.asInterface(binder);
 
 			loaderManager.initLoader(ID_BLOCK_LOADER, null, blockLoaderCallbacks);
 		}
@@ -232,10 +235,12 @@ public final class BlockListFragment extends SherlockListFragment
 	{
 		private static final int ROW_BASE_CHILD_COUNT = 2;
 		private static final int ROW_INSERT_INDEX = 1;
-		private final TransactionsListAdapter transactionsAdapter = new TransactionsListAdapter(activity, wallet, application.maxConnectedPeers(),
-				false);
+		private final TransactionsListAdapter transactionsAdapter = new TransactionsListAdapter(activity, wallet, false);
 
-		private final List<StoredBlock> blocks = new ArrayList<StoredBlock>(MAX_BLOCKS);
+		private final List<BlockInfo> blocks = new ArrayList<BlockInfo>(MAX_BLOCKS);
+
+		// transaction views no longer needed by one block row, to be reused by another rather than inflated again
+		private final LinkedList<View> transactionViewPool = new LinkedList<View>();
 
 		public void clear()
 		{
@@ -244,7 +249,7 @@ public final class BlockListFragment extends SherlockListFragment
 			adapter.notifyDataSetChanged();
 		}
 
-		public void replace(@Nonnull final Collection<StoredBlock> blocks)
+		public void replace(@Nonnull final Collection<BlockInfo> blocks)
 		{
 			this.blocks.clear();
 			this.blocks.addAll(blocks);
@@ -252,6 +257,17 @@ public final class BlockListFragment extends SherlockListFragment
 			notifyDataSetChanged();
 		}
 
+		/**
+		 * @return lowest height of the blocks shown, or {@link Integer#MAX_VALUE} if there are none
+		 */
+		public int getMinHeight()
+		{
+			int minHeight = Integer.MAX_VALUE;
+			for (final BlockInfo block : blocks)
+				minHeight = Math.min(minHeight, block.height);
+			return minHeight;
+		}
+
 		@Override
 		public int getCount()
 		{
@@ -259,7 +275,7 @@ public final class BlockListFragment extends SherlockListFragment
 		}
 
 		@Override
-		public StoredBlock getItem(final int position)
+		public BlockInfo getItem(final int position)
 		{
 			return blocks.get(position);
 		}
@@ -267,7 +283,7 @@ public final class BlockListFragment extends SherlockListFragment
 		@Override
 		public long getItemId(final int position)
 		{
-			return WalletUtils.longHash(blocks.get(position).getHeader().getHash());
+			return WalletUtils.longHash(blocks.get(position).hash);
 		}
 
 		@Override
@@ -285,66 +301,67 @@ public final class BlockListFragment extends SherlockListFragment
 			else
 				row = (ViewGroup) convertView;
 
-			final StoredBlock storedBlock = getItem(position);
-			final Block header = storedBlock.getHeader();
+			final BlockInfo block = getItem(position);
 
 			final TextView rowHeight = (TextView) row.findViewById(R.id.block_list_row_height);
-			final int height = storedBlock.getHeight();
+			final int height = block.height;
 			rowHeight.setText(Integer.toString(height));
 
 			final TextView rowTime = (TextView) row.findViewById(R.id.block_list_row_time);
-			final long timeMs = header.getTimeSeconds() * DateUtils.SECOND_IN_MILLIS;
+			final long timeMs = block.timeSeconds * DateUtils.SECOND_IN_MILLIS;
 			rowTime.setText(DateUtils.getRelativeDateTimeString(activity, timeMs, DateUtils.MINUTE_IN_MILLIS, DateUtils.WEEK_IN_MILLIS, 0));
 
 			final TextView rowHash = (TextView) row.findViewById(R.id.block_list_row_hash);
-			rowHash.setText(WalletUtils.formatHash(null, header.getHashAsString(), 8, 0, ' '));
+			rowHash.setText(WalletUtils.formatHash(null, block.getHashAsString(), 8, 0, ' '));
 
-			final int transactionChildCount = row.getChildCount() - ROW_BASE_CHILD_COUNT;
-			int iTransactionView = 0;
+			final List<WalletSnapshot.TransactionSummary> transactions = transactionsByBlock != null ? transactionsByBlock.get(block.hash) : null;
+			final int numTransactions = transactions != null ? transactions.size() : 0;
+
+			// move surplus transaction views to the pool before taking any from it
+			while (row.getChildCount() - ROW_BASE_CHILD_COUNT > numTransactions)
+			{
+				final View view = row.getChildAt(ROW_INSERT_INDEX + numTransactions);
+				row.removeViewAt(ROW_INSERT_INDEX + numTransactions);
+				transactionViewPool.add(view);
+			}
 
-			if (transactions != null)
+			if (numTransactions > 0)
 			{
 				final int PPCPrecision = config.getPPCPrecision();
 				final int PPCShift = config.getPPCShift();
 
 				transactionsAdapter.setPrecision(PPCPrecision, PPCShift);
 
-				for (final Transaction tx : transactions)
+				final int chainHeight = application.getWalletSnapshot().lastBlockSeenHeight;
+
+				for (int i = 0; i < numTransactions; i++)
 				{
-					if (tx.getAppearsInHashes().containsKey(header.getHash()))
+					final View view;
+					if (i < row.getChildCount() - ROW_BASE_CHILD_COUNT)
+					{
+						view = row.getChildAt(ROW_INSERT_INDEX + i);
+					}
+					else
 					{
-						final View view;
-						if (iTransactionView < transactionChildCount)
-						{
-							view = row.getChildAt(ROW_INSERT_INDEX + iTransactionView);
-						}
-						else
-						{
-							view = getLayoutInflater(null).inflate(R.layout.transaction_row_oneline, null);
-							row.addView(view, ROW_INSERT_INDEX + iTransactionView);
-						}
-
-						transactionsAdapter.bindView(view, tx);
-
-						iTransactionView++;
+						view = !transactionViewPool.isEmpty() ? transactionViewPool.removeLast() : getLayoutInflater(null).inflate(
+								R.layout.transaction_row_oneline, null);
+						row.addView(view, ROW_INSERT_INDEX + i);
 					}
+
+					transactionsAdapter.bindView(view, transactions.get(i), chainHeight);
 				}
 			}
 
-			final int leftoverTransactionViews = transactionChildCount - iTransactionView;
-			if (leftoverTransactionViews > 0)
-				row.removeViews(ROW_INSERT_INDEX + iTransactionView, leftoverTransactionViews);
-
 			return row;
 		}
 	}
 
-	private static class BlockLoader extends AsyncTaskLoader<List<StoredBlock>>
+	private static class BlockLoader extends AsyncTaskLoader<List<BlockInfo>>
 	{
 		private Context context;
-		private BlockchainService service;
+		private IBlockchainService service;
 
-		private BlockLoader(final Context context, final BlockchainService service)
+		private BlockLoader(final Context context, final IBlockchainService service)
 		{
 			super(context);
 
@@ -369,9 +386,18 @@ public final class BlockListFragment extends SherlockListFragment
 		}
 
 		@Override
-		public List<StoredBlock> loadInBackground()
+		public List<BlockInfo> loadInBackground()
 		{
-			return service.getRecentBlocks(MAX_BLOCKS);
+			try
+			{
+				return service.getRecentBlocks(MAX_BLOCKS);
+			}
+			catch (final RemoteException x)
+			{
+				log.info("cannot get recent blocks", x);
+
+				return null;
+			}
 		}
 
 		private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
@@ -391,80 +417,109 @@ public final class BlockListFragment extends SherlockListFragment
 		};
 	}
 
-	private final LoaderCallbacks<List<StoredBlock>> blockLoaderCallbacks = new LoaderCallbacks<List<StoredBlock>>()
+	private final LoaderCallbacks<List<BlockInfo>> blockLoaderCallbacks = new LoaderCallbacks<List<BlockInfo>>()
 	{
 		@Override
-		public Loader<List<StoredBlock>> onCreateLoader(final int id, final Bundle args)
+		public Loader<List<BlockInfo>> onCreateLoader(final int id, final Bundle args)
 		{
 			return new BlockLoader(activity, service);
 		}
 
 		@Override
-		public void onLoadFinished(final Loader<List<StoredBlock>> loader, final List<StoredBlock> blocks)
+		public void onLoadFinished(final Loader<List<BlockInfo>> loader, final List<BlockInfo> blocks)
 		{
-			adapter.replace(blocks);
+			if (blocks != null)
+				adapter.replace(blocks);
+			else
+				adapter.clear();
 
-			final Loader<Set<Transaction>> transactionLoader = loaderManager.getLoader(ID_TRANSACTION_LOADER);
+			final Loader<Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>>> transactionLoader = loaderManager.getLoader(ID_TRANSACTION_LOADER);
 			if (transactionLoader != null && transactionLoader.isStarted())
+			{
+				((TransactionsLoader) transactionLoader).setMinHeight(adapter.getMinHeight());
 				transactionLoader.forceLoad();
+			}
 		}
 
 		@Override
-		public void onLoaderReset(final Loader<List<StoredBlock>> loader)
+		public void onLoaderReset(final Loader<List<BlockInfo>> loader)
 		{
 			adapter.clear();
 		}
 	};
 
-	private static class TransactionsLoader extends AsyncTaskLoader<Set<Transaction>>
+	/**
+	 * Groups the wallet transactions by the blocks they appear in, so block rows can look them up by hash. Only
+	 * transactions confirmed at or above the lowest block height shown are considered.
+	 */
+	private static class TransactionsLoader extends AsyncTaskLoader<Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>>>
 	{
-		private final Wallet wallet;
+		private final WalletApplication application;
+		private volatile int minHeight;
 
-		private TransactionsLoader(final Context context, final Wallet wallet)
+		private TransactionsLoader(final Context context, final WalletApplication application, final int minHeight)
 		{
 			super(context);
 
-			this.wallet = wallet;
+			this.application = application;
+			this.minHeight = minHeight;
+		}
+
+		public void setMinHeight(final int minHeight)
+		{
+			this.minHeight = minHeight;
 		}
 
 		@Override
-		public Set<Transaction> loadInBackground()
+		public Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>> loadInBackground()
 		{
-			final Set<Transaction> transactions = wallet.getTransactions(true);
+			final int minHeight = this.minHeight;
+			final List<WalletSnapshot.TransactionSummary> transactions = application.getWalletSnapshot().transactions;
 
-			final Set<Transaction> filteredTransactions = new HashSet<Transaction>(transactions.size());
-			for (final Transaction tx : transactions)
+			final Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>> transactionsByBlock = new HashMap<Sha256Hash, List<WalletSnapshot.TransactionSummary>>();
+			for (final WalletSnapshot.TransactionSummary tx : transactions)
 			{
-				final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
-				if (appearsIn != null && !appearsIn.isEmpty()) // TODO filter by updateTime
-					filteredTransactions.add(tx);
+				// only confirmed transactions have a height
+				if (tx.appearedAtChainHeight < minHeight)
+					continue;
+
+				for (final Sha256Hash blockHash : tx.appearsInHashes)
+				{
+					List<WalletSnapshot.TransactionSummary> blockTransactions = transactionsByBlock.get(blockHash);
+					if (blockTransactions == null)
+					{
+						blockTransactions = new ArrayList<WalletSnapshot.TransactionSummary>(1);
+						transactionsByBlock.put(blockHash, blockTransactions);
+					}
+					blockTransactions.add(tx);
+				}
 			}
 
-			return filteredTransactions;
+			return Collections.unmodifiableMap(transactionsByBlock);
 		}
 	}
 
-	private final LoaderCallbacks<Set<Transaction>> transactionLoaderCallbacks = new LoaderCallbacks<Set<Transaction>>()
+	private final LoaderCallbacks<Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>>> transactionLoaderCallbacks = new LoaderCallbacks<Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>>>()
 	{
 		@Override
-		public Loader<Set<Transaction>> onCreateLoader(final int id, final Bundle args)
+		public Loader<Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>>> onCreateLoader(final int id, final Bundle args)
 		{
-			return new TransactionsLoader(activity, wallet);
+			return new TransactionsLoader(activity, application, adapter.getMinHeight());
 		}
 
 		@Override
-		public void onLoadFinished(final Loader<Set<Transaction>> loader, final Set<Transaction> transactions)
+		public void onLoadFinished(final Loader<Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>>> loader,
+				final Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>> transactionsByBlock)
 		{
-			BlockListFragment.this.transactions = transactions;
+			BlockListFragment.this.transactionsByBlock = transactionsByBlock;
 
 			adapter.notifyDataSetChanged();
 		}
 
 		@Override
-		public void onLoaderReset(final Loader<Set<Transaction>> loader)
+		public void onLoaderReset(final Loader<Map<Sha256Hash, List<WalletSnapshot.TransactionSummary>>> loader)
 		{
-			BlockListFragment.this.transactions.clear(); // be nice
-			BlockListFragment.this.transactions = null;
+			BlockListFragment.this.transactionsByBlock = null;
 
 			adapter.notifyDataSetChanged();
 		}
@@ -73,12 +73,19 @@ public final class CurrencyTextView extends TextView
 
 	public void setAmount(@Nonnull final BigInteger amount)
 	{
+		// rows get rebound with unchanged values all the time, formatting is not free
+		if (amount.equals(this.amount))
+			return;
+
 		this.amount = amount;
 		updateView();
 	}
 
 	public void setPrecision(final int precision, final int shift)
 	{
+		if (precision == this.precision && shift == this.shift)
+			return;
+
 		this.precision = precision;
 		this.shift = shift;
 		updateView();
@@ -86,6 +93,9 @@ public final class CurrencyTextView extends TextView
 
 	public void setAlwaysSigned(final boolean alwaysSigned)
 	{
+		if (alwaysSigned == this.alwaysSigned)
+			return;
+
 		this.alwaysSigned = alwaysSigned;
 		updateView();
 	}
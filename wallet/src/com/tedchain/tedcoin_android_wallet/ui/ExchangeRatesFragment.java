@@ -47,8 +47,6 @@ import com.actionbarsherlock.view.ActionMode;
 import com.actionbarsherlock.view.Menu;
 import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
-import com.tedchain.tedcoinj.core.Wallet;
-import com.tedchain.tedcoinj.core.Wallet.BalanceType;
 
 import com.tedchain.tedcoin_android_wallet.Configuration;
 import com.tedchain.tedcoin_android_wallet.Constants;
@@ -69,7 +67,6 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 	private AbstractWalletActivity activity;
 	private WalletApplication application;
 	private Configuration config;
-	private Wallet wallet;
 	private Uri contentUri;
 	private LoaderManager loaderManager;
 
@@ -92,7 +89,6 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 		this.activity = (AbstractWalletActivity) activity;
 		this.application = (WalletApplication) activity.getApplication();
 		this.config = application.getConfiguration();
-		this.wallet = application.getWallet();
 		this.contentUri = ExchangeRatesProvider.contentUri(activity.getPackageName());
 		this.loaderManager = getLoaderManager();
 	}
@@ -258,7 +254,7 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 
 	private void updateView()
 	{
-		balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
+		balance = application.getEstimatedBalance();
 
 		if (adapter != null)
 		{
@@ -338,7 +334,7 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 		@Override
 		public Loader<BigInteger> onCreateLoader(final int id, final Bundle args)
 		{
-			return new WalletBalanceLoader(activity, wallet);
+			return new WalletBalanceLoader(activity, application);
 		}
 
 		@Override
@@ -39,7 +39,6 @@ import android.widget.CheckBox;
 import android.widget.EditText;
 
 import com.tedchain.tedcoinj.core.Wallet;
-import com.tedchain.tedcoinj.core.Wallet.BalanceType;
 import com.tedchain.tedcoinj.store.UnreadableWalletException;
 import com.tedchain.tedcoinj.store.WalletProtobufSerializer;
 
@@ -59,7 +58,6 @@ public final class ImportKeysActivity extends AbstractWalletActivity
 
 	private WalletApplication application;
 	private Configuration config;
-	private Wallet wallet;
 	private ContentResolver contentResolver;
 
 	private Uri backupFileUri;
@@ -71,7 +69,6 @@ public final class ImportKeysActivity extends AbstractWalletActivity
 
 		application = getWalletApplication();
 		config = application.getConfiguration();
-		wallet = application.getWallet();
 		contentResolver = getContentResolver();
 
 		backupFileUri = getIntent().getData();
@@ -150,7 +147,7 @@ public final class ImportKeysActivity extends AbstractWalletActivity
 		final AlertDialog alertDialog = (AlertDialog) dialog;
 
 		final View replaceWarningView = alertDialog.findViewById(R.id.restore_wallet_from_content_dialog_replace_warning);
-		final boolean hasCoins = wallet.getBalance(BalanceType.ESTIMATED).signum() > 0;
+		final boolean hasCoins = application.getEstimatedBalance().signum() > 0;
 		replaceWarningView.setVisibility(hasCoins ? View.VISIBLE : View.GONE);
 
 		final EditText passwordView = (EditText) alertDialog.findViewById(R.id.import_keys_from_content_dialog_password);
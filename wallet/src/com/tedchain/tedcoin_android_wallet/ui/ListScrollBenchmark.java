@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.ui;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import android.os.Debug;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.ListView;
+
+import com.tedchain.tedcoin_android_wallet.util.WalletLockProfiler;
+
+/**
+ * Scrolls a list to its last row and back to the first, measuring every row bind on the way: time, and the number of
+ * objects allocated by the UI thread. Allocation counting slows Dalvik down, so bind times are only comparable between
+ * runs of the benchmark itself.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ListScrollBenchmark implements OnScrollListener
+{
+	public interface Listener
+	{
+		void onBenchmarkFinished(@Nonnull ListScrollBenchmark benchmark);
+	}
+
+	private final ListView listView;
+	private final Listener listener;
+
+	private final WalletLockProfiler.Histogram bindTimes = new WalletLockProfiler.Histogram();
+	private long numAllocations = 0;
+	private long bindStartNanos;
+	private int bindStartAllocations;
+
+	private static final int STATE_IDLE = 0;
+	private static final int STATE_DOWN = 1;
+	private static final int STATE_UP = 2;
+	private static final int STATE_FINISHED = 3;
+	private int state = STATE_IDLE;
+
+	public ListScrollBenchmark(@Nonnull final ListView listView, @Nonnull final Listener listener)
+	{
+		this.listView = listView;
+		this.listener = listener;
+	}
+
+	public void start()
+	{
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		listView.setOnScrollListener(this);
+
+		state = STATE_DOWN;
+		if (!scrollTo(listView.getCount() - 1))
+			finish();
+	}
+
+	public void cancel()
+	{
+		if (state == STATE_DOWN || state == STATE_UP)
+		{
+			state = STATE_FINISHED;
+			Debug.stopAllocCounting();
+			listView.setOnScrollListener(null);
+		}
+	}
+
+	public void beginBind()
+	{
+		bindStartAllocations = Debug.getThreadAllocCount();
+		bindStartNanos = System.nanoTime();
+	}
+
+	public void endBind()
+	{
+		bindTimes.record(System.nanoTime() - bindStartNanos);
+		numAllocations += Debug.getThreadAllocCount() - bindStartAllocations;
+	}
+
+	@Override
+	public void onScrollStateChanged(final AbsListView view, final int scrollState)
+	{
+		if (scrollState != SCROLL_STATE_IDLE)
+			return;
+
+		if (state == STATE_DOWN)
+		{
+			state = STATE_UP;
+			if (!scrollTo(0))
+				finish();
+		}
+		else if (state == STATE_UP)
+		{
+			finish();
+		}
+	}
+
+	@Override
+	public void onScroll(final AbsListView view, final int firstVisibleItem, final int visibleItemCount, final int totalItemCount)
+	{
+	}
+
+	private boolean scrollTo(final int position)
+	{
+		// lists fitting on screen don't scroll, so there would be no idle state to wait for
+		if (listView.getFirstVisiblePosition() == 0 && listView.getLastVisiblePosition() == listView.getCount() - 1)
+			return false;
+
+		listView.smoothScrollToPosition(position);
+		return true;
+	}
+
+	private void finish()
+	{
+		cancel();
+		listener.onBenchmarkFinished(this);
+	}
+
+	public void append(@Nonnull final Appendable report) throws IOException
+	{
+		final int numBinds = bindTimes.getCount();
+		report.append(numBinds + " row binds, " + (numBinds > 0 ? numAllocations / numBinds : 0) + " allocations per bind, bind times: ");
+		bindTimes.append(report);
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder builder = new StringBuilder();
+		try
+		{
+			append(builder);
+		}
+		catch (final IOException x)
+		{
+			throw new RuntimeException(x);
+		}
+		return builder.toString();
+	}
+}
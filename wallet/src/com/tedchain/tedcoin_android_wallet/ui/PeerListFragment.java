@@ -39,6 +39,7 @@ import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.RemoteException;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
 import android.support.v4.content.AsyncTaskLoader;
@@ -50,11 +51,11 @@ import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
 import com.actionbarsherlock.app.SherlockListFragment;
-import com.tedchain.tedcoinj.core.Peer;
-import com.tedchain.tedcoinj.core.VersionMessage;
 
+import com.tedchain.tedcoin_android_wallet.WalletApplication;
 import com.tedchain.tedcoin_android_wallet.service.BlockchainService;
-import com.tedchain.tedcoin_android_wallet.service.BlockchainServiceImpl;
+import com.tedchain.tedcoin_android_wallet.service.IBlockchainService;
+import com.tedchain.tedcoin_android_wallet.service.PeerInfo;
 import com.tedchain.tedcoin_android_wallet.util.WholeStringBuilder;
 import com.tedchain.tedcoin_android_wallet.R;
 
@@ -66,8 +67,8 @@ public final class PeerListFragment extends SherlockListFragment
 	private AbstractWalletActivity activity;
 	private LoaderManager loaderManager;
 
-	private BlockchainService service;
-	private ArrayAdapter<Peer> adapter;
+	private IBlockchainService service;
+	private ArrayAdapter<PeerInfo> adapter;
 
 	private final Handler handler = new Handler();
 
@@ -94,7 +95,8 @@ public final class PeerListFragment extends SherlockListFragment
 	{
 		super.onActivityCreated(savedInstanceState);
 
-		activity.bindService(new Intent(activity, BlockchainServiceImpl.class), serviceConnection, Context.BIND_AUTO_CREATE);
+		final WalletApplication application = (WalletApplication) activity.getApplication();
+		activity.bindService(new Intent(activity, application.blockchainServiceClass()), serviceConnection, Context.BIND_AUTO_CREATE);
 	}
 
 	@Override
@@ -110,7 +112,7 @@ public final class PeerListFragment extends SherlockListFragment
 	{
 		super.onCreate(savedInstanceState);
 
-		adapter = new ArrayAdapter<Peer>(activity, 0)
+		adapter = new ArrayAdapter<PeerInfo>(activity, 0)
 		{
 			@Override
 			public View getView(final int position, View row, final ViewGroup parent)
@@ -118,30 +120,29 @@ public final class PeerListFragment extends SherlockListFragment
 				if (row == null)
 					row = getLayoutInflater(null).inflate(R.layout.peer_list_row, null);
 
-				final Peer peer = getItem(position);
-				final VersionMessage versionMessage = peer.getPeerVersionMessage();
-				final boolean isDownloading = peer.getDownloadData();
+				final PeerInfo peer = getItem(position);
+				final boolean isDownloading = peer.isDownloading;
 
 				final TextView rowIp = (TextView) row.findViewById(R.id.peer_list_row_ip);
-				final InetAddress address = peer.getAddress().getAddr();
+				final InetAddress address = peer.address;
 				final String hostname = hostnames.get(address);
 				rowIp.setText(hostname != null ? hostname : address.getHostAddress());
 
 				final TextView rowHeight = (TextView) row.findViewById(R.id.peer_list_row_height);
-				final long bestHeight = peer.getBestHeight();
+				final long bestHeight = peer.bestHeight;
 				rowHeight.setText(bestHeight > 0 ? bestHeight + " blocks" : null);
 				rowHeight.setTypeface(isDownloading ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
 
 				final TextView rowVersion = (TextView) row.findViewById(R.id.peer_list_row_version);
-				rowVersion.setText(versionMessage.subVer);
+				rowVersion.setText(peer.subVer);
 				rowVersion.setTypeface(isDownloading ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
 
 				final TextView rowProtocol = (TextView) row.findViewById(R.id.peer_list_row_protocol);
-				rowProtocol.setText("protocol: " + versionMessage.clientVersion);
+				rowProtocol.setText("protocol: " + peer.clientVersion);
 				rowProtocol.setTypeface(isDownloading ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
 
 				final TextView rowPing = (TextView) row.findViewById(R.id.peer_list_row_ping);
-				final long pingTime = peer.getPingTime();
+				final long pingTime = peer.pingTime;
 				rowPing.setText(pingTime < Long.MAX_VALUE ? getString(R.string.peer_list_row_ping_time, pingTime) : null);
 				rowPing.setTypeface(isDownloading ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
 
@@ -176,8 +177,8 @@ public final class PeerListFragment extends SherlockListFragment
 				{
 					for (int i = 0; i < adapter.getCount(); i++)
 					{
-						final Peer peer = adapter.getItem(i);
-						final InetAddress address = peer.getAddress().getAddr();
+						final PeerInfo peer = adapter.getItem(i);
+						final InetAddress address = peer.address;
 
 						if (!hostnames.containsKey(address))
 						{
@@ -218,7 +219,7 @@ public final class PeerListFragment extends SherlockListFragment
 		@Override
 		public void onServiceConnected(final ComponentName name, final IBinder binder)
 		{
-			service = ((BlockchainServiceImpl.LocalBinder) binder).getService();
+			service = IBlockchainService.Stub.asInterface(binder);
 
 			loaderManager.initLoader(ID_PEER_LOADER, null, peerLoaderCallbacks);
 		}
@@ -232,12 +233,12 @@ public final class PeerListFragment extends SherlockListFragment
 		}
 	};
 
-	private static class PeerLoader extends AsyncTaskLoader<List<Peer>>
+	private static class PeerLoader extends AsyncTaskLoader<List<PeerInfo>>
 	{
 		private Context context;
-		private BlockchainService service;
+		private IBlockchainService service;
 
-		private PeerLoader(final Context context, @Nonnull final BlockchainService service)
+		private PeerLoader(final Context context, @Nonnull final IBlockchainService service)
 		{
 			super(context);
 
@@ -262,9 +263,18 @@ public final class PeerListFragment extends SherlockListFragment
 		}
 
 		@Override
-		public List<Peer> loadInBackground()
+		public List<PeerInfo> loadInBackground()
 		{
-			return service.getConnectedPeers();
+			try
+			{
+				return service.getConnectedPeers();
+			}
+			catch (final RemoteException x)
+			{
+				log.info("cannot get connected peers", x);
+
+				return null;
+			}
 		}
 
 		private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
@@ -284,26 +294,26 @@ public final class PeerListFragment extends SherlockListFragment
 		};
 	}
 
-	private final LoaderCallbacks<List<Peer>> peerLoaderCallbacks = new LoaderCallbacks<List<Peer>>()
+	private final LoaderCallbacks<List<PeerInfo>> peerLoaderCallbacks = new LoaderCallbacks<List<PeerInfo>>()
 	{
 		@Override
-		public Loader<List<Peer>> onCreateLoader(final int id, final Bundle args)
+		public Loader<List<PeerInfo>> onCreateLoader(final int id, final Bundle args)
 		{
 			return new PeerLoader(activity, service);
 		}
 
 		@Override
-		public void onLoadFinished(final Loader<List<Peer>> loader, final List<Peer> peers)
+		public void onLoadFinished(final Loader<List<PeerInfo>> loader, final List<PeerInfo> peers)
 		{
 			adapter.clear();
 
 			if (peers != null)
-				for (final Peer peer : peers)
+				for (final PeerInfo peer : peers)
 					adapter.add(peer);
 		}
 
 		@Override
-		public void onLoaderReset(final Loader<List<Peer>> loader)
+		public void onLoaderReset(final Loader<List<PeerInfo>> loader)
 		{
 			adapter.clear();
 		}
@@ -37,7 +37,6 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.ContentObserver;
 import android.database.Cursor;
 import android.media.RingtoneManager;
 import android.net.Uri;
@@ -94,11 +93,13 @@ import com.tedchain.tedcoin_android_wallet.ExchangeRatesProvider.ExchangeRate;
 import com.tedchain.tedcoin_android_wallet.WalletApplication;
 import com.tedchain.tedcoin_android_wallet.data.PaymentIntent;
 import com.tedchain.tedcoin_android_wallet.data.PaymentIntent.Standard;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
 import com.tedchain.tedcoin_android_wallet.integration.android.tedcoinIntegration;
 import com.tedchain.tedcoin_android_wallet.offline.DirectPaymentTask;
 import com.tedchain.tedcoin_android_wallet.ui.InputParser.BinaryInputParser;
 import com.tedchain.tedcoin_android_wallet.ui.InputParser.StreamInputParser;
 import com.tedchain.tedcoin_android_wallet.ui.InputParser.StringInputParser;
+import com.tedchain.tedcoin_android_wallet.util.AddressLabelResolver;
 import com.tedchain.tedcoin_android_wallet.util.Bluetooth;
 import com.tedchain.tedcoin_android_wallet.util.GenericUtils;
 import com.tedchain.tedcoin_android_wallet.util.Nfc;
@@ -286,10 +287,10 @@ public final class SendCoinsFragment extends SherlockFragment
 		}
 	};
 
-	private final ContentObserver contentObserver = new ContentObserver(handler)
+	private final AddressLabelResolver.Listener labelsListener = new AddressLabelResolver.Listener()
 	{
 		@Override
-		public void onChange(final boolean selfChange)
+		public void onLabelsChanged(final String address)
 		{
 			updateView();
 		}
@@ -512,7 +513,7 @@ public final class SendCoinsFragment extends SherlockFragment
 		directPaymentMessageView = (TextView) view.findViewById(R.id.send_coins_direct_payment_message);
 
 		sentTransactionView = (ListView) view.findViewById(R.id.send_coins_sent_transaction);
-		sentTransactionListAdapter = new TransactionsListAdapter(activity, wallet, application.maxConnectedPeers(), false);
+		sentTransactionListAdapter = new TransactionsListAdapter(activity, wallet, false);
 		sentTransactionView.setAdapter(sentTransactionListAdapter);
 
 		viewGo = (Button) view.findViewById(R.id.send_coins_go);
@@ -564,7 +565,7 @@ public final class SendCoinsFragment extends SherlockFragment
 	{
 		super.onResume();
 
-		contentResolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, contentObserver);
+		application.getAddressLabelResolver().addListener(labelsListener);
 
 		amountCalculatorLink.setListener(amountsListener);
 
@@ -580,7 +581,7 @@ public final class SendCoinsFragment extends SherlockFragment
 
 		amountCalculatorLink.setListener(null);
 
-		contentResolver.unregisterContentObserver(contentObserver);
+		application.getAddressLabelResolver().removeListener(labelsListener);
 
 		super.onPause();
 	}
@@ -744,7 +745,7 @@ public final class SendCoinsFragment extends SherlockFragment
 				else
 				{
 					// valid address
-					final String label = AddressBookProvider.resolveLabel(activity, addressStr);
+					final String label = application.getAddressLabelResolver().resolve(addressStr);
 					validatedAddress = new AddressAndLabel(Constants.NETWORK_PARAMETERS, addressStr, label);
 					receivingAddressView.setText(null);
 				}
@@ -839,11 +840,14 @@ public final class SendCoinsFragment extends SherlockFragment
 				validatedAddress != null ? validatedAddress.address : null);
 		final BigInteger finalAmount = finalPaymentIntent.getAmount();
 
+		// the wallet may have been reloaded since this screen was opened, after the sync process saved it
+		wallet = application.getWallet();
+
 		// prepare send request
 		final SendRequest sendRequest = finalPaymentIntent.toSendRequest();
 		final Address returnAddress = WalletUtils.pickOldestKey(wallet).toAddress(Constants.NETWORK_PARAMETERS);
 		sendRequest.changeAddress = returnAddress;
-		sendRequest.emptyWallet = paymentIntent.mayEditAmount() && finalAmount.equals(wallet.getBalance(BalanceType.ESTMINUSFEE));
+		sendRequest.emptyWallet = paymentIntent.mayEditAmount() && finalAmount.equals(application.getWalletSnapshot().getBalance(BalanceType.ESTMINUSFEE));
 
 		new SendCoinsOfflineTask(wallet, backgroundHandler)
 		{
@@ -932,8 +936,9 @@ public final class SendCoinsFragment extends SherlockFragment
 				state = State.INPUT;
 				updateView();
 
-				final BigInteger estimated = wallet.getBalance(BalanceType.ESTIMATED);
-				final BigInteger available = wallet.getBalance(BalanceType.AVAILABLE);
+				final WalletSnapshot snapshot = application.getWalletSnapshot();
+				final BigInteger estimated = snapshot.getBalance(BalanceType.ESTIMATED);
+				final BigInteger available = snapshot.getBalance(BalanceType.AVAILABLE);
 				final BigInteger pending = estimated.subtract(available);
 
 				final int PPCShift = config.getPPCShift();
@@ -982,7 +987,7 @@ public final class SendCoinsFragment extends SherlockFragment
 
 	private void handleEmpty()
 	{
-		final BigInteger available = wallet.getBalance(BalanceType.ESTMINUSFEE);
+		final BigInteger available = application.getWalletSnapshot().getBalance(BalanceType.ESTMINUSFEE);
 
 		amountCalculatorLink.setPPCAmount(available);
 
@@ -1085,7 +1090,7 @@ public final class SendCoinsFragment extends SherlockFragment
 				receivingStaticView.setVisibility(View.VISIBLE);
 				receivingStaticAddressView.setText(WalletUtils.formatAddress(validatedAddress.address, Constants.ADDRESS_FORMAT_GROUP_SIZE,
 						Constants.ADDRESS_FORMAT_LINE_SIZE));
-				final String addressBookLabel = AddressBookProvider.resolveLabel(activity, validatedAddress.address.toString());
+				final String addressBookLabel = application.getAddressLabelResolver().resolve(validatedAddress.address.toString());
 				final String staticLabel;
 				if (addressBookLabel != null)
 					staticLabel = addressBookLabel;
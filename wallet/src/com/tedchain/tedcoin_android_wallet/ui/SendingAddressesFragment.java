@@ -17,10 +17,6 @@
 
 package com.tedchain.tedcoin_android_wallet.ui;
 
-import java.util.ArrayList;
-
-import javax.annotation.Nonnull;
-
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
@@ -44,7 +40,6 @@ import com.actionbarsherlock.view.ActionMode;
 import com.actionbarsherlock.view.Menu;
 import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
-import com.tedchain.tedcoinj.core.Address;
 import com.tedchain.tedcoinj.core.AddressFormatException;
 import com.tedchain.tedcoinj.core.Transaction;
 import com.tedchain.tedcoinj.uri.tedcoinURI;
@@ -69,7 +64,6 @@ public final class SendingAddressesFragment extends SherlockListFragment impleme
 	private LoaderManager loaderManager;
 
 	private SimpleCursorAdapter adapter;
-	private String walletAddressesSelection;
 
 	private final Handler handler = new Handler();
 
@@ -358,9 +352,8 @@ public final class SendingAddressesFragment extends SherlockListFragment impleme
 	public Loader<Cursor> onCreateLoader(final int id, final Bundle args)
 	{
 		final Uri uri = AddressBookProvider.contentUri(activity.getPackageName());
-		return new CursorLoader(activity, uri, null, AddressBookProvider.SELECTION_NOTIN,
-				new String[] { walletAddressesSelection != null ? walletAddressesSelection : "" }, AddressBookProvider.KEY_LABEL
-						+ " COLLATE LOCALIZED ASC");
+		return new CursorLoader(activity, uri, null, AddressBookProvider.SELECTION_NOT_WALLET, null, AddressBookProvider.KEY_LABEL
+				+ " COLLATE LOCALIZED ASC");
 	}
 
 	@Override
@@ -374,15 +367,4 @@ public final class SendingAddressesFragment extends SherlockListFragment impleme
 	{
 		adapter.swapCursor(null);
 	}
-
-	public void setWalletAddresses(@Nonnull final ArrayList<Address> addresses)
-	{
-		final StringBuilder builder = new StringBuilder();
-		for (final Address address : addresses)
-			builder.append(address.toString()).append(",");
-		if (addresses.size() > 0)
-			builder.setLength(builder.length() - 1);
-
-		walletAddressesSelection = builder.toString();
-	}
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.ui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import com.tedchain.tedcoin_android_wallet.AddressBookProvider;
+import com.tedchain.tedcoin_android_wallet.TransactionsProvider;
+import com.tedchain.tedcoin_android_wallet.util.AddressLabelResolver;
+import com.tedchain.tedcoin_android_wallet.util.TransactionSearchQuery;
+
+/**
+ * Loads all transactions matching a search into one cursor, which is paged through its window as the list scrolls. Labels
+ * are looked up in the address book on the loader thread, right before the transactions are queried. The search is
+ * repeated if transactions or labels change.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionSearchLoader extends CursorLoader
+{
+	private final AddressLabelResolver labelResolver;
+	private final TransactionSearchQuery query;
+	@CheckForNull
+	private final String baseSelection;
+	@CheckForNull
+	private final String[] baseSelectionArgs;
+	private final Uri addressBookUri;
+
+	public TransactionSearchLoader(@Nonnull final Context context, @Nonnull final AddressLabelResolver labelResolver,
+			@Nonnull final TransactionSearchQuery query, @CheckForNull final String baseSelection, @CheckForNull final String[] baseSelectionArgs)
+	{
+		super(context, TransactionsProvider.contentUri(context.getPackageName()), null, null, null, TransactionsProvider.SORT_ORDER);
+
+		this.labelResolver = labelResolver;
+		this.query = query;
+		this.baseSelection = baseSelection;
+		this.baseSelectionArgs = baseSelectionArgs;
+		this.addressBookUri = AddressBookProvider.contentUri(context.getPackageName());
+	}
+
+	@Override
+	protected void onStartLoading()
+	{
+		super.onStartLoading();
+
+		labelResolver.addListener(labelsListener);
+	}
+
+	@Override
+	protected void onStopLoading()
+	{
+		labelResolver.removeListener(labelsListener);
+
+		super.onStopLoading();
+	}
+
+	@Override
+	public Cursor loadInBackground()
+	{
+		final Map<String, List<String>> labelledAddresses = new HashMap<String, List<String>>();
+		final int maxAddresses = query.maxLabelledAddressesPerTerm();
+		for (final String term : query.terms)
+			labelledAddresses.put(term, findLabelledAddresses(term, maxAddresses));
+
+		final List<String> selectionArgs = new ArrayList<String>();
+		if (baseSelectionArgs != null)
+			selectionArgs.addAll(Arrays.asList(baseSelectionArgs));
+		final String selection = query.selection(labelledAddresses, selectionArgs);
+
+		setSelection(baseSelection != null ? baseSelection + " AND (" + selection + ")" : selection);
+		setSelectionArgs(selectionArgs.toArray(new String[selectionArgs.size()]));
+
+		return super.loadInBackground();
+	}
+
+	/**
+	 * Best matches come first, so those beyond the maximum are the least likely to be meant.
+	 */
+	private List<String> findLabelledAddresses(final String term, final int maxAddresses)
+	{
+		final List<String> addresses = new ArrayList<String>();
+
+		final Cursor cursor = getContext().getContentResolver().query(addressBookUri, new String[] { AddressBookProvider.KEY_ADDRESS },
+				AddressBookProvider.SELECTION_QUERY, new String[] { term }, null);
+		if (cursor != null)
+		{
+			while (addresses.size() < maxAddresses && cursor.moveToNext())
+				addresses.add(cursor.getString(0));
+
+			cursor.close();
+		}
+
+		return addresses;
+	}
+
+	private final AddressLabelResolver.Listener labelsListener = new AddressLabelResolver.Listener()
+	{
+		@Override
+		public void onLabelsChanged(final String address)
+		{
+			onContentChanged();
+		}
+	};
+}
@@ -20,36 +20,43 @@ package com.tedchain.tedcoin_android_wallet.ui;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.Typeface;
 import android.text.Html;
-import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import com.tedchain.tedcoinj.core.Address;
+import com.tedchain.tedcoinj.core.Sha256Hash;
 import com.tedchain.tedcoinj.core.Transaction;
 import com.tedchain.tedcoinj.core.Transaction.Purpose;
 import com.tedchain.tedcoinj.core.TransactionConfidence;
 import com.tedchain.tedcoinj.core.TransactionConfidence.ConfidenceType;
 import com.tedchain.tedcoinj.core.Wallet;
-import com.tedchain.tedcoinj.wallet.DefaultCoinSelector;
 
-import com.tedchain.tedcoin_android_wallet.AddressBookProvider;
 import com.tedchain.tedcoin_android_wallet.Constants;
+import com.tedchain.tedcoin_android_wallet.TransactionsProvider;
+import com.tedchain.tedcoin_android_wallet.WalletApplication;
+import com.tedchain.tedcoin_android_wallet.data.TransactionMemo;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+import com.tedchain.tedcoin_android_wallet.store.TransactionArchive;
 import com.tedchain.tedcoin_android_wallet.util.CircularProgressView;
+import com.tedchain.tedcoin_android_wallet.util.RelativeTimeCache;
 import com.tedchain.tedcoin_android_wallet.util.WalletUtils;
 import com.tedchain.tedcoin_android_wallet.R;
 
@@ -61,9 +68,23 @@ public class TransactionsListAdapter extends BaseAdapter
 	private final Context context;
 	private final LayoutInflater inflater;
 	private final Wallet wallet;
-	private final int maxConnectedPeers;
+	private final WalletApplication application;
 
 	private final List<Transaction> transactions = new ArrayList<Transaction>();
+	private final List<TransactionArchive.Summary> archivedTransactions = new ArrayList<TransactionArchive.Summary>();
+	@CheckForNull
+	private Cursor cursor = null;
+	private int columnHash;
+	private int columnValue;
+	private int columnDirection;
+	private int columnTime;
+	private int columnAddress;
+	private int columnConfidence;
+	private int columnAppearedAtHeight;
+	private int cursorChainHeight;
+	private int columnCoinBase;
+	private int columnArchived;
+	private final CharArrayBuffer hashBuffer = new CharArrayBuffer(64);
 	private int precision = 0;
 	private int shift = 0;
 	private boolean showEmptyText = false;
@@ -75,23 +96,28 @@ public class TransactionsListAdapter extends BaseAdapter
 	private final int colorCircularBuilding = Color.parseColor("#44ff44");
 	private final String textCoinBase;
 	private final String textInternal;
+	private final CharSequence textKeyRotation;
+	private final CharSequence textBackupWarning;
 
-	private final Map<String, String> labelCache = new HashMap<String, String>();
-	private final static String CACHE_NULL_MARKER = "";
+	private final RowModel rowModel = new RowModel();
+	private final RelativeTimeCache relativeTimeCache;
+	@CheckForNull
+	private ListScrollBenchmark benchmark = null;
 
 	private static final String CONFIDENCE_SYMBOL_DEAD = "\u271D"; // latin cross
 	private static final String CONFIDENCE_SYMBOL_UNKNOWN = "?";
 
 	private static final int VIEW_TYPE_TRANSACTION = 0;
 	private static final int VIEW_TYPE_WARNING = 1;
+	private static final int VIEW_TYPE_ARCHIVED = 2;
 
-	public TransactionsListAdapter(final Context context, @Nonnull final Wallet wallet, final int maxConnectedPeers, final boolean showBackupWarning)
+	public TransactionsListAdapter(final Context context, @Nonnull final Wallet wallet, final boolean showBackupWarning)
 	{
 		this.context = context;
 		inflater = LayoutInflater.from(context);
 
 		this.wallet = wallet;
-		this.maxConnectedPeers = maxConnectedPeers;
+		this.application = (WalletApplication) context.getApplicationContext();
 		this.showBackupWarning = showBackupWarning;
 
 		final Resources resources = context.getResources();
@@ -100,6 +126,9 @@ public class TransactionsListAdapter extends BaseAdapter
 		colorError = resources.getColor(R.color.fg_error);
 		textCoinBase = context.getString(R.string.wallet_transactions_fragment_coinbase);
 		textInternal = context.getString(R.string.wallet_transactions_fragment_internal);
+		textKeyRotation = Html.fromHtml(context.getString(R.string.transaction_row_message_purpose_key_rotation));
+		textBackupWarning = Html.fromHtml(context.getString(R.string.wallet_transactions_row_warning_backup));
+		relativeTimeCache = new RelativeTimeCache(context);
 	}
 
 	public void setPrecision(final int precision, final int shift)
@@ -110,9 +139,25 @@ public class TransactionsListAdapter extends BaseAdapter
 		notifyDataSetChanged();
 	}
 
+	public void setShowBackupWarning(final boolean showBackupWarning)
+	{
+		this.showBackupWarning = showBackupWarning;
+
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Measures each row bind from now on, or stops measuring if null.
+	 */
+	public void setBenchmark(@Nullable final ListScrollBenchmark benchmark)
+	{
+		this.benchmark = benchmark;
+	}
+
 	public void clear()
 	{
 		transactions.clear();
+		archivedTransactions.clear();
 
 		notifyDataSetChanged();
 	}
@@ -121,20 +166,123 @@ public class TransactionsListAdapter extends BaseAdapter
 	{
 		transactions.clear();
 		transactions.add(tx);
+		archivedTransactions.clear();
 
 		notifyDataSetChanged();
 	}
 
 	public void replace(@Nonnull final Collection<Transaction> transactions)
+	{
+		replace(transactions, Collections.<TransactionArchive.Summary> emptyList());
+	}
+
+	/**
+	 * Archived transactions are shown after the ones in the wallet, as they are old anyway.
+	 */
+	public void replace(@Nonnull final Collection<Transaction> transactions, @Nonnull final Collection<TransactionArchive.Summary> archivedTransactions)
 	{
 		this.transactions.clear();
 		this.transactions.addAll(transactions);
+		this.archivedTransactions.clear();
+		this.archivedTransactions.addAll(archivedTransactions);
 
 		showEmptyText = true;
 
 		notifyDataSetChanged();
 	}
 
+	/**
+	 * Pages transactions from a {@link TransactionsProvider} cursor rather than holding them. Rows of transactions in the
+	 * wallet are bound from their summary as soon as a wallet snapshot is available, archived ones from the cursor. The
+	 * cursor is owned by the caller.
+	 */
+	public void swapCursor(@Nullable final Cursor cursor)
+	{
+		this.cursor = cursor;
+		transactions.clear();
+		archivedTransactions.clear();
+
+		if (cursor != null)
+		{
+			// looked up once rather than per bind
+			columnHash = cursor.getColumnIndexOrThrow(TransactionsProvider.KEY_HASH);
+			columnValue = cursor.getColumnIndexOrThrow(TransactionsProvider.KEY_VALUE);
+			columnDirection = cursor.getColumnIndexOrThrow(TransactionsProvider.KEY_DIRECTION);
+			columnTime = cursor.getColumnIndexOrThrow(TransactionsProvider.KEY_TIME);
+			columnAddress = cursor.getColumnIndexOrThrow(TransactionsProvider.KEY_ADDRESS);
+			columnConfidence = cursor.getColumnIndexOrThrow(TransactionsProvider.KEY_CONFIDENCE);
+			columnAppearedAtHeight = cursor.getColumnIndexOrThrow(TransactionsProvider.KEY_APPEARED_AT_HEIGHT);
+			columnCoinBase = cursor.getColumnIndexOrThrow(TransactionsProvider.KEY_COINBASE);
+			columnArchived = cursor.getColumnIndexOrThrow(TransactionsProvider.KEY_ARCHIVED);
+
+			// only needed until a wallet snapshot is available, so the last known height will do
+			cursorChainHeight = application.getConfiguration().getBestChainHeightEver();
+
+			showEmptyText = true;
+		}
+
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Swaps in a requeried cursor of the same query, diffing it against the current one by row id. If the number of rows
+	 * is the same and each position in the given range still shows the same transaction, no row has moved as far as the
+	 * list can tell, so it is not notified; rows outside the range are bound afresh when scrolled to anyway. Otherwise,
+	 * this is the same as {@link #swapCursor(Cursor)}.
+	 *
+	 * @return positions in the range whose stored values changed, so that only they need to be rebound, or null if the
+	 *         list has been notified
+	 */
+	@CheckForNull
+	public List<Integer> swapRequeriedCursor(@Nonnull final Cursor newCursor, final int firstPosition, final int lastPosition)
+	{
+		final Cursor oldCursor = this.cursor;
+		if (oldCursor == null || oldCursor == newCursor || oldCursor.isClosed() || oldCursor.getCount() != newCursor.getCount())
+		{
+			swapCursor(newCursor);
+			return null;
+		}
+
+		final List<Integer> changedPositions = new LinkedList<Integer>();
+		final int last = Math.min(lastPosition, newCursor.getCount() - 1);
+		for (int position = firstPosition; position <= last; position++)
+		{
+			oldCursor.moveToPosition(position);
+			newCursor.moveToPosition(position);
+
+			// same query, so the column indexes are the same
+			oldCursor.copyStringToBuffer(columnHash, hashBuffer);
+			final long oldId = WalletUtils.longHash(hashBuffer.data);
+			newCursor.copyStringToBuffer(columnHash, hashBuffer);
+			final long newId = WalletUtils.longHash(hashBuffer.data);
+			if (oldId != newId)
+			{
+				swapCursor(newCursor);
+				return null;
+			}
+
+			if (!sameRow(oldCursor, newCursor))
+				changedPositions.add(position);
+		}
+
+		this.cursor = newCursor;
+
+		return changedPositions;
+	}
+
+	private static boolean sameRow(final Cursor cursor1, final Cursor cursor2)
+	{
+		for (int i = 0; i < cursor1.getColumnCount(); i++)
+		{
+			final String value1 = cursor1.getString(i);
+			final String value2 = cursor2.getString(i);
+			if (value1 != null ? !value1.equals(value2) : value2 != null)
+				return false;
+		}
+
+		return true;
+	}
+
 	@Override
 	public boolean isEmpty()
 	{
@@ -144,7 +292,7 @@ public class TransactionsListAdapter extends BaseAdapter
 	@Override
 	public int getCount()
 	{
-		int count = transactions.size();
+		int count = getTransactionCount();
 
 		if (count == 1 && showBackupWarning)
 			count++;
@@ -152,37 +300,116 @@ public class TransactionsListAdapter extends BaseAdapter
 		return count;
 	}
 
+	/**
+	 * @return transaction in the wallet, or null for the backup warning and for archived transactions
+	 */
 	@Override
 	public Transaction getItem(final int position)
 	{
-		if (position == transactions.size() && showBackupWarning)
+		if (cursor != null)
+		{
+			if (!moveCursor(position) || isCursorArchived())
+				return null;
+
+			final WalletSnapshot snapshot = application.getWalletChangeDispatcher().getSnapshot();
+			final WalletSnapshot.TransactionSummary tx = snapshot != null ? snapshot.getTransaction(getCursorLongHash()) : null;
+			return tx != null ? tx.tx : null;
+		}
+
+		if (position >= transactions.size())
 			return null;
 
 		return transactions.get(position);
 	}
 
+	/**
+	 * @return summary of an archived transaction, or null
+	 */
+	public TransactionArchive.Summary getArchivedItem(final int position)
+	{
+		if (cursor != null)
+		{
+			if (!moveCursor(position) || !isCursorArchived())
+				return null;
+
+			return application.getTransactionArchive().getSummary(getCursorLongHash());
+		}
+
+		final int index = position - transactions.size();
+		if (index < 0 || index >= archivedTransactions.size())
+			return null;
+
+		return archivedTransactions.get(index);
+	}
+
 	@Override
 	public long getItemId(final int position)
 	{
-		if (position == transactions.size() && showBackupWarning)
-			return 0;
+		if (cursor != null)
+			return moveCursor(position) ? getCursorLongHash() : 0;
+
+		if (position < transactions.size())
+			return WalletUtils.longHash(transactions.get(position).getHash());
 
-		return WalletUtils.longHash(transactions.get(position).getHash());
+		final TransactionArchive.Summary archived = getArchivedItem(position);
+		if (archived != null)
+			return WalletUtils.longHash(archived.hash);
+
+		return 0;
 	}
 
 	@Override
 	public int getViewTypeCount()
 	{
-		return 2;
+		return 3;
 	}
 
 	@Override
 	public int getItemViewType(final int position)
 	{
-		if (position == transactions.size() && showBackupWarning)
-			return VIEW_TYPE_WARNING;
-		else
+		if (cursor != null)
+		{
+			if (moveCursor(position))
+				return isCursorArchived() ? VIEW_TYPE_ARCHIVED : VIEW_TYPE_TRANSACTION;
+			else
+				return VIEW_TYPE_WARNING;
+		}
+
+		if (position < transactions.size())
 			return VIEW_TYPE_TRANSACTION;
+		else if (position < transactions.size() + archivedTransactions.size())
+			return VIEW_TYPE_ARCHIVED;
+		else
+			return VIEW_TYPE_WARNING;
+	}
+
+	public boolean isWarning(final int position)
+	{
+		return getItemViewType(position) == VIEW_TYPE_WARNING;
+	}
+
+	private int getTransactionCount()
+	{
+		return cursor != null ? cursor.getCount() : transactions.size() + archivedTransactions.size();
+	}
+
+	private boolean moveCursor(final int position)
+	{
+		return position < cursor.getCount() && cursor.moveToPosition(position);
+	}
+
+	private boolean isCursorArchived()
+	{
+		return cursor.getInt(columnArchived) != 0;
+	}
+
+	/**
+	 * Items are looked up by this rather than by {@link Sha256Hash}, as it takes no allocation per bind.
+	 */
+	private long getCursorLongHash()
+	{
+		cursor.copyStringToBuffer(columnHash, hashBuffer);
+		return WalletUtils.longHash(hashBuffer.data);
 	}
 
 	@Override
@@ -196,213 +423,412 @@ public class TransactionsListAdapter extends BaseAdapter
 	{
 		final int type = getItemViewType(position);
 
+		if (benchmark != null)
+			benchmark.beginBind();
+
 		if (type == VIEW_TYPE_TRANSACTION)
 		{
 			if (row == null)
 				row = inflater.inflate(R.layout.transaction_row_extended, null);
 
-			final Transaction tx = getItem(position);
-			bindView(row, tx);
+			if (cursor != null)
+			{
+				// cursor has been moved to the row by getItemViewType()
+				final WalletSnapshot snapshot = application.getWalletChangeDispatcher().getSnapshot();
+				final WalletSnapshot.TransactionSummary tx = snapshot != null ? snapshot.getTransaction(getCursorLongHash()) : null;
+				if (tx != null)
+					bindView(row, tx, snapshot.lastBlockSeenHeight);
+				else
+					bindCursorView(row); // wallet not loaded yet
+			}
+			else
+			{
+				bindView(row, getItem(position));
+			}
 		}
 		else if (type == VIEW_TYPE_WARNING)
 		{
 			if (row == null)
+			{
 				row = inflater.inflate(R.layout.transaction_row_warning, null);
 
-			final TextView messageView = (TextView) row.findViewById(R.id.transaction_row_warning_message);
-			messageView.setText(Html.fromHtml(context.getString(R.string.wallet_transactions_row_warning_backup)));
+				final TextView messageView = (TextView) row.findViewById(R.id.transaction_row_warning_message);
+				messageView.setText(textBackupWarning);
+			}
+		}
+		else if (type == VIEW_TYPE_ARCHIVED)
+		{
+			if (row == null)
+				row = inflater.inflate(R.layout.transaction_row_extended, null);
+
+			if (cursor != null)
+				bindCursorView(row);
+			else
+				bindArchivedView(row, getArchivedItem(position));
 		}
 		else
 		{
 			throw new IllegalStateException("unknown type: " + type);
 		}
 
+		if (benchmark != null)
+			benchmark.endBind();
+
 		return row;
 	}
 
+	/**
+	 * What a row shows, computed from a wallet transaction, a cursor row or an archived summary. A single instance is
+	 * refilled for every bind, so it adds no allocations.
+	 */
+	private static final class RowModel
+	{
+		private ConfidenceType confidenceType;
+		private int depth;
+		private int appearedAtChainHeight; // -1 if depth is not to follow the chain
+		private int numBroadcastPeers;
+		private boolean coinBase;
+		private int textColor;
+		private long time; // 0 if unknown
+		private int fromToResId;
+		private String label;
+		private boolean labelIsAddress;
+		private BigInteger value;
+		@CheckForNull
+		private CharSequence message;
+		private int messageColor;
+	}
+
+	/**
+	 * Views of a row, looked up once when the row is first bound. Time and message are missing from one-line rows.
+	 */
+	private static final class ViewHolder
+	{
+		private final CircularProgressView confidenceCircular;
+		private final TextView confidenceTextual;
+		@CheckForNull
+		private final TextView time;
+		private final TextView fromTo;
+		private final View coinbase;
+		private final TextView address;
+		private final CurrencyTextView value;
+		@CheckForNull
+		private final View extend;
+		@CheckForNull
+		private final TextView message;
+		private int appearedAtChainHeight = -1;
+
+		private ViewHolder(final View row)
+		{
+			confidenceCircular = (CircularProgressView) row.findViewById(R.id.transaction_row_confidence_circular);
+			confidenceTextual = (TextView) row.findViewById(R.id.transaction_row_confidence_textual);
+			time = (TextView) row.findViewById(R.id.transaction_row_time);
+			fromTo = (TextView) row.findViewById(R.id.transaction_row_fromto);
+			coinbase = row.findViewById(R.id.transaction_row_coinbase);
+			address = (TextView) row.findViewById(R.id.transaction_row_address);
+			value = (CurrencyTextView) row.findViewById(R.id.transaction_row_value);
+			value.setAlwaysSigned(true);
+			extend = row.findViewById(R.id.transaction_row_extend);
+			message = (TextView) row.findViewById(R.id.transaction_row_message);
+		}
+
+		private static ViewHolder of(final View row)
+		{
+			final Object tag = row.getTag();
+			if (tag instanceof ViewHolder)
+				return (ViewHolder) tag;
+
+			final ViewHolder holder = new ViewHolder(row);
+			row.setTag(holder);
+			return holder;
+		}
+	}
+
+	/**
+	 * Binds a row from the live transaction, for transactions that are not in a snapshot yet, like one just sent.
+	 */
 	public void bindView(@Nonnull final View row, @Nonnull final Transaction tx)
 	{
 		final TransactionConfidence confidence = tx.getConfidence();
 		final ConfidenceType confidenceType = confidence.getConfidenceType();
 		final boolean isOwn = confidence.getSource().equals(TransactionConfidence.Source.SELF);
+		final int numBroadcastPeers = confidence.numBroadcastPeers();
 		final boolean isCoinBase = tx.isCoinBase();
-		final boolean isInternal = WalletUtils.isInternal(tx);
+		final TransactionMemo.Record memo = application.getTransactionMemo().get(tx, wallet);
+		final BigInteger value = memo.value;
 
-		final BigInteger value = tx.getValue(wallet);
-		final boolean sent = value.signum() < 0;
+		// spendability
+		final int textColor;
+		if (confidenceType == ConfidenceType.DEAD)
+			textColor = Color.RED;
+		else
+			textColor = memo.selectable ? colorSignificant : colorInsignificant;
 
-		final CircularProgressView rowConfidenceCircular = (CircularProgressView) row.findViewById(R.id.transaction_row_confidence_circular);
-		final TextView rowConfidenceTextual = (TextView) row.findViewById(R.id.transaction_row_confidence_textual);
+		final Date time = tx.getUpdateTime();
 
-		// confidence
-		if (confidenceType == ConfidenceType.PENDING)
+		final RowModel model = rowModel;
+		model.confidenceType = confidenceType;
+		model.depth = confidenceType == ConfidenceType.BUILDING ? confidence.getDepthInBlocks() : 0;
+		model.appearedAtChainHeight = confidenceType == ConfidenceType.BUILDING ? confidence.getAppearedAtChainHeight() : -1;
+		model.numBroadcastPeers = numBroadcastPeers;
+		fillSummary(model, value, time != null ? time.getTime() : 0, isCoinBase, memo.internal, memo.addressString, textColor);
+		fillMessage(model, tx.getPurpose(), isOwn, tx.isTimeLocked());
+
+		bind(ViewHolder.of(row), model);
+	}
+
+	/**
+	 * Binds a row from a snapshot summary, so no wallet state is read. Depth follows from the chain height of the
+	 * snapshot.
+	 */
+	public void bindView(@Nonnull final View row, @Nonnull final WalletSnapshot.TransactionSummary tx, final int chainHeight)
+	{
+		final ConfidenceType confidenceType = tx.confidenceType;
+
+		// spendability
+		final int textColor;
+		if (confidenceType == ConfidenceType.DEAD)
+			textColor = Color.RED;
+		else
+			textColor = tx.selectable ? colorSignificant : colorInsignificant;
+
+		final RowModel model = rowModel;
+		model.confidenceType = confidenceType;
+		model.depth = tx.getDepthInBlocks(chainHeight);
+		model.appearedAtChainHeight = tx.appearedAtChainHeight;
+		model.numBroadcastPeers = tx.numBroadcastPeers;
+		fillSummary(model, tx.value, tx.time != null ? tx.time.getTime() : 0, tx.coinBase, tx.internal, tx.addressString, textColor);
+		fillMessage(model, tx.purpose, tx.own, tx.timeLocked);
+
+		bind(ViewHolder.of(row), model);
+	}
+
+	/**
+	 * Fills in the extended message, from what has been filled in by
+	 * {@link #fillSummary(RowModel, BigInteger, long, boolean, boolean, String, int)} and the given state.
+	 */
+	private void fillMessage(final RowModel model, final Purpose purpose, final boolean isOwn, final boolean timeLocked)
+	{
+		final ConfidenceType confidenceType = model.confidenceType;
+		final int numBroadcastPeers = model.numBroadcastPeers;
+		final BigInteger value = model.value;
+		final boolean sent = value.signum() < 0;
+
+		if (purpose == Purpose.KEY_ROTATION)
 		{
-			rowConfidenceCircular.setVisibility(View.VISIBLE);
-			rowConfidenceTextual.setVisibility(View.GONE);
-
-			rowConfidenceCircular.setProgress(1);
-			rowConfidenceCircular.setMaxProgress(1);
-			rowConfidenceCircular.setSize(confidence.numBroadcastPeers());
-			rowConfidenceCircular.setMaxSize(maxConnectedPeers / 2); // magic value
-			rowConfidenceCircular.setColors(colorInsignificant, colorInsignificant);
+			model.message = textKeyRotation;
+			model.messageColor = colorSignificant;
 		}
-		else if (confidenceType == ConfidenceType.BUILDING)
+		else if (isOwn && confidenceType == ConfidenceType.PENDING && numBroadcastPeers == 0)
 		{
-			rowConfidenceCircular.setVisibility(View.VISIBLE);
-			rowConfidenceTextual.setVisibility(View.GONE);
-
-			rowConfidenceCircular.setProgress(confidence.getDepthInBlocks());
-			rowConfidenceCircular.setMaxProgress(isCoinBase ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth()
-					: Constants.MAX_NUM_CONFIRMATIONS);
-			rowConfidenceCircular.setSize(1);
-			rowConfidenceCircular.setMaxSize(1);
-			rowConfidenceCircular.setColors(colorCircularBuilding, Color.DKGRAY);
+			model.message = context.getText(R.string.transaction_row_message_own_unbroadcasted);
+			model.messageColor = colorInsignificant;
 		}
-		else if (confidenceType == ConfidenceType.DEAD)
+		else if (!isOwn && confidenceType == ConfidenceType.PENDING && numBroadcastPeers == 0)
 		{
-			rowConfidenceCircular.setVisibility(View.GONE);
-			rowConfidenceTextual.setVisibility(View.VISIBLE);
-
-			rowConfidenceTextual.setText(CONFIDENCE_SYMBOL_DEAD);
-			rowConfidenceTextual.setTextColor(Color.RED);
+			model.message = context.getText(R.string.transaction_row_message_received_direct);
+			model.messageColor = colorInsignificant;
 		}
-		else
+		else if (!sent && value.compareTo(Transaction.MIN_NONDUST_OUTPUT) < 0)
 		{
-			rowConfidenceCircular.setVisibility(View.GONE);
-			rowConfidenceTextual.setVisibility(View.VISIBLE);
-
-			rowConfidenceTextual.setText(CONFIDENCE_SYMBOL_UNKNOWN);
-			rowConfidenceTextual.setTextColor(colorInsignificant);
+			model.message = context.getText(R.string.transaction_row_message_received_dust);
+			model.messageColor = colorInsignificant;
+		}
+		else if (!sent && confidenceType == ConfidenceType.PENDING)
+		{
+			if (timeLocked)
+			{
+				model.message = context.getText(R.string.transaction_row_message_received_unconfirmed_locked);
+				model.messageColor = colorError;
+			}
+			else
+			{
+				model.message = context.getText(R.string.transaction_row_message_received_unconfirmed_unlocked);
+				model.messageColor = colorInsignificant;
+			}
+		}
+		else if (!sent && confidenceType == ConfidenceType.DEAD)
+		{
+			model.message = context.getText(R.string.transaction_row_message_received_dead);
+			model.messageColor = colorError;
 		}
+	}
+
+	/**
+	 * Archived transactions are deeply confirmed and spent by definition, so there is no confidence or message to show.
+	 */
+	public void bindArchivedView(@Nonnull final View row, @Nonnull final TransactionArchive.Summary tx)
+	{
+		final RowModel model = rowModel;
+		model.confidenceType = ConfidenceType.BUILDING;
+		model.depth = tx.coinBase ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth() : Constants.MAX_NUM_CONFIRMATIONS;
+		model.appearedAtChainHeight = -1;
+		model.numBroadcastPeers = 0;
+		fillSummary(model, tx.value, tx.time != null ? tx.time.getTime() : 0, tx.coinBase, tx.internal, tx.address, colorInsignificant);
+
+		bind(ViewHolder.of(row), model);
+	}
+
+	/**
+	 * Binds a row of a {@link TransactionsProvider} cursor. Only what is stored there is shown, no message. Depth is
+	 * derived from the height the transaction appeared at, archived transactions are deep by definition.
+	 */
+	private void bindCursorView(final View row)
+	{
+		final boolean archived = isCursorArchived();
+		final ConfidenceType confidenceType = ConfidenceType.valueOf(cursor.getString(columnConfidence));
+		final boolean coinBase = cursor.getInt(columnCoinBase) != 0;
+		final boolean internal = cursor.isNull(columnDirection);
+		final long time = cursor.getLong(columnTime);
+		final String address = cursor.getString(columnAddress);
+		final BigInteger value = BigInteger.valueOf(cursor.getLong(columnValue));
 
-		// spendability
 		final int textColor;
 		if (confidenceType == ConfidenceType.DEAD)
 			textColor = Color.RED;
 		else
-			textColor = DefaultCoinSelector.isSelectable(tx) ? colorSignificant : colorInsignificant;
+			textColor = archived ? colorInsignificant : colorSignificant;
 
-		// time
-		final TextView rowTime = (TextView) row.findViewById(R.id.transaction_row_time);
-		if (rowTime != null)
-		{
-			final Date time = tx.getUpdateTime();
-			rowTime.setText(time != null ? (DateUtils.getRelativeTimeSpanString(context, time.getTime())) : null);
-			rowTime.setTextColor(textColor);
-		}
+		final int appearedAtChainHeight = cursor.getInt(columnAppearedAtHeight);
 
-		// receiving or sending
-		final TextView rowFromTo = (TextView) row.findViewById(R.id.transaction_row_fromto);
-		if (isInternal)
-			rowFromTo.setText(R.string.symbol_internal);
-		else if (sent)
-			rowFromTo.setText(R.string.symbol_to);
+		final RowModel model = rowModel;
+		model.confidenceType = confidenceType;
+		if (archived)
+			model.depth = coinBase ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth() : Constants.MAX_NUM_CONFIRMATIONS;
 		else
-			rowFromTo.setText(R.string.symbol_from);
-		rowFromTo.setTextColor(textColor);
+			model.depth = appearedAtChainHeight >= 0 ? Math.max(cursorChainHeight - appearedAtChainHeight + 1, 1) : 0;
+		model.appearedAtChainHeight = appearedAtChainHeight;
+		model.numBroadcastPeers = 0;
+		fillSummary(model, value, time, coinBase, internal, address, textColor);
+
+		bind(ViewHolder.of(row), model);
+	}
 
-		// coinbase
-		final View rowCoinbase = row.findViewById(R.id.transaction_row_coinbase);
-		rowCoinbase.setVisibility(isCoinBase ? View.VISIBLE : View.GONE);
+	private void fillSummary(final RowModel model, final BigInteger value, final long time, final boolean coinBase, final boolean internal,
+			@Nullable final String address, final int textColor)
+	{
+		model.value = value;
+		model.time = time;
+		model.coinBase = coinBase;
+		model.textColor = textColor;
+
+		// receiving or sending
+		if (internal)
+			model.fromToResId = R.string.symbol_internal;
+		else if (value.signum() < 0)
+			model.fromToResId = R.string.symbol_to;
+		else
+			model.fromToResId = R.string.symbol_from;
 
 		// address
-		final TextView rowAddress = (TextView) row.findViewById(R.id.transaction_row_address);
-		final Address address = sent ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
 		final String label;
-		if (isCoinBase)
+		if (coinBase)
 			label = textCoinBase;
-		else if (isInternal)
+		else if (internal)
 			label = textInternal;
 		else if (address != null)
-			label = resolveLabel(address.toString());
+			label = application.getAddressLabelResolver().resolve(address);
 		else
 			label = "?";
-		rowAddress.setTextColor(textColor);
-		rowAddress.setText(label != null ? label : address.toString());
-		rowAddress.setTypeface(label != null ? Typeface.DEFAULT : Typeface.MONOSPACE);
-
-		// value
-		final CurrencyTextView rowValue = (CurrencyTextView) row.findViewById(R.id.transaction_row_value);
-		rowValue.setTextColor(textColor);
-		rowValue.setAlwaysSigned(true);
-		rowValue.setPrecision(precision, shift);
-		rowValue.setAmount(value);
-
-		// extended message
-		final View rowExtend = row.findViewById(R.id.transaction_row_extend);
-		if (rowExtend != null)
-		{
-			final TextView rowMessage = (TextView) row.findViewById(R.id.transaction_row_message);
-			final boolean isTimeLocked = tx.isTimeLocked();
-			rowExtend.setVisibility(View.GONE);
+		model.label = label != null ? label : address;
+		model.labelIsAddress = label == null;
 
-			if (tx.getPurpose() == Purpose.KEY_ROTATION)
-			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(Html.fromHtml(context.getString(R.string.transaction_row_message_purpose_key_rotation)));
-				rowMessage.setTextColor(colorSignificant);
-			}
-			else if (isOwn && confidenceType == ConfidenceType.PENDING && confidence.numBroadcastPeers() == 0)
-			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_own_unbroadcasted);
-				rowMessage.setTextColor(colorInsignificant);
-			}
-			else if (!isOwn && confidenceType == ConfidenceType.PENDING && confidence.numBroadcastPeers() == 0)
-			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_received_direct);
-				rowMessage.setTextColor(colorInsignificant);
-			}
-			else if (!sent && value.compareTo(Transaction.MIN_NONDUST_OUTPUT) < 0)
-			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_received_dust);
-				rowMessage.setTextColor(colorInsignificant);
-			}
-			else if (!sent && confidenceType == ConfidenceType.PENDING && isTimeLocked)
-			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_received_unconfirmed_locked);
-				rowMessage.setTextColor(colorError);
-			}
-			else if (!sent && confidenceType == ConfidenceType.PENDING && !isTimeLocked)
-			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_received_unconfirmed_unlocked);
-				rowMessage.setTextColor(colorInsignificant);
-			}
-			else if (!sent && confidenceType == ConfidenceType.DEAD)
-			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_received_dead);
-				rowMessage.setTextColor(colorError);
-			}
-		}
+		model.message = null;
 	}
 
-	private String resolveLabel(@Nonnull final String address)
+	private void bind(final ViewHolder holder, final RowModel model)
 	{
-		final String cachedLabel = labelCache.get(address);
-		if (cachedLabel == null)
+		final int textColor = model.textColor;
+
+		// confidence
+		holder.appearedAtChainHeight = model.appearedAtChainHeight;
+		if (model.confidenceType == ConfidenceType.PENDING)
 		{
-			final String label = AddressBookProvider.resolveLabel(context, address);
-			if (label != null)
-				labelCache.put(address, label);
-			else
-				labelCache.put(address, CACHE_NULL_MARKER);
-			return label;
+			holder.confidenceCircular.setVisibility(View.VISIBLE);
+			holder.confidenceTextual.setVisibility(View.GONE);
+
+			holder.confidenceCircular.setProgress(1);
+			holder.confidenceCircular.setMaxProgress(1);
+			holder.confidenceCircular.setSize(model.numBroadcastPeers);
+			holder.confidenceCircular.setMaxSize(application.maxConnectedPeers() / 2); // magic value
+			holder.confidenceCircular.setColors(colorInsignificant, colorInsignificant);
+		}
+		else if (model.confidenceType == ConfidenceType.BUILDING)
+		{
+			holder.confidenceCircular.setVisibility(View.VISIBLE);
+			holder.confidenceTextual.setVisibility(View.GONE);
+
+			holder.confidenceCircular.setProgress(model.depth);
+			holder.confidenceCircular.setMaxProgress(model.coinBase ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth()
+					: Constants.MAX_NUM_CONFIRMATIONS);
+			holder.confidenceCircular.setSize(1);
+			holder.confidenceCircular.setMaxSize(1);
+			holder.confidenceCircular.setColors(colorCircularBuilding, Color.DKGRAY);
+		}
+		else if (model.confidenceType == ConfidenceType.DEAD)
+		{
+			holder.confidenceCircular.setVisibility(View.GONE);
+			holder.confidenceTextual.setVisibility(View.VISIBLE);
+
+			holder.confidenceTextual.setText(CONFIDENCE_SYMBOL_DEAD);
+			holder.confidenceTextual.setTextColor(Color.RED);
 		}
 		else
 		{
-			return cachedLabel != CACHE_NULL_MARKER ? cachedLabel : null;
+			holder.confidenceCircular.setVisibility(View.GONE);
+			holder.confidenceTextual.setVisibility(View.VISIBLE);
+
+			holder.confidenceTextual.setText(CONFIDENCE_SYMBOL_UNKNOWN);
+			holder.confidenceTextual.setTextColor(colorInsignificant);
+		}
+
+		// time
+		if (holder.time != null)
+		{
+			holder.time.setText(model.time != 0 ? relativeTimeCache.format(model.time) : null);
+			holder.time.setTextColor(textColor);
+		}
+
+		holder.fromTo.setText(model.fromToResId);
+		holder.fromTo.setTextColor(textColor);
+
+		holder.coinbase.setVisibility(model.coinBase ? View.VISIBLE : View.GONE);
+
+		holder.address.setTextColor(textColor);
+		holder.address.setText(model.label);
+		holder.address.setTypeface(model.labelIsAddress ? Typeface.MONOSPACE : Typeface.DEFAULT);
+
+		holder.value.setTextColor(textColor);
+		holder.value.setPrecision(precision, shift);
+		holder.value.setAmount(model.value);
+
+		if (holder.extend != null)
+		{
+			if (model.message != null)
+			{
+				holder.extend.setVisibility(View.VISIBLE);
+				holder.message.setText(model.message);
+				holder.message.setTextColor(model.messageColor);
+			}
+			else
+			{
+				holder.extend.setVisibility(View.GONE);
+			}
 		}
 	}
 
-	public void clearLabelCache()
+	/**
+	 * Redraws only the confidence of a row bound from a building wallet transaction, deriving its depth from the chain
+	 * height. Other rows are left alone.
+	 */
+	public void updateDepth(@Nonnull final View row, final int chainHeight)
 	{
-		labelCache.clear();
+		final Object tag = row.getTag();
+		if (!(tag instanceof ViewHolder))
+			return;
 
-		notifyDataSetChanged();
+		final ViewHolder holder = (ViewHolder) tag;
+		if (holder.appearedAtChainHeight >= 0)
+			holder.confidenceCircular.setProgress(chainHeight - holder.appearedAtChainHeight + 1);
 	}
 }
@@ -17,15 +17,13 @@
 
 package com.tedchain.tedcoin_android_wallet.ui;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.text.DateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -35,27 +33,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.database.ContentObserver;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Typeface;
 import android.net.Uri;
 import android.nfc.NfcManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
-import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.widget.SearchViewCompat;
 import android.text.SpannableStringBuilder;
 import android.text.format.DateUtils;
 import android.text.style.StyleSpan;
 import android.view.View;
 import android.widget.ListView;
+import android.widget.Toast;
 
 import com.actionbarsherlock.app.SherlockListFragment;
 import com.actionbarsherlock.view.ActionMode;
@@ -64,27 +64,31 @@ import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
 import com.tedchain.tedcoinj.core.Address;
 import com.tedchain.tedcoinj.core.ScriptException;
+import com.tedchain.tedcoinj.core.Sha256Hash;
 import com.tedchain.tedcoinj.core.Transaction;
 import com.tedchain.tedcoinj.core.Transaction.Purpose;
-import com.tedchain.tedcoinj.core.TransactionConfidence.ConfidenceType;
 import com.tedchain.tedcoinj.core.Wallet;
-import com.tedchain.tedcoinj.utils.Threading;
 
-import com.tedchain.tedcoin_android_wallet.AddressBookProvider;
 import com.tedchain.tedcoin_android_wallet.Configuration;
 import com.tedchain.tedcoin_android_wallet.Constants;
+import com.tedchain.tedcoin_android_wallet.TransactionsProvider;
 import com.tedchain.tedcoin_android_wallet.WalletApplication;
+import com.tedchain.tedcoin_android_wallet.data.WalletDelta;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+import com.tedchain.tedcoin_android_wallet.store.TransactionArchive;
+import com.tedchain.tedcoin_android_wallet.util.AddressLabelResolver;
 import com.tedchain.tedcoin_android_wallet.util.BitmapFragment;
 import com.tedchain.tedcoin_android_wallet.util.Nfc;
 import com.tedchain.tedcoin_android_wallet.util.Qr;
-import com.tedchain.tedcoin_android_wallet.util.ThrottlingWalletChangeListener;
+import com.tedchain.tedcoin_android_wallet.util.TransactionSearchQuery;
+import com.tedchain.tedcoin_android_wallet.util.WalletChangeDispatcher;
 import com.tedchain.tedcoin_android_wallet.util.WalletUtils;
 import com.tedchain.tedcoin_android_wallet.R;
 
 /**
  * @author Andreas Schildbach
  */
-public class TransactionsListFragment extends SherlockListFragment implements LoaderCallbacks<List<Transaction>>, OnSharedPreferenceChangeListener
+public class TransactionsListFragment extends SherlockListFragment implements LoaderCallbacks<Cursor>, OnSharedPreferenceChangeListener
 {
 	public enum Direction
 	{
@@ -96,18 +100,27 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	private Configuration config;
 	private Wallet wallet;
 	private NfcManager nfcManager;
-	private ContentResolver resolver;
 	private LoaderManager loaderManager;
 
 	private TransactionsListAdapter adapter;
 
 	@CheckForNull
 	private Direction direction;
+	private boolean showBackupWarning;
+
+	@CheckForNull
+	private TransactionSearchQuery searchQuery = null;
+	/** loader the adapter's cursor came from, so requeries can be told from new queries */
+	@CheckForNull
+	private Loader<Cursor> cursorLoader = null;
 
 	private final Handler handler = new Handler();
 
+	@CheckForNull
+	private ListScrollBenchmark scrollBenchmark = null;
+	private boolean scrollBenchmarkDone = false;
+
 	private static final String KEY_DIRECTION = "direction";
-	private static final long THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
 	private static final Uri KEY_ROTATION_URI = Uri.parse("http://tedcoin.org/en/alert/2013-08-11-android");
 
 	private static final Logger log = LoggerFactory.getLogger(TransactionsListFragment.class);
@@ -123,12 +136,12 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		return fragment;
 	}
 
-	private final ContentObserver addressBookObserver = new ContentObserver(handler)
+	private final AddressLabelResolver.Listener labelsListener = new AddressLabelResolver.Listener()
 	{
 		@Override
-		public void onChange(final boolean selfChange)
+		public void onLabelsChanged(final String address)
 		{
-			adapter.clearLabelCache();
+			adapter.notifyDataSetChanged();
 		}
 	};
 
@@ -142,7 +155,6 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		this.config = application.getConfiguration();
 		this.wallet = application.getWallet();
 		this.nfcManager = (NfcManager) activity.getSystemService(Context.NFC_SERVICE);
-		this.resolver = activity.getContentResolver();
 		this.loaderManager = getLoaderManager();
 	}
 
@@ -155,10 +167,12 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 
 		this.direction = (Direction) getArguments().getSerializable(KEY_DIRECTION);
 
-		final boolean showBackupWarning = direction == null || direction == Direction.RECEIVED;
+		showBackupWarning = direction == null || direction == Direction.RECEIVED;
 
-		adapter = new TransactionsListAdapter(activity, wallet, application.maxConnectedPeers(), showBackupWarning);
+		adapter = new TransactionsListAdapter(activity, wallet, showBackupWarning);
 		setListAdapter(adapter);
+
+		setHasOptionsMenu(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB);
 	}
 
 	@Override
@@ -166,13 +180,13 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	{
 		super.onResume();
 
-		resolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, addressBookObserver);
+		application.getAddressLabelResolver().addListener(labelsListener);
 
 		config.registerOnSharedPreferenceChangeListener(this);
 
 		loaderManager.initLoader(0, null, this);
 
-		wallet.addEventListener(transactionChangeListener, Threading.SAME_THREAD);
+		application.getWalletChangeDispatcher().addSubscriber(walletChangeSubscriber);
 
 		updateView();
 	}
@@ -182,27 +196,81 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	{
 		super.onViewCreated(view, savedInstanceState);
 
-		final SpannableStringBuilder emptyText = new SpannableStringBuilder(
-				getString(direction == Direction.SENT ? R.string.wallet_transactions_fragment_empty_text_sent
-						: R.string.wallet_transactions_fragment_empty_text_received));
+		updateEmptyText();
+	}
+
+	private void updateEmptyText()
+	{
+		final int emptyTextResId;
+		if (searchQuery != null)
+			emptyTextResId = R.string.wallet_transactions_fragment_empty_search;
+		else if (direction == Direction.SENT)
+			emptyTextResId = R.string.wallet_transactions_fragment_empty_text_sent;
+		else
+			emptyTextResId = R.string.wallet_transactions_fragment_empty_text_received;
+
+		final SpannableStringBuilder emptyText = new SpannableStringBuilder(getString(emptyTextResId));
 		emptyText.setSpan(new StyleSpan(Typeface.BOLD), 0, emptyText.length(), SpannableStringBuilder.SPAN_POINT_MARK);
-		if (direction != Direction.SENT)
+		if (searchQuery == null && direction != Direction.SENT)
 			emptyText.append("\n\n").append(getString(R.string.wallet_transactions_fragment_empty_text_howto));
 
 		setEmptyText(emptyText);
 	}
 
+	@Override
+	public void onCreateOptionsMenu(final Menu menu, final MenuInflater inflater)
+	{
+		inflater.inflate(R.menu.wallet_transactions_fragment_options, menu);
+
+		final View searchView = menu.findItem(R.id.wallet_transactions_options_search).getActionView();
+		if (searchView != null)
+		{
+			SearchViewCompat.setQueryHint(searchView, getString(R.string.wallet_transactions_options_search_hint));
+			SearchViewCompat.setOnQueryTextListener(searchView, new SearchViewCompat.OnQueryTextListenerCompat()
+			{
+				@Override
+				public boolean onQueryTextChange(final String newText)
+				{
+					searchQuery = TransactionSearchQuery.parse(newText, config.getPPCShift());
+
+					adapter.setShowBackupWarning(searchQuery == null && showBackupWarning);
+					updateEmptyText();
+
+					loaderManager.restartLoader(0, null, TransactionsListFragment.this);
+
+					return true;
+				}
+
+				@Override
+				public boolean onQueryTextSubmit(final String query)
+				{
+					searchView.clearFocus();
+
+					return true;
+				}
+			});
+		}
+
+		super.onCreateOptionsMenu(menu, inflater);
+	}
+
 	@Override
 	public void onPause()
 	{
-		wallet.removeEventListener(transactionChangeListener);
-		transactionChangeListener.removeCallbacks();
+		application.getWalletChangeDispatcher().removeSubscriber(walletChangeSubscriber);
+
+		if (scrollBenchmark != null)
+		{
+			scrollBenchmark.cancel();
+			scrollBenchmark = null;
+			adapter.setBenchmark(null);
+		}
 
 		loaderManager.destroyLoader(0);
 
 		config.unregisterOnSharedPreferenceChangeListener(this);
 
-		resolver.unregisterContentObserver(addressBookObserver);
+		application.getAddressLabelResolver().removeListener(labelsListener);
 
 		super.onPause();
 	}
@@ -211,16 +279,35 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	public void onListItemClick(final ListView l, final View v, final int position, final long id)
 	{
 		final Transaction tx = (Transaction) adapter.getItem(position);
+		final TransactionArchive.Summary archivedTx = adapter.getArchivedItem(position);
 
-		if (tx == null)
+		if (archivedTx != null)
+			handleArchivedTransactionClick(archivedTx);
+		else if (adapter.isWarning(position))
 			handleBackupWarningClick();
+		else if (tx == null)
+			return; // wallet not loaded yet
 		else if (tx.getPurpose() == Purpose.KEY_ROTATION)
 			handleKeyRotationClick();
 		else
-			handleTransactionClick(tx);
+			handleTransactionClick(tx, application.getTransactionMemo().get(tx, wallet).value);
+	}
+
+	private void handleArchivedTransactionClick(@Nonnull final TransactionArchive.Summary archivedTx)
+	{
+		try
+		{
+			// full data is only loaded on demand; the archived value is used as inputs cannot be connected anymore
+			final Transaction tx = application.getTransactionArchive().load(archivedTx);
+			handleTransactionClick(tx, archivedTx.value);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem loading archived transaction " + archivedTx.hash, x);
+		}
 	}
 
-	private void handleTransactionClick(@Nonnull final Transaction tx)
+	private void handleTransactionClick(@Nonnull final Transaction tx, @Nonnull final BigInteger value)
 	{
 		activity.startActionMode(new ActionMode.Callback()
 		{
@@ -250,7 +337,6 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 					mode.setTitle(time != null ? (DateUtils.isToday(time.getTime()) ? getString(R.string.time_today) : dateFormat.format(time))
 							+ ", " + timeFormat.format(time) : null);
 
-					final BigInteger value = tx.getValue(wallet);
 					final boolean sent = value.signum() < 0;
 
 					address = sent ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
@@ -259,7 +345,7 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 					if (tx.isCoinBase())
 						label = getString(R.string.wallet_transactions_fragment_coinbase);
 					else if (address != null)
-						label = AddressBookProvider.resolveLabel(activity, address.toString());
+						label = application.getAddressLabelResolver().resolve(address.toString());
 					else
 						label = "?";
 
@@ -344,127 +430,118 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	}
 
 	@Override
-	public Loader<List<Transaction>> onCreateLoader(final int id, final Bundle args)
+	public Loader<Cursor> onCreateLoader(final int id, final Bundle args)
 	{
-		return new TransactionsLoader(activity, wallet, direction);
-	}
+		final String selection = direction != null ? TransactionsProvider.KEY_DIRECTION + "=?" : null;
+		final String[] selectionArgs = direction != null ? new String[] { direction.name() } : null;
 
-	@Override
-	public void onLoadFinished(final Loader<List<Transaction>> loader, final List<Transaction> transactions)
-	{
-		adapter.replace(transactions);
-	}
+		if (searchQuery != null)
+			return new TransactionSearchLoader(activity, application.getAddressLabelResolver(), searchQuery, selection, selectionArgs);
 
-	@Override
-	public void onLoaderReset(final Loader<List<Transaction>> loader)
-	{
-		// don't clear the adapter, because it will confuse users
+		final Uri uri = TransactionsProvider.contentUri(activity.getPackageName());
+		return new CursorLoader(activity, uri, null, selection, selectionArgs, TransactionsProvider.SORT_ORDER);
 	}
 
-	private final ThrottlingWalletChangeListener transactionChangeListener = new ThrottlingWalletChangeListener(THROTTLE_MS)
-	{
-		@Override
-		public void onThrottledWalletChanged()
-		{
-			adapter.notifyDataSetChanged();
-		}
-	};
-
-	private static class TransactionsLoader extends AsyncTaskLoader<List<Transaction>>
+	@Override
+	public void onLoadFinished(final Loader<Cursor> loader, final Cursor cursor)
 	{
-		private final Wallet wallet;
-		@CheckForNull
-		private final Direction direction;
-
-		private TransactionsLoader(final Context context, @Nonnull final Wallet wallet, @Nullable final Direction direction)
+		if (loader == cursorLoader)
 		{
-			super(context);
-
-			this.wallet = wallet;
-			this.direction = direction;
+			// requeried after the table changed, so only rebind the visible rows that changed
+			final ListView listView = getListView();
+			final int firstPosition = listView.getFirstVisiblePosition();
+			final List<Integer> changedPositions = adapter.swapRequeriedCursor(cursor, firstPosition, listView.getLastVisiblePosition());
+			if (changedPositions != null)
+				for (final int position : changedPositions)
+					adapter.getView(position, listView.getChildAt(position - firstPosition), listView);
 		}
-
-		@Override
-		protected void onStartLoading()
+		else
 		{
-			super.onStartLoading();
-
-			wallet.addEventListener(transactionAddRemoveListener, Threading.SAME_THREAD);
-			transactionAddRemoveListener.onReorganize(null); // trigger at least one reload
-
-			forceLoad();
+			adapter.swapCursor(cursor);
+			cursorLoader = loader;
 		}
 
-		@Override
-		protected void onStopLoading()
+		if (!scrollBenchmarkDone && cursor.getCount() > 0 && config.getScrollBenchmarkEnabled())
 		{
-			wallet.removeEventListener(transactionAddRemoveListener);
-			transactionAddRemoveListener.removeCallbacks();
+			scrollBenchmarkDone = true;
 
-			super.onStopLoading();
+			// list needs to be laid out with the new rows first
+			handler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if (isResumed())
+						startScrollBenchmark();
+				}
+			});
 		}
+	}
 
-		@Override
-		public List<Transaction> loadInBackground()
+	private void startScrollBenchmark()
+	{
+		scrollBenchmark = new ListScrollBenchmark(getListView(), new ListScrollBenchmark.Listener()
 		{
-			final Set<Transaction> transactions = wallet.getTransactions(true);
-			final List<Transaction> filteredTransactions = new ArrayList<Transaction>(transactions.size());
-
-			for (final Transaction tx : transactions)
+			@Override
+			public void onBenchmarkFinished(final ListScrollBenchmark benchmark)
 			{
-				final boolean sent = tx.getValue(wallet).signum() < 0;
-				final boolean isInternal = WalletUtils.isInternal(tx);
+				adapter.setBenchmark(null);
+				scrollBenchmark = null;
 
-				if ((direction == Direction.RECEIVED && !sent && !isInternal) || direction == null
-						|| (direction == Direction.SENT && sent && !isInternal))
-					filteredTransactions.add(tx);
+				final String result = benchmark.toString();
+				log.info("transaction list scroll benchmark: {}", result);
+				Toast.makeText(activity, result, Toast.LENGTH_LONG).show();
 			}
+		});
+		adapter.setBenchmark(scrollBenchmark);
+		scrollBenchmark.start();
+	}
 
-			Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
+	@Override
+	public void onLoaderReset(final Loader<Cursor> loader)
+	{
+		adapter.swapCursor(null);
+		cursorLoader = null;
+	}
 
-			return filteredTransactions;
+	private final WalletChangeDispatcher.Subscriber walletChangeSubscriber = new WalletChangeDispatcher.Subscriber()
+	{
+		@Override
+		public void onWalletChanged(final WalletSnapshot snapshot, final WalletDelta delta)
+		{
+			// rows are bound from the wallet transactions, while the cursor reloads only if a stored summary changes
+			if (delta.hasTransactionsAddedOrRemoved())
+				adapter.notifyDataSetChanged();
+			else if (!delta.confidenceChanged.isEmpty())
+				updateVisibleRows(snapshot, delta);
 		}
+	};
 
-		private final ThrottlingWalletChangeListener transactionAddRemoveListener = new ThrottlingWalletChangeListener(THROTTLE_MS, true, true, false)
-		{
-			@Override
-			public void onThrottledWalletChanged()
-			{
-				try
-				{
-					forceLoad();
-				}
-				catch (final RejectedExecutionException x)
-				{
-					log.info("rejected execution: " + TransactionsLoader.this.toString());
-				}
-			}
-		};
+	/**
+	 * Rebinds only the visible rows whose transaction changed. If just depths moved, as with each new block, the
+	 * confidence circles are redrawn from the chain height.
+	 */
+	private void updateVisibleRows(final WalletSnapshot snapshot, final WalletDelta delta)
+	{
+		final Set<Long> changedIds = new HashSet<Long>();
+		for (final Sha256Hash hash : delta.confidenceChanged)
+			if (!delta.depthChanged.contains(hash))
+				changedIds.add(WalletUtils.longHash(hash));
 
-		private static final Comparator<Transaction> TRANSACTION_COMPARATOR = new Comparator<Transaction>()
+		final boolean depthChanged = !delta.depthChanged.isEmpty();
+
+		final ListView listView = getListView();
+		final int firstPosition = listView.getFirstVisiblePosition();
+		for (int i = 0; i < listView.getChildCount(); i++)
 		{
-			@Override
-			public int compare(final Transaction tx1, final Transaction tx2)
-			{
-				final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-				final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-
-				if (pending1 != pending2)
-					return pending1 ? -1 : 1;
-
-				final Date updateTime1 = tx1.getUpdateTime();
-				final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-				final Date updateTime2 = tx2.getUpdateTime();
-				final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
-
-				if (time1 > time2)
-					return -1;
-				else if (time1 < time2)
-					return 1;
-				else
-					return 0;
-			}
-		};
+			final int position = firstPosition + i;
+			final View row = listView.getChildAt(i);
+
+			if (changedIds.contains(listView.getItemIdAtPosition(position)))
+				adapter.getView(position, row, listView);
+			else if (depthChanged)
+				adapter.updateDepth(row, snapshot.lastBlockSeenHeight);
+		}
 	}
 
 	@Override
@@ -480,6 +557,5 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		final int PPCShift = config.getPPCShift();
 
 		adapter.setPrecision(PPCPrecision, PPCShift);
-		adapter.clearLabelCache();
 	}
 }
@@ -77,7 +77,6 @@ import com.tedchain.tedcoinj.core.AddressFormatException;
 import com.tedchain.tedcoinj.core.ECKey;
 import com.tedchain.tedcoinj.core.Transaction;
 import com.tedchain.tedcoinj.core.Wallet;
-import com.tedchain.tedcoinj.core.Wallet.BalanceType;
 import com.tedchain.tedcoinj.store.UnreadableWalletException;
 import com.tedchain.tedcoinj.store.WalletProtobufSerializer;
 
@@ -121,6 +120,7 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 
 		application = getWalletApplication();
 		config = application.getConfiguration();
+		application.refreshWalletIfStale();
 		wallet = application.getWallet();
 
 		setContentView(R.layout.wallet_content);
@@ -463,7 +463,7 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 		});
 
 		final View replaceWarningView = alertDialog.findViewById(R.id.restore_wallet_from_storage_dialog_replace_warning);
-		final boolean hasCoins = wallet.getBalance(BalanceType.ESTIMATED).signum() > 0;
+		final boolean hasCoins = application.getEstimatedBalance().signum() > 0;
 		replaceWarningView.setVisibility(hasCoins ? View.VISIBLE : View.GONE);
 
 		final Spinner fileView = (Spinner) alertDialog.findViewById(R.id.import_keys_from_storage_file);
@@ -883,6 +883,8 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 
 			final int numKeysToImport = importedKeys.size();
 			final int numKeysImported = wallet.addKeys(importedKeys);
+			if (numKeysImported > 0)
+				application.handOverKeys();
 
 			final DialogBuilder dialog = new DialogBuilder(this);
 			final StringBuilder message = new StringBuilder();
@@ -38,8 +38,9 @@ import com.tedchain.tedcoinj.core.Address;
 import com.tedchain.tedcoinj.core.ECKey;
 import com.tedchain.tedcoinj.core.Wallet;
 
-import com.tedchain.tedcoin_android_wallet.AddressBookProvider;
 import com.tedchain.tedcoin_android_wallet.Constants;
+import com.tedchain.tedcoin_android_wallet.WalletApplication;
+import com.tedchain.tedcoin_android_wallet.util.AddressLabelResolver;
 import com.tedchain.tedcoin_android_wallet.util.WalletUtils;
 import com.tedchain.tedcoin_android_wallet.R;
 
@@ -50,6 +51,7 @@ public class WalletAddressesAdapter extends BaseAdapter
 {
 	private final Context context;
 	private final Wallet wallet;
+	private final AddressLabelResolver labelResolver;
 	private final DateFormat dateFormat;
 	private final int colorSignificant;
 	private final int colorInsignificant;
@@ -65,6 +67,7 @@ public class WalletAddressesAdapter extends BaseAdapter
 
 		this.context = context;
 		this.wallet = wallet;
+		this.labelResolver = ((WalletApplication) context.getApplicationContext()).getAddressLabelResolver();
 		dateFormat = android.text.format.DateFormat.getDateFormat(context);
 		colorSignificant = res.getColor(R.color.fg_significant);
 		colorInsignificant = res.getColor(R.color.fg_insignificant);
@@ -77,6 +80,12 @@ public class WalletAddressesAdapter extends BaseAdapter
 		this.keys.clear();
 		this.keys.addAll(keys);
 
+		// warm up the label cache with a single query, rather than one per row
+		final List<String> addresses = new ArrayList<String>(keys.size());
+		for (final ECKey key : keys)
+			addresses.add(key.toAddress(Constants.NETWORK_PARAMETERS).toString());
+		labelResolver.resolve(addresses);
+
 		notifyDataSetChanged();
 	}
 
@@ -130,7 +139,7 @@ public class WalletAddressesAdapter extends BaseAdapter
 		addressView.setTextColor(isRotateKey ? colorInsignificant : colorSignificant);
 
 		final TextView labelView = (TextView) row.findViewById(R.id.address_book_row_label);
-		final String label = AddressBookProvider.resolveLabel(context, address.toString());
+		final String label = labelResolver.resolve(address.toString());
 		if (label != null)
 		{
 			labelView.setText(label);
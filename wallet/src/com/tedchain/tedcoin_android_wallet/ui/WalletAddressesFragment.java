@@ -24,14 +24,11 @@ import java.util.List;
 import javax.annotation.Nonnull;
 
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
 import android.text.ClipboardManager;
 import android.view.View;
 import android.widget.BaseAdapter;
@@ -43,20 +40,20 @@ import com.actionbarsherlock.view.ActionMode;
 import com.actionbarsherlock.view.Menu;
 import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
-import com.tedchain.tedcoinj.core.AbstractWalletEventListener;
 import com.tedchain.tedcoinj.core.Address;
 import com.tedchain.tedcoinj.core.ECKey;
 import com.tedchain.tedcoinj.core.Wallet;
-import com.tedchain.tedcoinj.core.WalletEventListener;
 import com.tedchain.tedcoinj.uri.tedcoinURI;
-import com.tedchain.tedcoinj.utils.Threading;
 
-import com.tedchain.tedcoin_android_wallet.AddressBookProvider;
 import com.tedchain.tedcoin_android_wallet.Configuration;
 import com.tedchain.tedcoin_android_wallet.Constants;
 import com.tedchain.tedcoin_android_wallet.WalletApplication;
+import com.tedchain.tedcoin_android_wallet.data.WalletDelta;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+import com.tedchain.tedcoin_android_wallet.util.AddressLabelResolver;
 import com.tedchain.tedcoin_android_wallet.util.BitmapFragment;
 import com.tedchain.tedcoin_android_wallet.util.Qr;
+import com.tedchain.tedcoin_android_wallet.util.WalletChangeDispatcher;
 import com.tedchain.tedcoin_android_wallet.util.WalletUtils;
 import com.tedchain.tedcoin_android_wallet.R;
 
@@ -69,7 +66,6 @@ public final class WalletAddressesFragment extends SherlockListFragment
 	private WalletApplication application;
 	private Configuration config;
 	private Wallet wallet;
-	private ContentResolver contentResolver;
 
 	private WalletAddressesAdapter adapter;
 
@@ -82,7 +78,6 @@ public final class WalletAddressesFragment extends SherlockListFragment
 		this.application = (WalletApplication) activity.getApplication();
 		this.config = application.getConfiguration();
 		this.wallet = application.getWallet();
-		this.contentResolver = activity.getContentResolver();
 	}
 
 	@Override
@@ -105,10 +100,10 @@ public final class WalletAddressesFragment extends SherlockListFragment
 	{
 		super.onResume();
 
-		contentResolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, contentObserver);
+		application.getAddressLabelResolver().addListener(labelsListener);
 
-		wallet.addEventListener(walletListener, Threading.SAME_THREAD);
-		walletListener.onKeysAdded(null, null); // trigger initial load of keys
+		application.getWalletChangeDispatcher().addSubscriber(walletChangeSubscriber);
+		loadKeys();
 
 		updateView();
 	}
@@ -116,9 +111,9 @@ public final class WalletAddressesFragment extends SherlockListFragment
 	@Override
 	public void onPause()
 	{
-		wallet.removeEventListener(walletListener);
+		application.getWalletChangeDispatcher().removeSubscriber(walletChangeSubscriber);
 
-		contentResolver.unregisterContentObserver(contentObserver);
+		application.getAddressLabelResolver().removeListener(labelsListener);
 
 		super.onPause();
 	}
@@ -155,8 +150,6 @@ public final class WalletAddressesFragment extends SherlockListFragment
 			public void onClick(final DialogInterface dialog, final int which)
 			{
 				application.addNewKeyToWallet();
-
-				activity.updateFragments();
 			}
 		});
 		dialog.setNegativeButton(R.string.button_cancel, null);
@@ -183,7 +176,7 @@ public final class WalletAddressesFragment extends SherlockListFragment
 				final ECKey key = getKey(position);
 
 				final String address = key.toAddress(Constants.NETWORK_PARAMETERS).toString();
-				final String label = AddressBookProvider.resolveLabel(activity, address);
+				final String label = application.getAddressLabelResolver().resolve(address);
 				mode.setTitle(label != null ? label : WalletUtils.formatHash(address, Constants.ADDRESS_FORMAT_GROUP_SIZE, 0));
 
 				return true;
@@ -279,50 +272,47 @@ public final class WalletAddressesFragment extends SherlockListFragment
 			((BaseAdapter) adapter).notifyDataSetChanged();
 	}
 
-	private final Handler handler = new Handler();
-
-	private final ContentObserver contentObserver = new ContentObserver(handler)
+	private final AddressLabelResolver.Listener labelsListener = new AddressLabelResolver.Listener()
 	{
 		@Override
-		public void onChange(final boolean selfChange)
+		public void onLabelsChanged(final String address)
 		{
 			updateView();
 		}
 	};
 
-	private final WalletEventListener walletListener = new AbstractWalletEventListener()
+	private void loadKeys()
 	{
-		@Override
-		public void onKeysAdded(final Wallet w, final List<ECKey> keysAdded)
-		{
-			final List<ECKey> keys = wallet.getKeys();
+		final List<ECKey> keys = wallet.getKeys();
 
-			Collections.sort(keys, new Comparator<ECKey>()
+		Collections.sort(keys, new Comparator<ECKey>()
+		{
+			@Override
+			public int compare(final ECKey lhs, final ECKey rhs)
 			{
-				@Override
-				public int compare(final ECKey lhs, final ECKey rhs)
-				{
-					final boolean lhsRotating = wallet.isKeyRotating(lhs);
-					final boolean rhsRotating = wallet.isKeyRotating(rhs);
+				final boolean lhsRotating = wallet.isKeyRotating(lhs);
+				final boolean rhsRotating = wallet.isKeyRotating(rhs);
 
-					if (lhsRotating != rhsRotating)
-						return lhsRotating ? 1 : -1;
+				if (lhsRotating != rhsRotating)
+					return lhsRotating ? 1 : -1;
 
-					if (lhs.getCreationTimeSeconds() != rhs.getCreationTimeSeconds())
-						return lhs.getCreationTimeSeconds() > rhs.getCreationTimeSeconds() ? 1 : -1;
+				if (lhs.getCreationTimeSeconds() != rhs.getCreationTimeSeconds())
+					return lhs.getCreationTimeSeconds() > rhs.getCreationTimeSeconds() ? 1 : -1;
 
-					return 0;
-				}
-			});
+				return 0;
+			}
+		});
 
-			handler.post(new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					adapter.replace(keys);
-				}
-			});
+		adapter.replace(keys);
+	}
+
+	private final WalletChangeDispatcher.Subscriber walletChangeSubscriber = new WalletChangeDispatcher.Subscriber()
+	{
+		@Override
+		public void onWalletChanged(final WalletSnapshot snapshot, final WalletDelta delta)
+		{
+			if (delta.reset || !delta.keysAdded.isEmpty())
+				loadKeys();
 		}
 	};
 }
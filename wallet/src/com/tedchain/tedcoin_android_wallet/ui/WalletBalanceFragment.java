@@ -41,8 +41,6 @@ import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
-import com.tedchain.tedcoinj.core.Wallet;
-
 import com.tedchain.tedcoin_android_wallet.Configuration;
 import com.tedchain.tedcoin_android_wallet.Constants;
 import com.tedchain.tedcoin_android_wallet.ExchangeRatesProvider;
@@ -60,7 +58,6 @@ public final class WalletBalanceFragment extends Fragment
 	private WalletApplication application;
 	private AbstractWalletActivity activity;
 	private Configuration config;
-	private Wallet wallet;
 	private LoaderManager loaderManager;
 
 	private View viewBalance;
@@ -80,6 +77,8 @@ public final class WalletBalanceFragment extends Fragment
 	@CheckForNull
 	private Date bestChainDate = null;
 	private boolean replaying = false;
+	private int progressPercent = -1;
+	private long etaMs = -1;
 
 	private static final int ID_BALANCE_LOADER = 0;
 	private static final int ID_RATE_LOADER = 1;
@@ -92,7 +91,6 @@ public final class WalletBalanceFragment extends Fragment
 		this.activity = (AbstractWalletActivity) activity;
 		this.application = (WalletApplication) activity.getApplication();
 		this.config = application.getConfiguration();
-		this.wallet = application.getWallet();
 		this.loaderManager = getLoaderManager();
 
 		showLocalBalance = getResources().getBoolean(R.bool.show_local_balance);
@@ -180,8 +178,14 @@ public final class WalletBalanceFragment extends Fragment
 
 			showProgress = !(blockchainUptodate || !replaying);
 
-			final String downloading = getString(downloadOk ? R.string.blockchain_state_progress_downloading
+			final String state = getString(downloadOk ? R.string.blockchain_state_progress_downloading
 					: R.string.blockchain_state_progress_stalled);
+			final String downloading;
+			if (downloadOk && progressPercent >= 0 && etaMs > 0)
+				downloading = getString(R.string.blockchain_state_progress_eta, state, progressPercent,
+						DateUtils.formatElapsedTime(etaMs / DateUtils.SECOND_IN_MILLIS));
+			else
+				downloading = state;
 
 			if (blockchainLag < 2 * DateUtils.DAY_IN_MILLIS)
 			{
@@ -263,6 +267,8 @@ public final class WalletBalanceFragment extends Fragment
 			download = intent.getIntExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_DOWNLOAD, BlockchainService.ACTION_BLOCKCHAIN_STATE_DOWNLOAD_OK);
 			bestChainDate = (Date) intent.getSerializableExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_DATE);
 			replaying = intent.getBooleanExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_REPLAYING, false);
+			progressPercent = intent.getIntExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_PROGRESS_PERCENT, -1);
+			etaMs = intent.getLongExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_ETA_MS, -1);
 
 			updateView();
 		}
@@ -273,7 +279,7 @@ public final class WalletBalanceFragment extends Fragment
 		@Override
 		public Loader<BigInteger> onCreateLoader(final int id, final Bundle args)
 		{
-			return new WalletBalanceLoader(activity, wallet);
+			return new WalletBalanceLoader(activity, application);
 		}
 
 		@Override
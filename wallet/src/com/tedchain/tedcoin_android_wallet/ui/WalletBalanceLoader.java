@@ -18,36 +18,31 @@
 package com.tedchain.tedcoin_android_wallet.ui;
 
 import java.math.BigInteger;
-import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnull;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import android.content.Context;
 import android.support.v4.content.AsyncTaskLoader;
 
-import com.tedchain.tedcoinj.core.Wallet;
 import com.tedchain.tedcoinj.core.Wallet.BalanceType;
-import com.tedchain.tedcoinj.utils.Threading;
 
-import com.tedchain.tedcoin_android_wallet.util.ThrottlingWalletChangeListener;
+import com.tedchain.tedcoin_android_wallet.WalletApplication;
+import com.tedchain.tedcoin_android_wallet.data.WalletDelta;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+import com.tedchain.tedcoin_android_wallet.util.WalletChangeDispatcher;
 
 /**
  * @author Andreas Schildbach
  */
 public final class WalletBalanceLoader extends AsyncTaskLoader<BigInteger>
 {
-	private final Wallet wallet;
-
-	private static final Logger log = LoggerFactory.getLogger(WalletBalanceLoader.class);
+	private final WalletApplication application;
 
-	public WalletBalanceLoader(final Context context, @Nonnull final Wallet wallet)
+	public WalletBalanceLoader(final Context context, @Nonnull final WalletApplication application)
 	{
 		super(context);
 
-		this.wallet = wallet;
+		this.application = application;
 	}
 
 	@Override
@@ -55,7 +50,7 @@ public final class WalletBalanceLoader extends AsyncTaskLoader<BigInteger>
 	{
 		super.onStartLoading();
 
-		wallet.addEventListener(walletChangeListener, Threading.SAME_THREAD);
+		application.getWalletChangeDispatcher().addSubscriber(walletChangeSubscriber);
 
 		forceLoad();
 	}
@@ -63,8 +58,7 @@ public final class WalletBalanceLoader extends AsyncTaskLoader<BigInteger>
 	@Override
 	protected void onStopLoading()
 	{
-		wallet.removeEventListener(walletChangeListener);
-		walletChangeListener.removeCallbacks();
+		application.getWalletChangeDispatcher().removeSubscriber(walletChangeSubscriber);
 
 		super.onStopLoading();
 	}
@@ -72,22 +66,16 @@ public final class WalletBalanceLoader extends AsyncTaskLoader<BigInteger>
 	@Override
 	public BigInteger loadInBackground()
 	{
-		return wallet.getBalance(BalanceType.ESTIMATED);
+		return application.getWalletSnapshot().getBalance(BalanceType.ESTIMATED);
 	}
 
-	private final ThrottlingWalletChangeListener walletChangeListener = new ThrottlingWalletChangeListener()
+	private final WalletChangeDispatcher.Subscriber walletChangeSubscriber = new WalletChangeDispatcher.Subscriber()
 	{
 		@Override
-		public void onThrottledWalletChanged()
+		public void onWalletChanged(final WalletSnapshot snapshot, final WalletDelta delta)
 		{
-			try
-			{
-				forceLoad();
-			}
-			catch (final RejectedExecutionException x)
-			{
-				log.info("rejected execution: " + WalletBalanceLoader.this.toString());
-			}
+			if (delta.balanceChanged)
+				onContentChanged();
 		}
 	};
 }
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+
+import com.tedchain.tedcoin_android_wallet.AddressBookProvider;
+
+/**
+ * Resolves address book labels for the whole process, so each address costs at most one query until its entry changes.
+ * Addresses without a label are cached as well. The least recently used entries are dropped beyond a fixed number.
+ *
+ * The address book is observed for changes. Where the platform passes the changed URI (API level 16 and up), only the
+ * address it names is invalidated, otherwise everything is.
+ *
+ * @author Andreas Schildbach
+ */
+public final class AddressLabelResolver
+{
+	public interface Listener
+	{
+		/**
+		 * Will be called back on the thread of the handler passed to the resolver.
+		 *
+		 * @param address
+		 *            address whose label changed, or null if any label may have changed
+		 */
+		void onLabelsChanged(@CheckForNull String address);
+	}
+
+	private static final int MAX_ENTRIES = 512;
+	private static final String NULL_MARKER = "";
+
+	private final ContentResolver contentResolver;
+	private final Uri contentUri;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private final Map<String, String> labels = new LinkedHashMap<String, String>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, String> eldest)
+		{
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private long generation = 0;
+
+	private int numHits = 0;
+	private int numMisses = 0;
+	private int numQueries = 0;
+
+	public AddressLabelResolver(@Nonnull final Context context, @Nonnull final Handler handler)
+	{
+		this.contentResolver = context.getContentResolver();
+		this.contentUri = AddressBookProvider.contentUri(context.getPackageName());
+
+		contentResolver.registerContentObserver(contentUri, true, new ContentObserver(handler)
+		{
+			@Override
+			public void onChange(final boolean selfChange)
+			{
+				invalidateAll();
+			}
+
+			// overrides from API level 16 on, where it is called instead of onChange(boolean)
+			public void onChange(final boolean selfChange, final Uri uri)
+			{
+				if (uri != null && AddressBookProvider.isWalletAddressesUri(uri))
+					return;
+
+				final List<String> pathSegments = uri != null ? uri.getPathSegments() : null;
+				if (pathSegments != null && !pathSegments.isEmpty())
+					invalidate(pathSegments.get(0));
+				else
+					invalidateAll();
+			}
+		});
+	}
+
+	public void addListener(@Nonnull final Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(@Nonnull final Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return label of the address, or null if it is not in the address book
+	 */
+	@CheckForNull
+	public String resolve(@Nonnull final String address)
+	{
+		final long queryGeneration;
+
+		synchronized (this)
+		{
+			final String cached = labels.get(address);
+			if (cached != null)
+			{
+				numHits++;
+				return cached != NULL_MARKER ? cached : null;
+			}
+
+			numMisses++;
+			numQueries++;
+			queryGeneration = generation;
+		}
+
+		final String label = AddressBookProvider.resolveLabel(contentResolver, contentUri, address);
+
+		synchronized (this)
+		{
+			// don't cache what might have been changed while querying
+			if (generation == queryGeneration)
+				labels.put(address, label != null ? label : NULL_MARKER);
+		}
+
+		return label;
+	}
+
+	/**
+	 * Resolves all addresses that are not cached in one round trip to the address book.
+	 *
+	 * @return labels of the addresses in the address book, by address
+	 */
+	public Map<String, String> resolve(@Nonnull final Collection<String> addresses)
+	{
+		final Map<String, String> result = new HashMap<String, String>();
+		final List<String> missing = new ArrayList<String>();
+		final long queryGeneration;
+
+		synchronized (this)
+		{
+			for (final String address : addresses)
+			{
+				final String cached = labels.get(address);
+				if (cached == null)
+				{
+					numMisses++;
+					missing.add(address);
+				}
+				else
+				{
+					numHits++;
+					if (cached != NULL_MARKER)
+						result.put(address, cached);
+				}
+			}
+
+			if (missing.isEmpty())
+				return result;
+
+			numQueries++;
+			queryGeneration = generation;
+		}
+
+		final Map<String, String> found = AddressBookProvider.resolveLabels(contentResolver, contentUri, missing);
+
+		synchronized (this)
+		{
+			if (generation == queryGeneration)
+			{
+				for (final String address : missing)
+				{
+					final String label = found.get(address);
+					labels.put(address, label != null ? label : NULL_MARKER);
+				}
+			}
+		}
+
+		result.putAll(found);
+		return result;
+	}
+
+	public void invalidate(@Nonnull final String address)
+	{
+		synchronized (this)
+		{
+			labels.remove(address);
+			generation++;
+		}
+
+		for (final Listener listener : listeners)
+			listener.onLabelsChanged(address);
+	}
+
+	public void invalidateAll()
+	{
+		synchronized (this)
+		{
+			labels.clear();
+			generation++;
+		}
+
+		for (final Listener listener : listeners)
+			listener.onLabelsChanged(null);
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return labels.size() + " labels, " + numHits + " hits, " + numMisses + " misses, " + numQueries + " queries";
+	}
+}
@@ -39,6 +39,7 @@ public class CircularProgressView extends View
 	private int size = 1;
 	private int maxSize = 1;
 	private final Path path = new Path();
+	private final RectF oval = new RectF();
 	private final Paint fillPaint = new Paint();
 	private final Paint strokePaint = new Paint();
 
@@ -76,6 +77,9 @@ public class CircularProgressView extends View
 
 	public void setProgress(final int progress)
 	{
+		if (progress == this.progress)
+			return;
+
 		this.progress = progress;
 
 		updatePath(getWidth(), getHeight());
@@ -84,6 +88,9 @@ public class CircularProgressView extends View
 
 	public void setMaxProgress(final int maxProgress)
 	{
+		if (maxProgress == this.maxProgress)
+			return;
+
 		this.maxProgress = maxProgress;
 
 		updatePath(getWidth(), getHeight());
@@ -92,6 +99,9 @@ public class CircularProgressView extends View
 
 	public void setSize(final int size)
 	{
+		if (size == this.size)
+			return;
+
 		this.size = size;
 
 		updatePath(getWidth(), getHeight());
@@ -100,6 +110,9 @@ public class CircularProgressView extends View
 
 	public void setMaxSize(final int maxSize)
 	{
+		if (maxSize == this.maxSize)
+			return;
+
 		this.maxSize = maxSize;
 
 		updatePath(getWidth(), getHeight());
@@ -132,7 +145,8 @@ public class CircularProgressView extends View
 			final float y = h / 2f;
 
 			path.moveTo(x, y);
-			path.arcTo(new RectF(x - absSize, y - absSize, x + absSize, y + absSize), 270, angle);
+			oval.set(x - absSize, y - absSize, x + absSize, y + absSize);
+			path.arcTo(oval, 270, angle);
 			path.close();
 		}
 		else
@@ -29,7 +29,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Formatter;
 import java.util.List;
-import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -43,13 +42,13 @@ import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.os.Build;
-
-import com.tedchain.tedcoinj.core.Transaction;
-import com.tedchain.tedcoinj.core.TransactionOutput;
-import com.tedchain.tedcoinj.core.Wallet;
+import android.text.format.DateUtils;
 
 import com.tedchain.tedcoin_android_wallet.Constants;
 import com.tedchain.tedcoin_android_wallet.WalletApplication;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+import com.tedchain.tedcoin_android_wallet.service.BlockchainServiceImpl;
+import com.tedchain.tedcoin_android_wallet.service.SyncSessionLog;
 
 /**
  * @author Andreas Schildbach
@@ -206,34 +205,33 @@ public class CrashReporter
 		report.append("Time of last update: " + String.format("%tF %tT %tz", pi.lastUpdateTime, pi.lastUpdateTime, pi.lastUpdateTime) + "\n");
 		report.append("Time of first install: " + String.format("%tF %tT %tz", pi.firstInstallTime, pi.firstInstallTime, pi.firstInstallTime) + "\n");
 		report.append("Network: " + Constants.NETWORK_PARAMETERS.getId() + "\n");
-		final Wallet wallet = application.getWallet();
-		report.append("Keychain size: " + wallet.getKeychainSize() + "\n");
-
-		final Set<Transaction> transactions = wallet.getTransactions(true);
-		int numInputs = 0;
-		int numOutputs = 0;
-		int numSpentOutputs = 0;
-		for (final Transaction tx : transactions)
+		final WalletSnapshot wallet = application.getWalletSnapshot();
+		report.append("Keychain size: " + wallet.keys.size() + "\n");
+		report.append("Transactions: " + wallet.transactions.size() + "\n");
+		report.append("Inputs: " + wallet.numInputs + "\n");
+		report.append("Outputs: " + wallet.numOutputs + " (spent: " + wallet.numSpentOutputs + ")\n");
+		report.append("Last block seen: " + wallet.lastBlockSeenHeight + " (" + wallet.lastBlockSeenHash + ")\n");
+
+		report.append("Balance cache: " + application.getWalletBalanceCache() + "\n");
+		report.append("Transaction memo: " + application.getTransactionMemo() + "\n");
+		report.append("Address labels: " + application.getAddressLabelResolver() + "\n");
+
+		final WalletLockProfiler walletLockProfiler = application.getWalletLockProfiler();
+		if (walletLockProfiler.isEnabled())
 		{
-			numInputs += tx.getInputs().size();
-			final List<TransactionOutput> outputs = tx.getOutputs();
-			numOutputs += outputs.size();
-			for (final TransactionOutput txout : outputs)
-			{
-				if (!txout.isAvailableForSpending())
-					numSpentOutputs++;
-			}
+			report.append("Wallet lock profile:\n");
+			walletLockProfiler.appendHistograms(report);
 		}
-		report.append("Transactions: " + transactions.size() + "\n");
-		report.append("Inputs: " + numInputs + "\n");
-		report.append("Outputs: " + numOutputs + " (spent: " + numSpentOutputs + ")\n");
-		report.append("Last block seen: " + wallet.getLastBlockSeenHeight() + " (" + wallet.getLastBlockSeenHash() + ")\n");
 
 		report.append("Databases:");
 		for (final String db : application.databaseList())
 			report.append(" " + db);
 		report.append("\n");
 
+		final SyncSessionLog syncSessionLog = BlockchainServiceImpl.syncSessionLog(application);
+		report.append("Sync sessions last day: " + syncSessionLog.summarize(now - DateUtils.DAY_IN_MILLIS) + "\n");
+		report.append("Sync sessions last week: " + syncSessionLog.summarize(now - DateUtils.WEEK_IN_MILLIS) + "\n");
+
 		final File filesDir = application.getFilesDir();
 		report.append("\nContents of FilesDir " + filesDir + ":\n");
 		appendDir(report, filesDir, 0);
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.util;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.tedchain.tedcoinj.core.Sha256Hash;
+
+/**
+ * Immutable index of items by the {@link WalletUtils#longHash(Sha256Hash)} of their hash. Lookups are binary searches
+ * over a sorted array, so unlike a map keyed by {@link Sha256Hash} or {@link Long} they allocate nothing, which matters
+ * when looking up items for list rows. Long hashes are taken to be unique, as they are for list item ids.
+ *
+ * @author Andreas Schildbach
+ */
+public final class LongHashIndex<T>
+{
+	private final long[] longHashes;
+	private final Object[] items;
+
+	public LongHashIndex(@Nonnull final Map<Sha256Hash, T> itemsByHash)
+	{
+		final int size = itemsByHash.size();
+
+		longHashes = new long[size];
+		int i = 0;
+		for (final Sha256Hash hash : itemsByHash.keySet())
+			longHashes[i++] = WalletUtils.longHash(hash);
+		Arrays.sort(longHashes);
+
+		items = new Object[size];
+		for (final Map.Entry<Sha256Hash, T> entry : itemsByHash.entrySet())
+			items[Arrays.binarySearch(longHashes, WalletUtils.longHash(entry.getKey()))] = entry.getValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	@CheckForNull
+	public T get(final long longHash)
+	{
+		final int index = Arrays.binarySearch(longHashes, longHash);
+
+		return index >= 0 ? (T) items[index] : null;
+	}
+}
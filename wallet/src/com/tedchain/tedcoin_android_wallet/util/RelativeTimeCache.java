@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.util;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+/**
+ * Caches {@link DateUtils#getRelativeTimeSpanString(Context, long)} for times bucketed to the minute, which is the finest
+ * resolution it shows. As the text is relative to now, all of it is dropped whenever the current minute changes.
+ *
+ * Lookups are direct-mapped into fixed arrays, so a hit allocates nothing. Only meant to be used from the UI thread.
+ *
+ * @author Andreas Schildbach
+ */
+public final class RelativeTimeCache
+{
+	private static final int SIZE = 256; // must be a power of two
+
+	private final Context context;
+	private final long[] minutes = new long[SIZE];
+	private final CharSequence[] texts = new CharSequence[SIZE];
+	private long currentMinute = -1;
+
+	private int numHits = 0;
+	private int numMisses = 0;
+
+	public RelativeTimeCache(@Nonnull final Context context)
+	{
+		this.context = context;
+	}
+
+	public CharSequence format(final long time)
+	{
+		final long nowMinute = System.currentTimeMillis() / DateUtils.MINUTE_IN_MILLIS;
+		if (nowMinute != currentMinute)
+		{
+			Arrays.fill(texts, null);
+			currentMinute = nowMinute;
+		}
+
+		final long minute = time / DateUtils.MINUTE_IN_MILLIS;
+		final int slot = (int) (minute ^ (minute >>> 32)) & (SIZE - 1);
+
+		final CharSequence cached = texts[slot];
+		if (cached != null && minutes[slot] == minute)
+		{
+			numHits++;
+			return cached;
+		}
+
+		numMisses++;
+		final CharSequence text = DateUtils.getRelativeTimeSpanString(context, minute * DateUtils.MINUTE_IN_MILLIS);
+		minutes[slot] = minute;
+		texts[slot] = text;
+		return text;
+	}
+
+	@Override
+	public String toString()
+	{
+		return numHits + " hits, " + numMisses + " misses";
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.util;
+
+import java.math.BigInteger;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.tedchain.tedcoinj.core.TransactionConfidence.ConfidenceType;
+
+import com.tedchain.tedcoin_android_wallet.TransactionsProvider;
+
+/**
+ * A search over the transaction history, parsed from what the user typed. Words are separated by whitespace:
+ *
+ * <ul>
+ * <li><code>&gt;1.5</code>, <code>&lt;10</code> at least or at most this amount, either direction</li>
+ * <li><code>2.5</code> exactly this amount; a whole number like <code>2014</code> matches either this amount or like any other
+ * word</li>
+ * <li><code>2014-03-01</code>, <code>2014-03</code> on this day or in this month</li>
+ * <li><code>&gt;2014-03-01</code>, <code>&lt;2014-03-01</code> on or after this day, or before it</li>
+ * <li><code>is:pending</code>, <code>is:dead</code> of this confidence, in any case</li>
+ * <li>anything else matches a label prefix of the counterparty, or a prefix of its address or of the transaction
+ * hash</li>
+ * </ul>
+ *
+ * All words have to match. Amounts are in the unit shown to the user.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionSearchQuery
+{
+	public final List<String> terms;
+	/** terms that can also be read as an exact amount, in either direction */
+	public final Map<String, BigInteger> termAmounts;
+	@CheckForNull
+	public final BigInteger minValue;
+	@CheckForNull
+	public final BigInteger maxValue;
+	@CheckForNull
+	public final Date fromTime;
+	/** exclusive */
+	@CheckForNull
+	public final Date untilTime;
+	/** empty for any confidence */
+	public final Set<ConfidenceType> confidenceTypes;
+
+	// SQLite allows no more than 999 host parameters per statement, the rest is left for the other arguments
+	private static final int MAX_LABELLED_ADDRESSES = 500;
+
+	private static final String CONFIDENCE_PREFIX = "is:";
+	private static final Pattern PATTERN_AMOUNT = Pattern.compile("\\d*\\.?\\d+");
+	private static final Pattern PATTERN_DAY = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+	private static final Pattern PATTERN_MONTH = Pattern.compile("\\d{4}-\\d{2}");
+	private static final Pattern PATTERN_HEX = Pattern.compile("[0-9a-fA-F]+");
+	private static final Pattern PATTERN_BASE58 = Pattern.compile("[1-9A-HJ-NP-Za-km-z]+");
+
+	private TransactionSearchQuery(final List<String> terms, final Map<String, BigInteger> termAmounts, final BigInteger minValue,
+			final BigInteger maxValue, final Date fromTime, final Date untilTime, final Set<ConfidenceType> confidenceTypes)
+	{
+		this.terms = Collections.unmodifiableList(terms);
+		this.termAmounts = Collections.unmodifiableMap(termAmounts);
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		this.fromTime = fromTime;
+		this.untilTime = untilTime;
+		this.confidenceTypes = Collections.unmodifiableSet(confidenceTypes);
+	}
+
+	/**
+	 * @param shift
+	 *            decimal shift of the unit amounts are entered in, like {@link GenericUtils#parseCoin(String, int)}
+	 * @return query, or null if nothing was typed
+	 */
+	@CheckForNull
+	public static TransactionSearchQuery parse(@Nonnull final String query, final int shift)
+	{
+		return parse(query, shift, TimeZone.getDefault());
+	}
+
+	@CheckForNull
+	static TransactionSearchQuery parse(@Nonnull final String query, final int shift, @Nonnull final TimeZone timeZone)
+	{
+		final List<String> terms = new ArrayList<String>();
+		final Map<String, BigInteger> termAmounts = new HashMap<String, BigInteger>();
+		BigInteger minValue = null;
+		BigInteger maxValue = null;
+		Date fromTime = null;
+		Date untilTime = null;
+		final Set<ConfidenceType> confidenceTypes = EnumSet.noneOf(ConfidenceType.class);
+
+		for (final String word : query.trim().split("\\s+"))
+		{
+			if (word.length() == 0)
+				continue;
+
+			final char first = word.charAt(0);
+			final String rest = word.substring(1);
+
+			if (word.regionMatches(true, 0, CONFIDENCE_PREFIX, 0, CONFIDENCE_PREFIX.length())
+					&& confidenceType(word.substring(CONFIDENCE_PREFIX.length())) != null)
+			{
+				confidenceTypes.add(confidenceType(word.substring(CONFIDENCE_PREFIX.length())));
+			}
+			else if ((first == '>' || first == '<') && dateRange(rest, timeZone) != null)
+			{
+				final Date[] range = dateRange(rest, timeZone);
+				if (first == '>')
+					fromTime = range[0];
+				else
+					untilTime = range[0];
+			}
+			else if ((first == '>' || first == '<') && amount(rest, shift) != null)
+			{
+				if (first == '>')
+					minValue = amount(rest, shift);
+				else
+					maxValue = amount(rest, shift);
+			}
+			else if (dateRange(word, timeZone) != null)
+			{
+				final Date[] range = dateRange(word, timeZone);
+				fromTime = range[0];
+				untilTime = range[1];
+			}
+			else if (amount(word, shift) != null && PATTERN_HEX.matcher(word).matches())
+			{
+				// could as well be the start of a hash
+				terms.add(word);
+				termAmounts.put(word, amount(word, shift));
+			}
+			else if (amount(word, shift) != null)
+			{
+				minValue = maxValue = amount(word, shift);
+			}
+			else
+			{
+				terms.add(word);
+			}
+		}
+
+		if (terms.isEmpty() && minValue == null && maxValue == null && fromTime == null && untilTime == null && confidenceTypes.isEmpty())
+			return null;
+
+		return new TransactionSearchQuery(terms, termAmounts, minValue, maxValue, fromTime, untilTime, confidenceTypes);
+	}
+
+	/**
+	 * Labelled addresses are bound as arguments, so their number per term is limited. A term matching more labels than
+	 * that is too vague to be of use anyway.
+	 *
+	 * @return maximum number of labelled addresses to pass for each term
+	 */
+	public int maxLabelledAddressesPerTerm()
+	{
+		return MAX_LABELLED_ADDRESSES / Math.max(terms.size(), 1);
+	}
+
+	/**
+	 * Builds the selection for {@link TransactionsProvider}. It only uses indexed columns, apart from the confidence.
+	 *
+	 * @param labelledAddresses
+	 *            addresses of address book entries matching each term, as looked up by the caller, no more than
+	 *            {@link #maxLabelledAddressesPerTerm()} each
+	 * @param selectionArgs
+	 *            receives the arguments of the selection
+	 */
+	public String selection(@Nonnull final Map<String, ? extends Collection<String>> labelledAddresses,
+			@Nonnull final List<String> selectionArgs)
+	{
+		final StringBuilder selection = new StringBuilder();
+
+		for (final String term : terms)
+		{
+			final StringBuilder alternatives = new StringBuilder();
+
+			final Collection<String> addresses = labelledAddresses.get(term);
+			if (addresses != null && !addresses.isEmpty())
+			{
+				if (addresses.size() > maxLabelledAddressesPerTerm())
+					throw new IllegalArgumentException("too many labelled addresses for '" + term + "': " + addresses.size());
+
+				alternatives.append(TransactionsProvider.KEY_ADDRESS).append(" IN (");
+				boolean firstAddress = true;
+				for (final String address : addresses)
+				{
+					if (!firstAddress)
+						alternatives.append(',');
+					alternatives.append('?');
+					selectionArgs.add(address);
+					firstAddress = false;
+				}
+				alternatives.append(')');
+			}
+
+			if (PATTERN_BASE58.matcher(term).matches())
+			{
+				appendSeparator(alternatives, " OR ");
+				appendPrefix(alternatives, TransactionsProvider.KEY_ADDRESS, term, selectionArgs);
+			}
+
+			if (PATTERN_HEX.matcher(term).matches())
+			{
+				appendSeparator(alternatives, " OR ");
+				appendPrefix(alternatives, TransactionsProvider.KEY_HASH, term.toLowerCase(Locale.US), selectionArgs);
+			}
+
+			final BigInteger amount = termAmounts.get(term);
+			if (amount != null)
+			{
+				appendSeparator(alternatives, " OR ");
+				alternatives.append(TransactionsProvider.KEY_VALUE).append(" IN (?,?)");
+				selectionArgs.add(amount.toString());
+				selectionArgs.add(amount.negate().toString());
+			}
+
+			appendSeparator(selection, " AND ");
+			if (alternatives.length() > 0)
+				selection.append('(').append(alternatives).append(')');
+			else
+				selection.append('0'); // nothing can match this term
+		}
+
+		if (minValue != null || maxValue != null)
+		{
+			// sent transactions have negative values
+			final BigInteger min = minValue != null ? minValue : BigInteger.ZERO;
+			final BigInteger max = maxValue != null ? maxValue : BigInteger.valueOf(Long.MAX_VALUE);
+
+			appendSeparator(selection, " AND ");
+			selection.append('(').append(TransactionsProvider.KEY_VALUE).append(" BETWEEN ? AND ? OR ").append(TransactionsProvider.KEY_VALUE)
+					.append(" BETWEEN ? AND ?)");
+			selectionArgs.add(min.toString());
+			selectionArgs.add(max.toString());
+			selectionArgs.add(max.negate().toString());
+			selectionArgs.add(min.negate().toString());
+		}
+
+		if (fromTime != null)
+		{
+			appendSeparator(selection, " AND ");
+			selection.append(TransactionsProvider.KEY_TIME).append(" >= ?");
+			selectionArgs.add(Long.toString(fromTime.getTime()));
+		}
+
+		if (untilTime != null)
+		{
+			appendSeparator(selection, " AND ");
+			selection.append(TransactionsProvider.KEY_TIME).append(" < ?");
+			selectionArgs.add(Long.toString(untilTime.getTime()));
+		}
+
+		if (!confidenceTypes.isEmpty())
+		{
+			appendSeparator(selection, " AND ");
+			selection.append(TransactionsProvider.KEY_CONFIDENCE).append(" IN (");
+			boolean firstType = true;
+			for (final ConfidenceType confidenceType : confidenceTypes)
+			{
+				if (!firstType)
+					selection.append(',');
+				selection.append('?');
+				selectionArgs.add(confidenceType.name());
+				firstType = false;
+			}
+			selection.append(')');
+		}
+
+		return selection.toString();
+	}
+
+	private static void appendSeparator(final StringBuilder selection, final String separator)
+	{
+		if (selection.length() > 0)
+			selection.append(separator);
+	}
+
+	// a range rather than LIKE, so the index can be used
+	private static void appendPrefix(final StringBuilder selection, final String column, final String prefix, final List<String> selectionArgs)
+	{
+		selection.append('(').append(column).append(" >= ? AND ").append(column).append(" < ?)");
+		selectionArgs.add(prefix);
+		selectionArgs.add(prefix + '\uffff');
+	}
+
+	@CheckForNull
+	private static ConfidenceType confidenceType(final String name)
+	{
+		for (final ConfidenceType confidenceType : ConfidenceType.values())
+			if (confidenceType.name().equalsIgnoreCase(name))
+				return confidenceType;
+
+		return null;
+	}
+
+	@CheckForNull
+	private static BigInteger amount(final String str, final int shift)
+	{
+		if (!PATTERN_AMOUNT.matcher(str).matches())
+			return null;
+
+		try
+		{
+			return GenericUtils.parseCoin(str, shift);
+		}
+		catch (final ArithmeticException x)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return start and exclusive end of the day or month, or null if it is neither
+	 */
+	@CheckForNull
+	private static Date[] dateRange(final String str, final TimeZone timeZone)
+	{
+		final boolean day = PATTERN_DAY.matcher(str).matches();
+		if (!day && !PATTERN_MONTH.matcher(str).matches())
+			return null;
+
+		final DateFormat format = new SimpleDateFormat(day ? "yyyy-MM-dd" : "yyyy-MM", Locale.US);
+		format.setTimeZone(timeZone);
+		format.setLenient(false);
+
+		try
+		{
+			final Date start = format.parse(str);
+
+			final Calendar calendar = Calendar.getInstance(timeZone, Locale.US);
+			calendar.setTime(start);
+			calendar.add(day ? Calendar.DAY_OF_MONTH : Calendar.MONTH, 1);
+
+			return new Date[] { start, calendar.getTime() };
+		}
+		catch (final ParseException x)
+		{
+			return null;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "terms " + terms + " (amounts " + termAmounts + "), value " + minValue + ".." + maxValue + ", time " + fromTime + ".." + untilTime + ", confidence "
+				+ confidenceTypes;
+	}
+}
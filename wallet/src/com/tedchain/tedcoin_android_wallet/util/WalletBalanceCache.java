@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.util;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tedchain.tedcoinj.core.Transaction;
+import com.tedchain.tedcoinj.core.TransactionConfidence;
+import com.tedchain.tedcoinj.core.TransactionConfidence.ConfidenceType;
+import com.tedchain.tedcoinj.core.Wallet;
+import com.tedchain.tedcoinj.core.Wallet.BalanceType;
+
+import com.tedchain.tedcoin_android_wallet.Constants;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+
+/**
+ * Keeps the wallet balances of all types, so they are not recomputed by walking all unspent outputs on every wallet
+ * change. Only changes that can affect a balance invalidate it: coins received or sent, reorganizations, a changed number
+ * of transactions, and confidence changes of transactions that are pending, just confirmed or immature coinbases. The
+ * depth of every other transaction increasing with each block does not.
+ *
+ * In verification mode, cached balances are checked against a full computation from time to time, and corrected if off.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletBalanceCache implements WalletSnapshot.BalanceSource
+{
+	private final boolean verify;
+	private final long verifyIntervalMs;
+
+	private Map<BalanceType, BigInteger> balances = null;
+	private boolean dirty = true;
+	private int numTransactions = -1;
+	private long lastVerifiedAt = 0;
+
+	private int numHits = 0;
+	private int numComputations = 0;
+	private int numVerifications = 0;
+	private int numMismatches = 0;
+
+	private static final Logger log = LoggerFactory.getLogger(WalletBalanceCache.class);
+
+	public WalletBalanceCache(final boolean verify, final long verifyIntervalMs)
+	{
+		this.verify = verify;
+		this.verifyIntervalMs = verifyIntervalMs;
+	}
+
+	public synchronized void invalidate()
+	{
+		dirty = true;
+	}
+
+	public void onTransactionConfidenceChanged(@Nonnull final Transaction tx)
+	{
+		if (affectsBalance(tx))
+			invalidate();
+	}
+
+	private static boolean affectsBalance(final Transaction tx)
+	{
+		final TransactionConfidence confidence = tx.getConfidence();
+
+		if (confidence.getConfidenceType() != ConfidenceType.BUILDING)
+			return true;
+
+		final int depth = confidence.getDepthInBlocks();
+
+		// just confirmed, or maybe reorganized
+		if (depth <= 1)
+			return true;
+
+		// coinbase maturing
+		if (tx.isCoinBase() && depth <= Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth())
+			return true;
+
+		return false;
+	}
+
+	/**
+	 * To be called with the wallet lock held.
+	 */
+	@Override
+	public synchronized Map<BalanceType, BigInteger> getBalances(@Nonnull final Wallet wallet, final int numTransactions)
+	{
+		final long now = System.currentTimeMillis();
+
+		if (dirty || balances == null || numTransactions != this.numTransactions)
+		{
+			balances = compute(wallet);
+			dirty = false;
+			this.numTransactions = numTransactions;
+			lastVerifiedAt = now;
+			numComputations++;
+		}
+		else if (verify && now - lastVerifiedAt >= verifyIntervalMs)
+		{
+			final Map<BalanceType, BigInteger> computed = compute(wallet);
+			lastVerifiedAt = now;
+			numVerifications++;
+
+			if (!computed.equals(balances))
+			{
+				log.error("balance cache is off, cached: " + balances + ", computed: " + computed);
+				balances = computed;
+				numMismatches++;
+			}
+		}
+		else
+		{
+			numHits++;
+		}
+
+		return balances;
+	}
+
+	private static Map<BalanceType, BigInteger> compute(final Wallet wallet)
+	{
+		final Map<BalanceType, BigInteger> balances = new EnumMap<BalanceType, BigInteger>(BalanceType.class);
+		for (final BalanceType balanceType : BalanceType.values())
+			balances.put(balanceType, wallet.getBalance(balanceType));
+		return Collections.unmodifiableMap(balances);
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return numHits + " hits, " + numComputations + " computations" + (verify ? ", " + numVerifications + " verifications, " + numMismatches
+				+ " mismatches" : "");
+	}
+}
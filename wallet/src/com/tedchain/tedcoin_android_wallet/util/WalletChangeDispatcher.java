@@ -0,0 +1,322 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.tedchain.tedcoinj.core.AbstractWalletEventListener;
+import com.tedchain.tedcoinj.core.Address;
+import com.tedchain.tedcoinj.core.ECKey;
+import com.tedchain.tedcoinj.core.Sha256Hash;
+import com.tedchain.tedcoinj.core.Transaction;
+import com.tedchain.tedcoinj.core.Wallet;
+import com.tedchain.tedcoinj.core.WalletEventListener;
+
+import com.tedchain.tedcoin_android_wallet.Constants;
+import com.tedchain.tedcoin_android_wallet.data.TransactionMemo;
+import com.tedchain.tedcoin_android_wallet.data.WalletDelta;
+import com.tedchain.tedcoin_android_wallet.data.WalletSnapshot;
+
+/**
+ * Subscribes to the wallet once and fans changes out to any number of subscribers. On tedcoinj's thread, events are
+ * only recorded. After the coalescing window, a snapshot is taken on the given background handler and delivered together
+ * with a typed delta against the previously delivered snapshot, on the main thread.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletChangeDispatcher
+{
+	public interface Subscriber
+	{
+		/** will be called back on UI thread */
+		void onWalletChanged(@Nonnull WalletSnapshot snapshot, @Nonnull WalletDelta delta);
+	}
+
+	private final WalletLockProfiler lockProfiler;
+	private final WalletBalanceCache balanceCache;
+	private final TransactionMemo transactionMemo;
+	private final Handler handler;
+	private final long windowMs;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+
+	private volatile Wallet wallet = null;
+	private volatile WalletSnapshot snapshot = null;
+	private long version = 0;
+	private WalletSnapshot lastDelivered = null; // only touched on handler thread
+
+	private final Object pendingLock = new Object();
+	private boolean flushScheduled = false;
+	private boolean pendingReset = false;
+	private boolean pendingReorganized = false;
+	private final Set<Sha256Hash> pendingConfidenceChanged = new HashSet<Sha256Hash>();
+	/** transactions whose summaries need to be rebuilt, which includes those whose confidence changed beyond depth */
+	private final Set<Sha256Hash> pendingTransactionsChanged = new HashSet<Sha256Hash>();
+	private final List<Address> pendingKeysAdded = new ArrayList<Address>();
+
+	private static final Logger log = LoggerFactory.getLogger(WalletChangeDispatcher.class);
+
+	public WalletChangeDispatcher(@Nonnull final WalletLockProfiler lockProfiler, @Nonnull final WalletBalanceCache balanceCache,
+			@Nonnull final TransactionMemo transactionMemo, @Nonnull final Handler handler, final long windowMs)
+	{
+		this.lockProfiler = lockProfiler;
+		this.balanceCache = balanceCache;
+		this.transactionMemo = transactionMemo;
+		this.handler = handler;
+		this.windowMs = windowMs;
+	}
+
+	/**
+	 * Moves the subscription to a newly loaded or replaced wallet. Subscribers get a reset delta.
+	 */
+	public synchronized void setWallet(@Nonnull final Wallet newWallet)
+	{
+		final Wallet oldWallet = wallet;
+		if (oldWallet == newWallet)
+			return;
+
+		if (oldWallet != null)
+			lockProfiler.removeEventListener(oldWallet, walletListener);
+
+		wallet = newWallet;
+		balanceCache.invalidate();
+		transactionMemo.invalidateAll();
+		lockProfiler.addEventListener(newWallet, walletListener, "walletChangeDispatcher");
+
+		synchronized (pendingLock)
+		{
+			pendingReset = true;
+		}
+
+		schedule();
+	}
+
+	public void addSubscriber(@Nonnull final Subscriber subscriber)
+	{
+		subscribers.add(subscriber);
+	}
+
+	public void removeSubscriber(@Nonnull final Subscriber subscriber)
+	{
+		subscribers.remove(subscriber);
+	}
+
+	/**
+	 * @return latest snapshot, or null if none has been taken yet
+	 */
+	@CheckForNull
+	public WalletSnapshot getSnapshot()
+	{
+		return snapshot;
+	}
+
+	/**
+	 * @return latest snapshot, taking one right away if none has been taken yet
+	 */
+	public WalletSnapshot getOrTakeSnapshot()
+	{
+		final WalletSnapshot snapshot = this.snapshot;
+		return snapshot != null ? snapshot : takeSnapshot(null, Collections.<Sha256Hash> emptySet());
+	}
+
+	private synchronized WalletSnapshot takeSnapshot(@CheckForNull final WalletSnapshot previous, @Nonnull final Set<Sha256Hash> changed)
+	{
+		final long start = System.currentTimeMillis();
+
+		final Wallet wallet = this.wallet;
+		final WalletSnapshot snapshot;
+		final long lockToken = lockProfiler.lock(wallet, "walletSnapshot");
+		try
+		{
+			snapshot = WalletSnapshot.take(wallet, ++version, balanceCache, transactionMemo, previous, changed);
+		}
+		finally
+		{
+			lockProfiler.unlock(wallet, "walletSnapshot", lockToken);
+		}
+		this.snapshot = snapshot;
+
+		log.debug("wallet snapshot {} taken, {} transactions ({}), took {}ms", snapshot.version, snapshot.transactions.size(),
+				previous != null ? changed.size() + " changed" : "all built", System.currentTimeMillis() - start);
+
+		return snapshot;
+	}
+
+	private void schedule()
+	{
+		synchronized (pendingLock)
+		{
+			// changes coming in while a flush is pending are covered by it
+			if (flushScheduled)
+				return;
+			flushScheduled = true;
+		}
+
+		handler.postDelayed(flushRunnable, windowMs);
+	}
+
+	private final WalletEventListener walletListener = new AbstractWalletEventListener()
+	{
+		@Override
+		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			balanceCache.invalidate();
+			transactionMemo.invalidate(tx);
+
+			synchronized (pendingLock)
+			{
+				pendingTransactionsChanged.add(tx.getHash());
+			}
+		}
+
+		@Override
+		public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			balanceCache.invalidate();
+			transactionMemo.invalidate(tx);
+
+			synchronized (pendingLock)
+			{
+				pendingTransactionsChanged.add(tx.getHash());
+			}
+		}
+
+		@Override
+		public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+		{
+			balanceCache.onTransactionConfidenceChanged(tx);
+
+			// fired for every building transaction with each block, but a summary needs no rebuild for its depth
+			final Sha256Hash hash = tx.getHash();
+			final WalletSnapshot snapshot = WalletChangeDispatcher.this.snapshot;
+			final WalletSnapshot.TransactionSummary summary = snapshot != null ? snapshot.getTransaction(hash) : null;
+			final boolean depthOnly = summary != null && summary.differsOnlyInDepth(tx);
+			if (!depthOnly)
+				transactionMemo.invalidate(tx);
+
+			synchronized (pendingLock)
+			{
+				pendingConfidenceChanged.add(hash);
+				if (!depthOnly)
+					pendingTransactionsChanged.add(hash);
+			}
+		}
+
+		@Override
+		public void onReorganize(final Wallet wallet)
+		{
+			balanceCache.invalidate();
+			transactionMemo.invalidateAll();
+
+			synchronized (pendingLock)
+			{
+				pendingReorganized = true;
+			}
+		}
+
+		@Override
+		public void onKeysAdded(final Wallet wallet, final List<ECKey> keys)
+		{
+			transactionMemo.invalidateAll();
+
+			synchronized (pendingLock)
+			{
+				for (final ECKey key : keys)
+					pendingKeysAdded.add(key.toAddress(Constants.NETWORK_PARAMETERS));
+			}
+
+			schedule();
+		}
+
+		@Override
+		public void onWalletChanged(final Wallet wallet)
+		{
+			// end of a batch of changes
+			schedule();
+		}
+	};
+
+	private final Runnable flushRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			final boolean reset;
+			final boolean reorganized;
+			final Set<Sha256Hash> confidenceChanged;
+			final Set<Sha256Hash> transactionsChanged;
+			final List<Address> keysAdded;
+
+			synchronized (pendingLock)
+			{
+				flushScheduled = false;
+
+				reset = pendingReset;
+				reorganized = pendingReorganized;
+				confidenceChanged = new HashSet<Sha256Hash>(pendingConfidenceChanged);
+				transactionsChanged = new HashSet<Sha256Hash>(pendingTransactionsChanged);
+				keysAdded = new ArrayList<Address>(pendingKeysAdded);
+
+				pendingReset = false;
+				pendingReorganized = false;
+				pendingConfidenceChanged.clear();
+				pendingTransactionsChanged.clear();
+				pendingKeysAdded.clear();
+			}
+
+			final WalletSnapshot previous = lastDelivered;
+			// transaction objects are replaced on reset and reorganize, and added keys change the values of any of them,
+			// so only reuse summaries otherwise
+			final boolean rebuild = reset || reorganized || !keysAdded.isEmpty();
+			final WalletSnapshot current = takeSnapshot(rebuild ? null : previous, transactionsChanged);
+			final WalletDelta delta = reset || previous == null ? WalletDelta.reset() : WalletDelta.between(previous, current, confidenceChanged,
+					keysAdded, reorganized);
+			lastDelivered = current;
+
+			if (delta.isEmpty())
+				return;
+
+			log.debug("wallet delta {}: {}", current.version, delta);
+
+			mainHandler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (final Subscriber subscriber : subscribers)
+						subscriber.onWalletChanged(current, delta);
+				}
+			});
+		}
+	};
+}
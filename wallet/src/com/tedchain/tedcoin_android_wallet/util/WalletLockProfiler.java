@@ -0,0 +1,333 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.util;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+import com.tedchain.tedcoinj.core.ECKey;
+import com.tedchain.tedcoinj.core.Transaction;
+import com.tedchain.tedcoinj.core.Wallet;
+import com.tedchain.tedcoinj.core.WalletEventListener;
+import com.tedchain.tedcoinj.script.Script;
+import com.tedchain.tedcoinj.utils.Threading;
+
+/**
+ * Debug instrumentation of the wallet lock. Records, per caller, how long it waited for the lock and how long it held it,
+ * and per listener callback how long it ran. Listeners registered with {@link Threading#SAME_THREAD} run on tedcoinj's
+ * threads with the wallet lock held, so their time adds directly to block processing.
+ *
+ * If disabled, locking and listener registration go straight to the wallet.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletLockProfiler
+{
+	private final boolean enabled;
+
+	private final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+	private final Map<WalletEventListener, WalletEventListener> wrappers = new IdentityHashMap<WalletEventListener, WalletEventListener>();
+
+	public WalletLockProfiler(final boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Takes the wallet lock on behalf of the given caller.
+	 *
+	 * @return token to pass to {@link #unlock(Wallet, String, long)}
+	 */
+	public long lock(@Nonnull final Wallet wallet, @Nonnull final String caller)
+	{
+		if (!enabled)
+		{
+			wallet.getLock().lock();
+			return 0;
+		}
+
+		final long start = System.nanoTime();
+		wallet.getLock().lock();
+		final long acquired = System.nanoTime();
+
+		record("wait " + caller, acquired - start);
+
+		return acquired;
+	}
+
+	public void unlock(@Nonnull final Wallet wallet, @Nonnull final String caller, final long token)
+	{
+		final long released = System.nanoTime();
+		wallet.getLock().unlock();
+
+		if (enabled)
+			record("hold " + caller, released - token);
+	}
+
+	/**
+	 * Registers the listener to run on the thread that fires the event, timing each callback if enabled.
+	 */
+	public void addEventListener(@Nonnull final Wallet wallet, @Nonnull final WalletEventListener listener, @Nonnull final String name)
+	{
+		if (!enabled)
+		{
+			wallet.addEventListener(listener, Threading.SAME_THREAD);
+			return;
+		}
+
+		final WalletEventListener wrapper;
+		synchronized (wrappers)
+		{
+			final WalletEventListener existingWrapper = wrappers.get(listener);
+			if (existingWrapper != null)
+			{
+				wrapper = existingWrapper;
+			}
+			else
+			{
+				wrapper = new ProfilingWalletEventListener(listener, name);
+				wrappers.put(listener, wrapper);
+			}
+		}
+
+		wallet.addEventListener(wrapper, Threading.SAME_THREAD);
+	}
+
+	public void removeEventListener(@Nonnull final Wallet wallet, @Nonnull final WalletEventListener listener)
+	{
+		final WalletEventListener wrapper;
+		synchronized (wrappers)
+		{
+			wrapper = wrappers.remove(listener);
+		}
+
+		wallet.removeEventListener(wrapper != null ? wrapper : listener);
+	}
+
+	private void record(final String key, final long nanos)
+	{
+		synchronized (histograms)
+		{
+			Histogram histogram = histograms.get(key);
+			if (histogram == null)
+			{
+				histogram = new Histogram();
+				histograms.put(key, histogram);
+			}
+
+			histogram.record(nanos);
+		}
+	}
+
+	public void appendHistograms(@Nonnull final Appendable report) throws IOException
+	{
+		synchronized (histograms)
+		{
+			if (histograms.isEmpty())
+				report.append("(nothing recorded)\n");
+
+			for (final Map.Entry<String, Histogram> entry : histograms.entrySet())
+			{
+				report.append(entry.getKey()).append(": ");
+				entry.getValue().append(report);
+				report.append('\n');
+			}
+		}
+	}
+
+	public static final class Histogram
+	{
+		private static final long[] BOUNDS_NANOS = { 100000l, 1000000l, 2000000l, 5000000l, 10000000l, 20000000l, 50000000l, 100000000l,
+				200000000l, 500000000l, 1000000000l };
+		private static final String[] BOUND_LABELS = { "0.1ms", "1ms", "2ms", "5ms", "10ms", "20ms", "50ms", "100ms", "200ms", "500ms", "1s" };
+
+		private final int[] buckets = new int[BOUNDS_NANOS.length + 1];
+		private int count = 0;
+		private long totalNanos = 0;
+		private long maxNanos = 0;
+
+		public void record(final long nanos)
+		{
+			int bucket = 0;
+			while (bucket < BOUNDS_NANOS.length && nanos >= BOUNDS_NANOS[bucket])
+				bucket++;
+
+			buckets[bucket]++;
+			count++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+
+		public int getCount()
+		{
+			return count;
+		}
+
+		public int getBucket(final int bucket)
+		{
+			return buckets[bucket];
+		}
+
+		public void append(@Nonnull final Appendable report) throws IOException
+		{
+			report.append(count + "x, total " + totalNanos / 1000000 + "ms, max " + maxNanos / 1000000 + "ms");
+
+			for (int i = 0; i < buckets.length; i++)
+			{
+				if (buckets[i] > 0)
+				{
+					report.append(i < BOUND_LABELS.length ? ", <" + BOUND_LABELS[i] : ", >=" + BOUND_LABELS[BOUND_LABELS.length - 1]);
+					report.append(": " + buckets[i]);
+				}
+			}
+		}
+	}
+
+	private final class ProfilingWalletEventListener implements WalletEventListener
+	{
+		private final WalletEventListener delegate;
+		private final String keyCoinsReceived;
+		private final String keyCoinsSent;
+		private final String keyReorganize;
+		private final String keyTransactionConfidenceChanged;
+		private final String keyWalletChanged;
+		private final String keyKeysAdded;
+		private final String keyScriptsAdded;
+
+		private ProfilingWalletEventListener(final WalletEventListener delegate, final String name)
+		{
+			this.delegate = delegate;
+			this.keyCoinsReceived = "listener " + name + ".onCoinsReceived";
+			this.keyCoinsSent = "listener " + name + ".onCoinsSent";
+			this.keyReorganize = "listener " + name + ".onReorganize";
+			this.keyTransactionConfidenceChanged = "listener " + name + ".onTransactionConfidenceChanged";
+			this.keyWalletChanged = "listener " + name + ".onWalletChanged";
+			this.keyKeysAdded = "listener " + name + ".onKeysAdded";
+			this.keyScriptsAdded = "listener " + name + ".onScriptsAdded";
+		}
+
+		@Override
+		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			final long start = System.nanoTime();
+			try
+			{
+				delegate.onCoinsReceived(wallet, tx, prevBalance, newBalance);
+			}
+			finally
+			{
+				record(keyCoinsReceived, System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			final long start = System.nanoTime();
+			try
+			{
+				delegate.onCoinsSent(wallet, tx, prevBalance, newBalance);
+			}
+			finally
+			{
+				record(keyCoinsSent, System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public void onReorganize(final Wallet wallet)
+		{
+			final long start = System.nanoTime();
+			try
+			{
+				delegate.onReorganize(wallet);
+			}
+			finally
+			{
+				record(keyReorganize, System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+		{
+			final long start = System.nanoTime();
+			try
+			{
+				delegate.onTransactionConfidenceChanged(wallet, tx);
+			}
+			finally
+			{
+				record(keyTransactionConfidenceChanged, System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public void onWalletChanged(final Wallet wallet)
+		{
+			final long start = System.nanoTime();
+			try
+			{
+				delegate.onWalletChanged(wallet);
+			}
+			finally
+			{
+				record(keyWalletChanged, System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public void onKeysAdded(final Wallet wallet, final List<ECKey> keys)
+		{
+			final long start = System.nanoTime();
+			try
+			{
+				delegate.onKeysAdded(wallet, keys);
+			}
+			finally
+			{
+				record(keyKeysAdded, System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public void onScriptsAdded(final Wallet wallet, final List<Script> scripts)
+		{
+			final long start = System.nanoTime();
+			try
+			{
+				delegate.onScriptsAdded(wallet, scripts);
+			}
+			finally
+			{
+				record(keyScriptsAdded, System.nanoTime() - start);
+			}
+		}
+	}
+}
@@ -90,6 +90,20 @@ public class WalletUtils
 				| ((bytes[27] & 0xFFl) << 32) | ((bytes[26] & 0xFFl) << 40) | ((bytes[25] & 0xFFl) << 48) | ((bytes[23] & 0xFFl) << 56);
 	}
 
+	/**
+	 * Same as {@link #longHash(Sha256Hash)}, but from the hex representation of the hash, without allocating.
+	 */
+	public static long longHash(@Nonnull final char[] hex)
+	{
+		return hexByte(hex, 31) | (hexByte(hex, 30) << 8) | (hexByte(hex, 29) << 16) | (hexByte(hex, 28) << 24) | (hexByte(hex, 27) << 32)
+				| (hexByte(hex, 26) << 40) | (hexByte(hex, 25) << 48) | (hexByte(hex, 23) << 56);
+	}
+
+	private static long hexByte(final char[] hex, final int index)
+	{
+		return (Character.digit(hex[index * 2], 16) << 4) | Character.digit(hex[index * 2 + 1], 16);
+	}
+
 	public static Editable formatHash(@Nullable final String prefix, @Nonnull final String address, final int groupSize, final int lineSize,
 			final char groupSeparator)
 	{
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.service;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class PeerCountControllerTest
+{
+	@Test
+	public void growsWhileSpeedupPaysOff() throws Exception
+	{
+		final PeerCountController controller = new PeerCountController(false);
+		assertEquals(6, controller.getMaxConnectedPeers());
+
+		assertEquals(6, controller.sample(0.8f, 100, 80, false, 100)); // settling
+		assertEquals(7, controller.sample(0.8f, 100, 80, false, 100));
+		assertEquals(7, controller.sample(0.8f, 100, 80, false, 150)); // settling
+		assertEquals(8, controller.sample(0.8f, 100, 80, false, 150));
+		assertEquals(8, controller.sample(0.8f, 100, 80, false, 152)); // settling
+		assertEquals(7, controller.sample(0.8f, 100, 80, false, 152)); // no marginal speedup
+	}
+
+	@Test
+	public void shrinksWhenConstrained() throws Exception
+	{
+		final PeerCountController controller = new PeerCountController(false);
+
+		assertEquals(5, controller.sample(0.1f, 100, 80, false, 100)); // heap
+		assertEquals(4, controller.sample(0.8f, 10000, 80, false, 100)); // cpu
+		assertEquals(2, controller.sample(0.8f, 100, 10, false, 100)); // battery
+		assertEquals(3, controller.sample(0.8f, 100, 10, true, 0)); // charging, idle
+		assertEquals(4, controller.sample(0.8f, 100, 10, true, 0));
+	}
+
+	@Test
+	public void driftsBackToBaselineWhenIdle() throws Exception
+	{
+		final PeerCountController controller = new PeerCountController(true);
+		assertEquals(4, controller.getMaxConnectedPeers());
+
+		controller.sample(0.8f, 100, 80, false, 100);
+		assertEquals(5, controller.sample(0.8f, 100, 80, false, 100));
+		assertEquals(4, controller.sample(0.8f, 100, 80, false, 0));
+		assertEquals(4, controller.sample(0.8f, 100, 80, false, 0));
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.service;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class SyncProgressEstimatorTest
+{
+	private static final long BLOCK_INTERVAL_MS = 600000;
+
+	@Test
+	public void unknownBeforeFirstBlock() throws Exception
+	{
+		final SyncProgressEstimator estimator = new SyncProgressEstimator(BLOCK_INTERVAL_MS);
+
+		assertEquals(-1, estimator.getProgressPercent());
+		assertEquals(-1, estimator.getEtaMs());
+	}
+
+	@Test
+	public void progressAndEtaFromPeerHeight() throws Exception
+	{
+		final SyncProgressEstimator estimator = new SyncProgressEstimator(BLOCK_INTERVAL_MS);
+
+		estimator.onBlock(0, 1000, 0, 2000);
+		assertEquals(0, estimator.getProgressPercent());
+		assertEquals(-1, estimator.getEtaMs()); // no rate yet
+
+		estimator.onBlock(1000, 1100, 0, 2000);
+		assertEquals(10, estimator.getProgressPercent());
+		assertEquals(9000, estimator.getEtaMs()); // 900 blocks at 100 blocks/s
+
+		estimator.onBlock(10000, 2000, 0, 2000);
+		assertEquals(100, estimator.getProgressPercent());
+		assertEquals(0, estimator.getEtaMs());
+	}
+
+	@Test
+	public void targetExtrapolatedFromChainHeadAge() throws Exception
+	{
+		final SyncProgressEstimator estimator = new SyncProgressEstimator(BLOCK_INTERVAL_MS);
+
+		estimator.onBlock(100 * BLOCK_INTERVAL_MS, 1000, 0, 0);
+		estimator.onBlock(100 * BLOCK_INTERVAL_MS + 1000, 1050, 50 * BLOCK_INTERVAL_MS, 0);
+
+		assertEquals(50, estimator.getProgressPercent());
+		assertEquals(1000, estimator.getEtaMs());
+	}
+}
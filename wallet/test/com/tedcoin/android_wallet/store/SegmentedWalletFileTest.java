@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.store;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.tedcoinj.wallet.Protos;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class SegmentedWalletFileTest
+{
+	private static final String NETWORK = "org.tedcoin.production";
+
+	@Test
+	public void roundTrip() throws Exception
+	{
+		final Protos.Wallet wallet = wallet(250);
+
+		final SegmentedWalletFile.Result result = SegmentedWalletFile.read(write(wallet));
+
+		assertEquals(-1, result.rescanHeight);
+		assertEquals(1, result.wallet.getKeyCount());
+		assertEquals(250, result.wallet.getTransactionCount());
+		assertEquals(1249, result.wallet.getLastSeenBlockHeight());
+	}
+
+	@Test
+	public void legacy() throws Exception
+	{
+		final Protos.Wallet wallet = wallet(3);
+
+		final SegmentedWalletFile.Result result = SegmentedWalletFile.read(wallet.toByteArray());
+
+		assertEquals(-1, result.rescanHeight);
+		assertEquals(wallet, result.wallet);
+	}
+
+	@Test
+	public void corruptTransactionSegment() throws Exception
+	{
+		final byte[] bytes = write(wallet(250));
+
+		// flip a byte in the last segment, which holds the transactions from height 1200 on
+		bytes[bytes.length - 10] ^= 0xff;
+
+		// the rescan starts at the last good segment, which holds the transactions from height 1100 on
+		final SegmentedWalletFile.Result result = SegmentedWalletFile.read(bytes);
+		assertEquals(1100, result.rescanHeight);
+		assertEquals(200, result.wallet.getTransactionCount());
+
+		final Protos.Wallet.Builder recovered = result.wallet.toBuilder();
+		SegmentedWalletFile.dropFrom(recovered, result.rescanHeight);
+		assertEquals(100, recovered.getTransactionCount());
+		assertEquals(1099, recovered.getLastSeenBlockHeight());
+		assertEquals(false, recovered.hasLastSeenBlockHash());
+	}
+
+	@Test
+	public void dropDisconnectsSpentOutputs() throws Exception
+	{
+		final Protos.Wallet.Builder wallet = wallet(2).toBuilder();
+		final Protos.Transaction.Builder spent = wallet.getTransactionBuilder(0);
+		spent.setPool(Protos.Transaction.Pool.SPENT);
+		spent.getTransactionOutputBuilder(0).setSpentByTransactionHash(wallet.getTransaction(1).getHash()).setSpentByTransactionIndex(0);
+
+		SegmentedWalletFile.dropFrom(wallet, 1001);
+
+		assertEquals(1, wallet.getTransactionCount());
+		assertEquals(Protos.Transaction.Pool.UNSPENT, wallet.getTransaction(0).getPool());
+		assertEquals(false, wallet.getTransaction(0).getTransactionOutput(0).hasSpentByTransactionHash());
+	}
+
+	@Test
+	public void dropKeepsPendingTransactions() throws Exception
+	{
+		final Protos.Wallet.Builder wallet = wallet(2).toBuilder();
+		final Protos.Transaction.Builder spent = wallet.getTransactionBuilder(0);
+		spent.setPool(Protos.Transaction.Pool.SPENT);
+		spent.getTransactionOutputBuilder(0).setSpentByTransactionHash(wallet.getTransaction(1).getHash()).setSpentByTransactionIndex(0);
+		wallet.getTransactionBuilder(1).setPool(Protos.Transaction.Pool.PENDING).getConfidenceBuilder()
+				.setType(Protos.TransactionConfidence.Type.PENDING).clearAppearedAtHeight();
+
+		SegmentedWalletFile.dropFrom(wallet, 1001);
+
+		// the output stays spent by the pending transaction
+		assertEquals(2, wallet.getTransactionCount());
+		assertEquals(Protos.Transaction.Pool.SPENT, wallet.getTransaction(0).getPool());
+		assertEquals(wallet.getTransaction(1).getHash(), wallet.getTransaction(0).getTransactionOutput(0).getSpentByTransactionHash());
+	}
+
+	@Test(expected = IOException.class)
+	public void corruptKeys() throws Exception
+	{
+		final byte[] bytes = write(wallet(1));
+
+		// the key segment follows magic, version and the metadata segment
+		final int metadataLength = ((bytes[10] & 0xff) << 24) | ((bytes[11] & 0xff) << 16) | ((bytes[12] & 0xff) << 8) | (bytes[13] & 0xff);
+		bytes[5 + 17 + metadataLength + 17] ^= 0xff;
+
+		SegmentedWalletFile.read(bytes);
+	}
+
+	private static byte[] write(final Protos.Wallet wallet) throws IOException
+	{
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SegmentedWalletFile.write(wallet, os);
+		return os.toByteArray();
+	}
+
+	private static Protos.Wallet wallet(final int numTransactions)
+	{
+		final Protos.Wallet.Builder wallet = Protos.Wallet.newBuilder().setNetworkIdentifier(NETWORK);
+		wallet.addKey(Protos.Key.newBuilder().setType(Protos.Key.Type.ORIGINAL).setPublicKey(ByteString.copyFrom(new byte[33])));
+
+		for (int i = 0; i < numTransactions; i++)
+		{
+			final byte[] hash = new byte[32];
+			hash[0] = (byte) i;
+			hash[1] = (byte) (i >> 8);
+
+			wallet.addTransaction(Protos.Transaction.newBuilder().setHash(ByteString.copyFrom(hash)).setVersion(1)
+					.setPool(Protos.Transaction.Pool.UNSPENT)
+					.addTransactionOutput(Protos.TransactionOutput.newBuilder().setValue(1000).setScriptBytes(ByteString.EMPTY))
+					.setConfidence(Protos.TransactionConfidence.newBuilder().setType(Protos.TransactionConfidence.Type.BUILDING)
+							.setAppearedAtHeight(1000 + i)));
+		}
+
+		wallet.setLastSeenBlockHeight(1000 + numTransactions - 1);
+		wallet.setLastSeenBlockHash(ByteString.copyFrom(new byte[32]));
+
+		return wallet.build();
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.store;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tedcoinj.wallet.Protos;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class WalletJournalTest
+{
+	private static final String NETWORK = "org.tedcoin.production";
+
+	private File baseFile;
+	private File journalFile;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		baseFile = File.createTempFile("wallet", ".base");
+		journalFile = new File(baseFile.getPath() + ".journal");
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		baseFile.delete();
+		journalFile.delete();
+	}
+
+	@Test
+	public void newBlockAppendsNoTransactions() throws Exception
+	{
+		final WalletJournal journal = new WalletJournal(baseFile, journalFile, Long.MAX_VALUE);
+		journal.compact(wallet(3, 1002, Protos.Transaction.Pool.UNSPENT));
+
+		journal.write(wallet(3, 1003, Protos.Transaction.Pool.UNSPENT));
+
+		assertEquals(0, journalRecord().getTransactionCount());
+		assertEquals(1003, journalRecord().getLastSeenBlockHeight());
+
+		// depths are derived again
+		final Protos.Wallet read = new WalletJournal(baseFile, journalFile, Long.MAX_VALUE).read();
+		assertEquals(4, read.getTransaction(0).getConfidence().getDepth());
+		assertEquals(2, read.getTransaction(2).getConfidence().getDepth());
+	}
+
+	@Test
+	public void changedTransactionIsJournaled() throws Exception
+	{
+		final WalletJournal journal = new WalletJournal(baseFile, journalFile, Long.MAX_VALUE);
+		journal.compact(wallet(3, 1002, Protos.Transaction.Pool.UNSPENT));
+
+		journal.write(wallet(3, 1003, Protos.Transaction.Pool.SPENT));
+
+		assertEquals(3, journalRecord().getTransactionCount());
+
+		final Protos.Wallet read = new WalletJournal(baseFile, journalFile, Long.MAX_VALUE).read();
+		assertEquals(Protos.Transaction.Pool.SPENT, read.getTransaction(1).getPool());
+	}
+
+	private Protos.Wallet journalRecord() throws IOException
+	{
+		final InputStream is = new FileInputStream(journalFile);
+		try
+		{
+			Protos.Wallet.parseDelimitedFrom(is); // header
+			return Protos.Wallet.parseDelimitedFrom(is);
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static Protos.Wallet wallet(final int numTransactions, final int chainHeight, final Protos.Transaction.Pool pool)
+	{
+		final Protos.Wallet.Builder wallet = Protos.Wallet.newBuilder().setNetworkIdentifier(NETWORK);
+		wallet.addKey(Protos.Key.newBuilder().setType(Protos.Key.Type.ORIGINAL).setPublicKey(ByteString.copyFrom(new byte[33])));
+
+		for (int i = 0; i < numTransactions; i++)
+		{
+			final byte[] hash = new byte[32];
+			hash[0] = (byte) i;
+
+			final int appearedAtHeight = 1000 + i;
+			wallet.addTransaction(Protos.Transaction.newBuilder().setHash(ByteString.copyFrom(hash)).setVersion(1).setPool(pool)
+					.addTransactionOutput(Protos.TransactionOutput.newBuilder().setValue(1000).setScriptBytes(ByteString.EMPTY))
+					.setConfidence(Protos.TransactionConfidence.newBuilder().setType(Protos.TransactionConfidence.Type.BUILDING)
+							.setAppearedAtHeight(appearedAtHeight).setDepth(chainHeight - appearedAtHeight + 1)
+							.setWorkDone(chainHeight - appearedAtHeight + 1)));
+		}
+
+		wallet.setLastSeenBlockHeight(chainHeight);
+		wallet.setLastSeenBlockHash(ByteString.copyFrom(new byte[32]));
+
+		return wallet.build();
+	}
+}
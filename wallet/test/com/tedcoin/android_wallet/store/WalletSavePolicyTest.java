@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class WalletSavePolicyTest
+{
+	private static final long NORMAL_DELAY_MS = 1000;
+	private static final long REPLAY_DELAY_MS = 60000;
+
+	@Test
+	public void normalDelay() throws Exception
+	{
+		final WalletSavePolicy policy = new WalletSavePolicy(NORMAL_DELAY_MS, REPLAY_DELAY_MS);
+
+		assertFalse(policy.isDirty());
+		assertEquals(NORMAL_DELAY_MS, policy.markDirty(WalletSavePolicy.DIRTY_LAST_SEEN_BLOCK));
+		assertEquals(NORMAL_DELAY_MS, policy.markDirty(WalletSavePolicy.DIRTY_TRANSACTIONS));
+		assertTrue(policy.isDirty());
+	}
+
+	@Test
+	public void paymentSavesImmediately() throws Exception
+	{
+		final WalletSavePolicy policy = new WalletSavePolicy(NORMAL_DELAY_MS, REPLAY_DELAY_MS);
+
+		assertEquals(0, policy.markDirty(WalletSavePolicy.DIRTY_PAYMENT));
+		// still dirty with a payment, so further changes do not delay it
+		assertEquals(0, policy.markDirty(WalletSavePolicy.DIRTY_TRANSACTIONS));
+	}
+
+	@Test
+	public void replayDelaysEverythingButKeys() throws Exception
+	{
+		final WalletSavePolicy policy = new WalletSavePolicy(NORMAL_DELAY_MS, REPLAY_DELAY_MS);
+		policy.setReplaying(true);
+
+		assertEquals(REPLAY_DELAY_MS, policy.markDirty(WalletSavePolicy.DIRTY_LAST_SEEN_BLOCK));
+		assertEquals(REPLAY_DELAY_MS, policy.markDirty(WalletSavePolicy.DIRTY_PAYMENT));
+		assertEquals(0, policy.markDirty(WalletSavePolicy.DIRTY_KEYS));
+	}
+
+	@Test
+	public void ownSendSavesImmediatelyDuringReplay() throws Exception
+	{
+		final WalletSavePolicy policy = new WalletSavePolicy(NORMAL_DELAY_MS, REPLAY_DELAY_MS);
+		policy.setReplaying(true);
+
+		assertEquals(REPLAY_DELAY_MS, policy.markDirty(WalletSavePolicy.DIRTY_TRANSACTIONS));
+		assertEquals(0, policy.markDirty(WalletSavePolicy.DIRTY_OWN_SEND));
+		// still dirty with an own send, so replayed changes do not delay it
+		assertEquals(0, policy.markDirty(WalletSavePolicy.DIRTY_PAYMENT));
+	}
+
+	@Test
+	public void takeDirty() throws Exception
+	{
+		final WalletSavePolicy policy = new WalletSavePolicy(NORMAL_DELAY_MS, REPLAY_DELAY_MS);
+		policy.markDirty(WalletSavePolicy.DIRTY_LAST_SEEN_BLOCK);
+		policy.markDirty(WalletSavePolicy.DIRTY_PAYMENT);
+
+		assertEquals(WalletSavePolicy.DIRTY_LAST_SEEN_BLOCK | WalletSavePolicy.DIRTY_PAYMENT, policy.takeDirty());
+		assertFalse(policy.isDirty());
+		assertEquals(NORMAL_DELAY_MS, policy.markDirty(WalletSavePolicy.DIRTY_TRANSACTIONS));
+	}
+
+	@Test
+	public void metrics() throws Exception
+	{
+		final WalletSavePolicy policy = new WalletSavePolicy(NORMAL_DELAY_MS, REPLAY_DELAY_MS);
+		policy.recordSave(100, 5);
+		policy.recordSave(300, 20);
+
+		assertEquals(2, policy.getNumSaves());
+		assertEquals(400, policy.getBytesWritten());
+		assertEquals(25, policy.getTotalLatencyMs());
+		assertEquals(20, policy.takeMaxLatencyMs());
+		assertEquals(0, policy.takeMaxLatencyMs());
+	}
+}
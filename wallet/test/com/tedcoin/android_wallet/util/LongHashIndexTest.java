@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.tedchain.tedcoinj.core.Sha256Hash;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class LongHashIndexTest
+{
+	private static final String HASH_1 = "4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b";
+	private static final String HASH_2 = "0e3e2357e806b6cdb1f70b54c3a3a17b6714ee1f0e68bebb44a74b1efd512098";
+	private static final String HASH_3 = "9b0fc92260312ce44e74ef369f5c66bbb85848f2eddd5a7a1cde251e54ccfdd5";
+
+	@Test
+	public void lookupByHex() throws Exception
+	{
+		final Map<Sha256Hash, String> items = new HashMap<Sha256Hash, String>();
+		items.put(new Sha256Hash(HASH_1), "one");
+		items.put(new Sha256Hash(HASH_2), "two");
+		items.put(new Sha256Hash(HASH_3), "three");
+
+		final LongHashIndex<String> index = new LongHashIndex<String>(items);
+
+		assertEquals("one", index.get(WalletUtils.longHash(HASH_1.toCharArray())));
+		assertEquals("two", index.get(WalletUtils.longHash(HASH_2.toCharArray())));
+		assertEquals("three", index.get(WalletUtils.longHash(HASH_3.toCharArray())));
+		assertNull(index.get(0));
+	}
+
+	@Test
+	public void empty() throws Exception
+	{
+		final LongHashIndex<String> index = new LongHashIndex<String>(new HashMap<Sha256Hash, String>());
+
+		assertNull(index.get(WalletUtils.longHash(HASH_1.toCharArray())));
+	}
+}
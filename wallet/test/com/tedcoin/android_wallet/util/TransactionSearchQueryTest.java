@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import com.tedchain.tedcoinj.core.TransactionConfidence.ConfidenceType;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class TransactionSearchQueryTest
+{
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+	private static final Map<String, List<String>> NO_LABELS = Collections.emptyMap();
+
+	@Test
+	public void empty() throws Exception
+	{
+		assertNull(TransactionSearchQuery.parse("", 0, UTC));
+		assertNull(TransactionSearchQuery.parse("  ", 0, UTC));
+	}
+
+	@Test
+	public void terms() throws Exception
+	{
+		final TransactionSearchQuery query = TransactionSearchQuery.parse(" alice  rent ", 0, UTC);
+		assertEquals(Arrays.asList("alice", "rent"), query.terms);
+		assertNull(query.minValue);
+		assertNull(query.fromTime);
+		assertTrue(query.confidenceTypes.isEmpty());
+	}
+
+	@Test
+	public void amounts() throws Exception
+	{
+		final TransactionSearchQuery range = TransactionSearchQuery.parse(">1.5 <10", 0, UTC);
+		assertEquals(new BigInteger("1500000"), range.minValue);
+		assertEquals(new BigInteger("10000000"), range.maxValue);
+		assertTrue(range.terms.isEmpty());
+
+		final TransactionSearchQuery exact = TransactionSearchQuery.parse("2.5", 3, UTC);
+		assertEquals(new BigInteger("2500"), exact.minValue);
+		assertEquals(new BigInteger("2500"), exact.maxValue);
+	}
+
+	@Test
+	public void dates() throws Exception
+	{
+		final TransactionSearchQuery day = TransactionSearchQuery.parse("2014-03-01", 0, UTC);
+		assertEquals(1393632000000l, day.fromTime.getTime());
+		assertEquals(1393718400000l, day.untilTime.getTime());
+
+		final TransactionSearchQuery month = TransactionSearchQuery.parse("2014-02", 0, UTC);
+		assertEquals(1391212800000l, month.fromTime.getTime());
+		assertEquals(1393632000000l, month.untilTime.getTime());
+
+		final TransactionSearchQuery from = TransactionSearchQuery.parse(">2014-03-01", 0, UTC);
+		assertEquals(1393632000000l, from.fromTime.getTime());
+		assertNull(from.untilTime);
+
+		final TransactionSearchQuery invalid = TransactionSearchQuery.parse("2014-13-01", 0, UTC);
+		assertEquals(Arrays.asList("2014-13-01"), invalid.terms);
+	}
+
+	@Test
+	public void confidence() throws Exception
+	{
+		final TransactionSearchQuery query = TransactionSearchQuery.parse("is:pending IS:DEAD is:nonsense", 0, UTC);
+		assertEquals(EnumSet.of(ConfidenceType.PENDING, ConfidenceType.DEAD), query.confidenceTypes);
+		assertEquals(Arrays.asList("is:nonsense"), query.terms);
+	}
+
+	@Test
+	public void numberIsAmountOrHashPrefix() throws Exception
+	{
+		final TransactionSearchQuery query = TransactionSearchQuery.parse("2014", 0, UTC);
+		assertEquals(Arrays.asList("2014"), query.terms);
+		assertEquals(new BigInteger("2014000000"), query.termAmounts.get("2014"));
+		assertNull(query.minValue);
+
+		final List<String> args = new ArrayList<String>();
+		final String selection = query.selection(NO_LABELS, args);
+		assertEquals("((hash >= ? AND hash < ?) OR value IN (?,?))", selection);
+		assertEquals(Arrays.asList("2014", "2014\uffff", "2014000000", "-2014000000"), args);
+	}
+
+	@Test
+	public void selection() throws Exception
+	{
+		final List<String> args = new ArrayList<String>();
+		final String selection = TransactionSearchQuery.parse(">1 is:pending", 0, UTC).selection(NO_LABELS, args);
+		assertEquals("(value BETWEEN ? AND ? OR value BETWEEN ? AND ?) AND confidence IN (?)", selection);
+		assertEquals(Arrays.asList("1000000", Long.toString(Long.MAX_VALUE), "-" + Long.MAX_VALUE, "-1000000", "PENDING"), args);
+	}
+
+	@Test
+	public void selectionTerms() throws Exception
+	{
+		final List<String> args = new ArrayList<String>();
+		final Map<String, List<String>> labels = Collections.singletonMap("alice", Arrays.asList("mzA", "n2B'"));
+		final String selection = TransactionSearchQuery.parse("alice Bf9 ???", 0, UTC).selection(labels, args);
+		assertEquals("(address IN (?,?)) AND ((address >= ? AND address < ?) OR (hash >= ? AND hash < ?)) AND 0", selection);
+		assertEquals(Arrays.asList("mzA", "n2B'", "Bf9", "Bf9\uffff", "bf9", "bf9\uffff"), args);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void selectionTooManyLabelledAddresses() throws Exception
+	{
+		final TransactionSearchQuery query = TransactionSearchQuery.parse("alice bob", 0, UTC);
+		final List<String> addresses = Collections.nCopies(query.maxLabelledAddressesPerTerm() + 1, "mzA");
+		query.selection(Collections.singletonMap("alice", addresses), new ArrayList<String>());
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tedchain.tedcoin_android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class WalletLockProfilerTest
+{
+	@Test
+	public void histogramBuckets() throws Exception
+	{
+		final WalletLockProfiler.Histogram histogram = new WalletLockProfiler.Histogram();
+
+		histogram.record(50000l); // 0.05ms
+		histogram.record(100000l); // 0.1ms, belongs to the next bucket
+		histogram.record(1500000l); // 1.5ms
+		histogram.record(5000000000l); // 5s
+
+		assertEquals(4, histogram.getCount());
+		assertEquals(1, histogram.getBucket(0));
+		assertEquals(1, histogram.getBucket(1));
+		assertEquals(1, histogram.getBucket(2));
+		assertEquals(1, histogram.getBucket(11));
+	}
+
+	@Test
+	public void histogramAppend() throws Exception
+	{
+		final WalletLockProfiler.Histogram histogram = new WalletLockProfiler.Histogram();
+
+		histogram.record(3000000l);
+		histogram.record(4000000l);
+		histogram.record(2000000000l);
+
+		final StringBuilder report = new StringBuilder();
+		histogram.append(report);
+		assertEquals("3x, total 2007ms, max 2000ms, <5ms: 2, >=1s: 1", report.toString());
+	}
+}